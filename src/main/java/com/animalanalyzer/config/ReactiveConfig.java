@@ -0,0 +1,81 @@
+package com.animalanalyzer.config;
+
+import com.animalanalyzer.controller.ReactiveAnalysisHandler;
+import com.animalanalyzer.service.PreprocessingExecutor;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.reactive.CorsWebFilter;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import java.util.List;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+
+/**
+ * Reactive runtime, enabled by the {@code reactive} profile: functional routes
+ * on Netty in place of the MVC controllers on Tomcat.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveConfig {
+    
+    @Value("${image.preprocessing.rejection-policy:REJECT}")
+    private PreprocessingExecutor.RejectionPolicy rejectionPolicy;
+    
+    /**
+     * Requests are submitted to the preprocessing pool from the event loop, so
+     * running a rejected task on the caller would decode and resize images
+     * there and stall every connection on that loop.
+     */
+    @PostConstruct
+    void checkRejectionPolicy() {
+        if (rejectionPolicy == PreprocessingExecutor.RejectionPolicy.CALLER_RUNS) {
+            throw new IllegalStateException("image.preprocessing.rejection-policy=CALLER_RUNS would run image "
+                + "preprocessing on the Netty event loop; use REJECT with the reactive profile");
+        }
+    }
+    
+    @Bean
+    public RouterFunction<ServerResponse> analysisRoutes(ReactiveAnalysisHandler handler) {
+        return RouterFunctions.route()
+            .path("/api/v1", api -> api
+                .POST("/analyze", contentType(MediaType.MULTIPART_FORM_DATA), handler::analyze)
+                .GET("/characters", handler::characters)
+                .GET("/characters/{id}", handler::character)
+                .GET("/health", handler::health))
+            .build();
+    }
+    
+    /**
+     * Tomcat is on the classpath for the servlet mode and would otherwise be
+     * picked for the reactive server too.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+    
+    @Bean
+    public CorsWebFilter corsWebFilter() {
+        // Same policy as WebConfig
+        CorsConfiguration cors = new CorsConfiguration();
+        cors.setAllowedOriginPatterns(List.of("*"));
+        cors.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
+        cors.setAllowedHeaders(List.of("*"));
+        cors.setAllowCredentials(false);
+        cors.setMaxAge(3600L);
+        
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/api/**", cors);
+        return new CorsWebFilter(source);
+    }
+}
@@ -1,36 +1,207 @@
 package com.animalanalyzer.controller;
 
 import com.animalanalyzer.model.AnalysisResponse;
+import com.animalanalyzer.model.ProcessedImage;
+import com.animalanalyzer.service.AnalysisListener;
 import com.animalanalyzer.service.AnalysisService;
+import com.animalanalyzer.service.IdempotencyKeyReusedException;
+import com.animalanalyzer.service.ImageService;
+import com.animalanalyzer.service.IdempotencyStore;
+import com.animalanalyzer.service.PreprocessingExecutor;
+import com.animalanalyzer.service.ServiceBusyException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/v1")
 @CrossOrigin(origins = "*")
 @Slf4j
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class AnalysisController {
     
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    
     private final AnalysisService analysisService;
+    private final ImageService imageService;
+    private final IdempotencyStore idempotencyStore;
+    private final ObjectMapper objectMapper;
     
-    public AnalysisController(AnalysisService analysisService) {
+    public AnalysisController(AnalysisService analysisService,
+                              ImageService imageService,
+                              IdempotencyStore idempotencyStore,
+                              ObjectMapper objectMapper) {
         this.analysisService = analysisService;
+        this.imageService = imageService;
+        this.idempotencyStore = idempotencyStore;
+        this.objectMapper = objectMapper;
     }
     
+    /**
+     * Answers asynchronously: the request thread is released while the image
+     * is preprocessed and the upstream call is in flight.
+     */
     @PostMapping("/analyze")
-    public ResponseEntity<AnalysisResponse> analyzeImage(@RequestParam("image") MultipartFile file) {
+    public CompletableFuture<ResponseEntity<?>> analyzeImage(@RequestParam("image") MultipartFile file,
+                                                             @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        log.info("Received analysis request for file: {}", file.getOriginalFilename());
+        return respond(idempotencyKey, () -> IdempotencyStore.fingerprint(file.getInputStream()),
+            () -> analysisService.analyzeImageAsync(file));
+    }
+    
+    /**
+     * Takes the image itself as the request body instead of a multipart form,
+     * so nothing parses or spools the upload before it is read here.
+     */
+    @PostMapping(value = "/analyze/raw", consumes = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE})
+    public CompletableFuture<ResponseEntity<?>> analyzeRawImage(HttpServletRequest request,
+                                                                @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        log.info("Received raw analysis request: {} bytes of {}", request.getContentLengthLong(), request.getContentType());
+        byte[] data;
         try {
-            log.info("Received analysis request for file: {}", file.getOriginalFilename());
-            AnalysisResponse response = analysisService.analyzeImage(file);
-            return ResponseEntity.ok(response);
-        } catch (IllegalArgumentException e) {
+            val contentType = MediaType.parseMediaType(request.getContentType());
+            data = imageService.readImage(request.getInputStream(), request.getContentLengthLong(),
+                contentType.getType() + "/" + contentType.getSubtype());
+        } catch (IllegalArgumentException | IOException e) {
             log.error("Invalid request: {}", e.getMessage());
-            return ResponseEntity.badRequest().build();
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        return respond(idempotencyKey, () -> IdempotencyStore.fingerprint(data),
+            () -> analysisService.analyzeRawImageAsync(data));
+    }
+    
+    /**
+     * Streams the analysis as server-sent events: {@code preprocessed} when
+     * the image is ready, {@code accepted} when the model starts answering, a
+     * {@code field} event for each result field as soon as it is written, and
+     * finally {@code result} with the full response or {@code error} with the
+     * status the plain endpoint would have answered.
+     */
+    @PostMapping(value = "/analyze/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> analyzeImageStream(@RequestParam("image") MultipartFile file) {
+        log.info("Received streamed analysis request for file: {}", file.getOriginalFilename());
+        // Times out with spring.mvc.async.request-timeout, like the other async endpoints
+        val emitter = new SseEmitter();
+        CompletableFuture<AnalysisResponse> analysis;
+        try {
+            analysis = analysisService.analyzeImageStreaming(file, new AnalysisListener() {
+                @Override
+                public void onPreprocessed(ProcessedImage image) {
+                    send(emitter, "preprocessed", Map.of(
+                        "mediaType", image.getMediaType(),
+                        "width", image.getWidth(),
+                        "height", image.getHeight()));
+                }
+                
+                @Override
+                public void onAccepted() {
+                    send(emitter, "accepted", Map.of());
+                }
+                
+                @Override
+                public void onField(String name, Object value) {
+                    send(emitter, "field", new FieldEvent(name, value));
+                }
+            });
         } catch (Exception e) {
-            log.error("Error during analysis", e);
-            return ResponseEntity.internalServerError().build();
+            // Nothing was streamed yet, so the failure is still a plain status
+            val error = errorResponse(e);
+            return ResponseEntity.status(error.getStatusCode()).headers(error.getHeaders()).build();
+        }
+        
+        analysis.whenComplete((response, error) -> {
+            if (error == null) {
+                send(emitter, "result", response);
+            } else {
+                send(emitter, "error", Map.of("status", errorResponse(error).getStatusCode().value()));
+            }
+            emitter.complete();
+        });
+        return ResponseEntity.ok(emitter);
+    }
+    
+    private static void send(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // The client went away or the stream timed out; the analysis still completes and is cached
+            log.debug("Could not send {} event: {}", event, e.getMessage());
+        }
+    }
+    
+    private CompletableFuture<ResponseEntity<?>> respond(String idempotencyKey, Callable<byte[]> fingerprint,
+                                                         Supplier<CompletableFuture<AnalysisResponse>> analysis) {
+        try {
+            CompletableFuture<ResponseEntity<?>> response = idempotencyKey != null
+                ? analyzeIdempotently(idempotencyKey, fingerprint.call(), analysis)
+                : analysis.get().<ResponseEntity<?>>thenApply(ResponseEntity::ok);
+            return response.exceptionally(AnalysisController::errorResponse);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(errorResponse(e));
+        }
+    }
+    
+    /**
+     * Answers with the serialized response stored under the key, so a replay
+     * returns exactly the bytes of the first response. A fallback answer is
+     * not stored, so retrying it asks the model again.
+     */
+    private CompletableFuture<ResponseEntity<?>> analyzeIdempotently(String idempotencyKey, byte[] fingerprint,
+                                                                     Supplier<CompletableFuture<AnalysisResponse>> analysis) {
+        return idempotencyStore.executeAsync(idempotencyKey, fingerprint,
+                () -> analysis.get().thenApply(this::serialize))
+            .<ResponseEntity<?>>thenApply(response -> ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(IDEMPOTENT_REPLAYED, String.valueOf(response.replayed()))
+                .body(response.body()));
+    }
+    
+    private IdempotencyStore.Outcome serialize(AnalysisResponse response) {
+        try {
+            return new IdempotencyStore.Outcome(objectMapper.writeValueAsBytes(response), !response.isFallback());
+        } catch (JsonProcessingException e) {
+            throw new CompletionException(e);
+        }
+    }
+    
+    record FieldEvent(String name, Object value) {
+    }
+    
+    private static ResponseEntity<?> errorResponse(Throwable error) {
+        val e = PreprocessingExecutor.unwrap(error);
+        if (e instanceof IllegalArgumentException) {
+            log.error("Invalid request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        if (e instanceof IdempotencyKeyReusedException) {
+            log.warn("Rejecting request: {}", e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+        if (e instanceof ServiceBusyException busy) {
+            log.warn("Rejecting request: {}", busy.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(busy.getRetryAfterSeconds()))
+                .build();
         }
+        log.error("Error during analysis", e);
+        return ResponseEntity.internalServerError().build();
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.animalanalyzer.controller;
 
 import com.animalanalyzer.model.Character;
 import com.animalanalyzer.service.CharacterService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -10,6 +11,7 @@ import java.util.List;
 @RestController
 @RequestMapping("/api/v1/characters")
 @CrossOrigin(origins = "*")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class CharacterController {
     
     private final CharacterService characterService;
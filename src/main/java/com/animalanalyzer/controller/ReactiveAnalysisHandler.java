@@ -0,0 +1,158 @@
+package com.animalanalyzer.controller;
+
+import com.animalanalyzer.model.AnalysisResponse;
+import com.animalanalyzer.service.AnalysisService;
+import com.animalanalyzer.service.CharacterService;
+import com.animalanalyzer.service.IdempotencyKeyReusedException;
+import com.animalanalyzer.service.IdempotencyStore;
+import com.animalanalyzer.service.ImageService;
+import com.animalanalyzer.service.PreprocessingExecutor;
+import com.animalanalyzer.service.ServiceBusyException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePartEvent;
+import org.springframework.http.codec.multipart.PartEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Handlers for the reactive runtime, routed by
+ * {@link com.animalanalyzer.config.ReactiveConfig}. They answer the same
+ * requests as the MVC controllers without holding a thread per request: the
+ * image is read from the multipart stream as it arrives, preprocessed on the
+ * bounded {@link PreprocessingExecutor}, and analyzed with a non-blocking
+ * upstream call.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Slf4j
+public class ReactiveAnalysisHandler {
+    
+    static final String IMAGE_PART = "image";
+    
+    private final AnalysisService analysisService;
+    private final ImageService imageService;
+    private final CharacterService characterService;
+    private final IdempotencyStore idempotencyStore;
+    private final ObjectMapper objectMapper;
+    
+    public ReactiveAnalysisHandler(AnalysisService analysisService,
+                                   ImageService imageService,
+                                   CharacterService characterService,
+                                   IdempotencyStore idempotencyStore,
+                                   ObjectMapper objectMapper) {
+        this.analysisService = analysisService;
+        this.imageService = imageService;
+        this.characterService = characterService;
+        this.idempotencyStore = idempotencyStore;
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * Reads the {@code image} part as a stream of buffers; other parts are
+     * drained and released unread.
+     */
+    public Mono<ServerResponse> analyze(ServerRequest request) {
+        val idempotencyKey = request.headers().firstHeader(AnalysisController.IDEMPOTENCY_KEY);
+        return request.body(BodyExtractors.toPartEvents())
+            .windowUntil(PartEvent::isLast)
+            .concatMap(part -> part.switchOnFirst((first, events) -> {
+                if (first.get() instanceof FilePartEvent file && IMAGE_PART.equals(file.name())) {
+                    log.info("Received analysis request for file: {}", file.filename());
+                    return imageService.readImage(events.map(PartEvent::content), mediaType(file.headers()));
+                }
+                return events.doOnNext(event -> DataBufferUtils.release(event.content())).then(Mono.<byte[]>empty());
+            }))
+            .next()
+            .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Missing '" + IMAGE_PART + "' part")))
+            .flatMap(data -> respond(idempotencyKey, data))
+            .onErrorResume(ReactiveAnalysisHandler::errorResponse);
+    }
+    
+    public Mono<ServerResponse> characters(ServerRequest request) {
+        return ServerResponse.ok().bodyValue(characterService.getAllCharacters());
+    }
+    
+    public Mono<ServerResponse> character(ServerRequest request) {
+        return characterService.findById(request.pathVariable("id"))
+            .map(character -> ServerResponse.ok().bodyValue(character))
+            .orElseGet(() -> ServerResponse.notFound().build());
+    }
+    
+    public Mono<ServerResponse> health(ServerRequest request) {
+        return ServerResponse.ok().bodyValue(Map.of(
+            "status", "UP",
+            "service", "animal-character-analyzer"
+        ));
+    }
+    
+    private Mono<ServerResponse> respond(String idempotencyKey, byte[] data) {
+        if (idempotencyKey == null) {
+            return Mono.fromFuture(() -> analysisService.analyzeRawImageAsync(data))
+                .flatMap(response -> ServerResponse.ok().bodyValue(response));
+        }
+        
+        // Hashing up to 10MB would stall every connection on this event loop
+        return Mono.fromCallable(() -> IdempotencyStore.fingerprint(data))
+            .subscribeOn(Schedulers.boundedElastic())
+            // Same stored bytes as the MVC endpoint, so a replay is identical in either mode
+            .flatMap(fingerprint -> Mono.fromFuture(() -> idempotencyStore.executeAsync(idempotencyKey, fingerprint,
+                () -> analysisService.analyzeRawImageAsync(data).thenApply(this::serialize))))
+            .flatMap(response -> ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(AnalysisController.IDEMPOTENT_REPLAYED, String.valueOf(response.replayed()))
+                .bodyValue(response.body()));
+    }
+    
+    private IdempotencyStore.Outcome serialize(AnalysisResponse response) {
+        try {
+            return new IdempotencyStore.Outcome(objectMapper.writeValueAsBytes(response), !response.isFallback());
+        } catch (JsonProcessingException e) {
+            throw new CompletionException(e);
+        }
+    }
+    
+    private static String mediaType(HttpHeaders headers) {
+        val contentType = headers.getContentType();
+        return contentType == null ? null : contentType.getType() + "/" + contentType.getSubtype();
+    }
+    
+    private static Mono<ServerResponse> errorResponse(Throwable error) {
+        val e = PreprocessingExecutor.unwrap(error);
+        if (e instanceof IllegalArgumentException) {
+            log.error("Invalid request: {}", e.getMessage());
+            return ServerResponse.badRequest().build();
+        }
+        if (e instanceof IdempotencyKeyReusedException) {
+            log.warn("Rejecting request: {}", e.getMessage());
+            return ServerResponse.unprocessableEntity().build();
+        }
+        if (e instanceof ServiceBusyException busy) {
+            log.warn("Rejecting request: {}", busy.getMessage());
+            return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(busy.getRetryAfterSeconds()))
+                .build();
+        }
+        if (e instanceof ResponseStatusException status) {
+            log.warn("Rejecting request: {}", status.getMessage());
+            return ServerResponse.status(status.getStatusCode()).build();
+        }
+        log.error("Error during analysis", e);
+        return ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+}
@@ -0,0 +1,152 @@
+package com.animalanalyzer.controller;
+
+import com.animalanalyzer.model.UploadRequest;
+import com.animalanalyzer.model.UploadStatus;
+import com.animalanalyzer.service.AnalysisService;
+import com.animalanalyzer.service.PreprocessingExecutor;
+import com.animalanalyzer.service.ServiceBusyException;
+import com.animalanalyzer.service.UploadOffsetMismatchException;
+import com.animalanalyzer.service.UploadSessionStore;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads: create a session, PUT the image in ranged chunks, then
+ * complete it to get the analysis. A client that loses its connection asks
+ * for the session status and resumes from {@code received}.
+ */
+@RestController
+@RequestMapping("/api/v1/uploads")
+@CrossOrigin(origins = "*")
+@Slf4j
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class UploadController {
+    
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d{1,18})-(\\d{1,18})/(\\d{1,18})");
+    
+    private final UploadSessionStore uploadSessionStore;
+    private final AnalysisService analysisService;
+    
+    public UploadController(UploadSessionStore uploadSessionStore, AnalysisService analysisService) {
+        this.uploadSessionStore = uploadSessionStore;
+        this.analysisService = analysisService;
+    }
+    
+    @PostMapping
+    public ResponseEntity<?> createUpload(@RequestBody UploadRequest request) {
+        log.info("Received upload request: {} bytes of {}", request.getSize(), request.getContentType());
+        return handle(() -> {
+            val status = uploadSessionStore.create(request.getContentType(), request.getSize());
+            return ResponseEntity.created(URI.create("/api/v1/uploads/" + status.getId())).body(status);
+        });
+    }
+    
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getUpload(@PathVariable String id) {
+        return handle(() -> ResponseEntity.ok(uploadSessionStore.status(id)));
+    }
+    
+    /**
+     * Stores one chunk, given as {@code Content-Range: bytes start-end/size}.
+     */
+    @PutMapping("/{id}")
+    public ResponseEntity<?> uploadChunk(@PathVariable String id,
+                                         @RequestHeader(HttpHeaders.CONTENT_RANGE) String contentRange,
+                                         HttpServletRequest request) {
+        return handle(() -> {
+            val range = CONTENT_RANGE.matcher(contentRange);
+            if (!range.matches()) {
+                throw new IllegalArgumentException("Content-Range must be 'bytes start-end/size'");
+            }
+            val start = Long.parseLong(range.group(1));
+            val end = Long.parseLong(range.group(2));
+            val contentLength = request.getContentLengthLong();
+            if (contentLength >= 0 && contentLength != end - start + 1) {
+                throw new IllegalArgumentException("Content-Length does not match Content-Range");
+            }
+            
+            UploadStatus status = uploadSessionStore.append(id, start, end,
+                Long.parseLong(range.group(3)), request.getInputStream());
+            log.debug("Upload {} has {} of {} bytes", id, status.getReceived(), status.getSize());
+            return ResponseEntity.ok(status);
+        });
+    }
+    
+    /**
+     * Analyzes a fully received upload. The session is kept if the analysis
+     * fails, so completion can be retried without uploading again.
+     */
+    @PostMapping("/{id}/complete")
+    public CompletableFuture<ResponseEntity<?>> completeUpload(@PathVariable String id) {
+        log.info("Received completion for upload {}", id);
+        try {
+            return analysisService.analyzeUploadAsync(uploadSessionStore.complete(id))
+                .<ResponseEntity<?>>thenApply(response -> {
+                    uploadSessionStore.invalidate(id);
+                    return ResponseEntity.ok(response);
+                })
+                .exceptionally(UploadController::errorResponse);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(errorResponse(e));
+        }
+    }
+    
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> deleteUpload(@PathVariable String id) {
+        return handle(() -> {
+            uploadSessionStore.remove(id);
+            return ResponseEntity.noContent().build();
+        });
+    }
+    
+    private ResponseEntity<?> handle(Callable<ResponseEntity<?>> action) {
+        try {
+            return action.call();
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+    
+    private static ResponseEntity<?> errorResponse(Throwable error) {
+        val e = PreprocessingExecutor.unwrap(error);
+        if (e instanceof IllegalArgumentException) {
+            log.error("Invalid request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        if (e instanceof NoSuchElementException) {
+            log.warn("Rejecting request: {}", e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+        if (e instanceof UploadOffsetMismatchException mismatch) {
+            log.warn("Rejecting chunk: {}", mismatch.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(UPLOAD_OFFSET, String.valueOf(mismatch.getOffset()))
+                .build();
+        }
+        if (e instanceof IllegalStateException) {
+            log.warn("Rejecting request: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        if (e instanceof ServiceBusyException busy) {
+            log.warn("Rejecting request: {}", busy.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(busy.getRetryAfterSeconds()))
+                .build();
+        }
+        log.error("Error during upload", e);
+        return ResponseEntity.internalServerError().build();
+    }
+}
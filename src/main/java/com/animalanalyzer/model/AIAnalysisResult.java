@@ -1,5 +1,6 @@
 package com.animalanalyzer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -17,4 +18,10 @@ public class AIAnalysisResult {
     private List<String> traits;
     private String reasoning;
     private String personalizedStory;
+    // Version of the prompt template the result was produced with
+    private String promptVersion;
+    
+    // Demo or fallback answer rather than a real analysis; never cached
+    @JsonIgnore
+    private boolean fallback;
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.animalanalyzer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -14,4 +15,9 @@ public class AnalysisResponse {
     private String story;
     private double confidence;
     private String reasoning;
+    private String promptVersion;
+    
+    // Built from a demo or fallback answer; never stored for replay
+    @JsonIgnore
+    private boolean fallback;
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.animalanalyzer.model;
+
+import java.util.Optional;
+
+/**
+ * Image formats accepted for analysis, identified by their magic bytes rather
+ * than the client-supplied content type.
+ */
+public enum ImageFormat {
+    
+    JPEG("image/jpeg", "jpeg", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}),
+    PNG("image/png", "png", new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+    
+    private final String mediaType;
+    private final String formatName;
+    private final byte[] signature;
+    
+    ImageFormat(String mediaType, String formatName, byte[] signature) {
+        this.mediaType = mediaType;
+        this.formatName = formatName;
+        this.signature = signature;
+    }
+    
+    public String getMediaType() {
+        return mediaType;
+    }
+    
+    /**
+     * ImageIO format name used to look up readers and writers.
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+    
+    public static Optional<ImageFormat> sniff(byte[] data) {
+        for (ImageFormat format : values()) {
+            if (format.matches(data)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+    
+    private boolean matches(byte[] data) {
+        if (data == null || data.length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (data[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
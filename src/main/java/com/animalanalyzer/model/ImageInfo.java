@@ -0,0 +1,26 @@
+package com.animalanalyzer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Image properties declared in the format headers, available before any
+ * pixel data has been decoded.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageInfo {
+    private ImageFormat format;
+    private int width;
+    private int height;
+    private int frames;
+    private int bitsPerPixel;
+    
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+}
@@ -0,0 +1,35 @@
+package com.animalanalyzer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Encoded image ready to be sent upstream. The bytes are kept raw and only
+ * base64-encoded while the request body is written, so no String copy of the
+ * image is ever built.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProcessedImage {
+    // Only the first {@code length} bytes are image data; the array may be a reused buffer
+    @ToString.Exclude
+    private byte[] data;
+    private int length;
+    private String mediaType;
+    private int width;
+    private int height;
+    // 64-bit dHash of the pixels, or null when near-duplicate lookup is disabled
+    private Long perceptualHash;
+    
+    public InputStream openStream() {
+        return new ByteArrayInputStream(data, 0, length);
+    }
+}
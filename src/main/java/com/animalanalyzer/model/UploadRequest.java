@@ -0,0 +1,15 @@
+package com.animalanalyzer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadRequest {
+    private String contentType;
+    private long size;
+}
@@ -0,0 +1,21 @@
+package com.animalanalyzer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Progress of a resumable upload. {@code received} is the length of the
+ * contiguous prefix stored so far, which is where the next chunk must start.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadStatus {
+    private String id;
+    private long size;
+    private long received;
+    private boolean complete;
+}
@@ -1,7 +1,30 @@
 package com.animalanalyzer.service;
 
 import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface AIService {
-    AIAnalysisResult analyzeImage(String imageBase64) throws Exception;
+    AIAnalysisResult analyzeImage(ProcessedImage image) throws Exception;
+    
+    /**
+     * Analyzes without holding the calling thread while the upstream call is in
+     * flight. Failures complete the future exceptionally rather than being thrown.
+     */
+    CompletableFuture<AIAnalysisResult> analyzeImageAsync(ProcessedImage image);
+    
+    /**
+     * Like {@link #analyzeImageAsync}, but tells {@code listener} when the
+     * upstream call is accepted and reports each result field as soon as the
+     * model has written it. Implementations that cannot stream report every
+     * field once the whole result is in.
+     */
+    default CompletableFuture<AIAnalysisResult> analyzeImageStreaming(ProcessedImage image, AnalysisListener listener) {
+        return analyzeImageAsync(image).thenApply(result -> {
+            listener.onAccepted();
+            AnalysisListener.replay(result, listener);
+            return result;
+        });
+    }
 }
\ No newline at end of file
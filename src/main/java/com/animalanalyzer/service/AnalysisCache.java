@@ -0,0 +1,236 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+/**
+ * Content-addressed cache of analysis results. Keys are the SHA-256 of the
+ * preprocessed image bytes together with the model and prompt version, so a
+ * re-uploaded photo skips the upstream call while a model change or a prompt
+ * reload invalidates everything. A result produced with a different prompt
+ * version than its key names is not stored.
+ * <p>
+ * A size-bounded Caffeine (W-TinyLFU) tier sits in front of an optional
+ * append-only {@link MappedResultStore} that survives restarts and drops the
+ * results of other models and prompt versions when it is opened. Fallback
+ * results are never cached.
+ * <p>
+ * Results are also indexed by the image's perceptual hash, so a re-encoded or
+ * slightly resized copy of an analyzed photo can reuse that result through
+ * {@link #getSimilar(ProcessedImage)} when its exact key misses.
+ */
+@Component
+@Slf4j
+public class AnalysisCache {
+    
+    private final ObjectMapper objectMapper;
+    private final NearDuplicateIndex nearDuplicates;
+    private final PromptRegistry promptRegistry;
+    private final boolean enabled;
+    private final String model;
+    private final Cache<String, AIAnalysisResult> memory;
+    private final MappedResultStore disk;
+    private final Counter diskHits;
+    private final Counter diskMisses;
+    
+    public AnalysisCache(ObjectMapper objectMapper,
+                         NearDuplicateIndex nearDuplicates,
+                         PromptRegistry promptRegistry,
+                         MeterRegistry meterRegistry,
+                         @Value("${analysis.cache.enabled:true}") boolean enabled,
+                         @Value("${analysis.cache.max-entries:10000}") long maxEntries,
+                         @Value("${analysis.cache.disk.path:}") String diskPath,
+                         @Value("${analysis.cache.disk.max-bytes:67108864}") int diskMaxBytes,
+                         @Value("${spring.ai.anthropic.chat.options.model:claude-3-opus-20240229}") String model) {
+        this.objectMapper = objectMapper;
+        this.nearDuplicates = nearDuplicates;
+        this.promptRegistry = promptRegistry;
+        this.enabled = enabled;
+        this.model = model;
+        this.memory = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .recordStats()
+            .build();
+        this.disk = enabled && !diskPath.isBlank() ? openDisk(Path.of(diskPath), diskMaxBytes) : null;
+        
+        CaffeineCacheMetrics.monitor(meterRegistry, memory, "analysis.results");
+        this.diskHits = Counter.builder("analysis.cache.disk.requests")
+            .tag("result", "hit")
+            .description("Result lookups that missed memory and went to the disk tier")
+            .register(meterRegistry);
+        this.diskMisses = Counter.builder("analysis.cache.disk.requests")
+            .tag("result", "miss")
+            .description("Result lookups that missed memory and went to the disk tier")
+            .register(meterRegistry);
+        if (disk != null) {
+            Gauge.builder("analysis.cache.disk.bytes", disk, MappedResultStore::usedBytes)
+                .description("Bytes used in the memory-mapped result store")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        }
+        
+        log.info("AnalysisCache initialized - enabled: {}, max entries: {}, disk tier: {}, model: {}, prompt version: {}",
+            enabled, maxEntries, disk != null ? diskPath : "off", model, getPromptVersion());
+    }
+    
+    /**
+     * The key for this image under the current prompt version.
+     */
+    public String key(ProcessedImage image) {
+        return key(image, getPromptVersion());
+    }
+    
+    private String key(ProcessedImage image, String promptVersion) {
+        val digest = sha256();
+        digest.update(image.getData(), 0, image.getLength());
+        digest.update((byte) 0);
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(promptVersion.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    public Optional<AIAnalysisResult> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        
+        val cached = memory.getIfPresent(key);
+        if (cached != null || disk == null) {
+            return Optional.ofNullable(cached);
+        }
+        
+        val stored = disk.get(key);
+        if (stored == null) {
+            diskMisses.increment();
+            return Optional.empty();
+        }
+        
+        try {
+            val result = objectMapper.readValue(stored, AIAnalysisResult.class);
+            diskHits.increment();
+            memory.put(key, result);
+            return Optional.of(result);
+        } catch (IOException e) {
+            log.warn("Unreadable cached result for {}: {}", key, e.getMessage());
+            diskMisses.increment();
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Looks up the result of a previously analyzed image whose perceptual hash
+     * is within the configured distance of this one. The index outlives prompt
+     * reloads, so a match produced with an older prompt version is a miss.
+     */
+    public Optional<AIAnalysisResult> getSimilar(ProcessedImage image) {
+        if (!enabled || image.getPerceptualHash() == null) {
+            return Optional.empty();
+        }
+        
+        val promptVersion = getPromptVersion();
+        return nearDuplicates.findNearest(image.getPerceptualHash())
+            .flatMap(this::get)
+            .filter(result -> promptVersion.equals(result.getPromptVersion()));
+    }
+    
+    public void put(String key, ProcessedImage image, AIAnalysisResult result) {
+        if (!enabled || result.isFallback()) {
+            return;
+        }
+        // The prompt was swapped between the lookup and the upstream call: the
+        // result belongs under its own version's key, not the one looked up
+        if (result.getPromptVersion() != null && !key.equals(key(image, result.getPromptVersion()))) {
+            log.debug("Not caching result of prompt version {} under a key for another version", result.getPromptVersion());
+            return;
+        }
+        
+        memory.put(key, result);
+        if (image.getPerceptualHash() != null) {
+            nearDuplicates.add(image.getPerceptualHash(), key);
+        }
+        if (disk != null) {
+            try {
+                val promptVersion = result.getPromptVersion() != null ? result.getPromptVersion() : getPromptVersion();
+                disk.put(key, generation(promptVersion), objectMapper.writeValueAsBytes(result));
+            } catch (IOException e) {
+                log.warn("Could not persist result for {}: {}", key, e.getMessage());
+            }
+        }
+    }
+    
+    public String getPromptVersion() {
+        return promptRegistry.current().version();
+    }
+    
+    public String getModel() {
+        return model;
+    }
+    
+    /**
+     * Visits every result in the memory tier, for {@link CacheSnapshot}.
+     */
+    void forEachResult(BiConsumer<String, AIAnalysisResult> visitor) {
+        memory.asMap().forEach(visitor);
+    }
+    
+    /**
+     * Puts a result from a snapshot back into the memory tier without writing
+     * it to disk again.
+     */
+    void restore(String key, AIAnalysisResult result) {
+        if (enabled) {
+            memory.asMap().putIfAbsent(key, result);
+        }
+    }
+    
+    private MappedResultStore openDisk(Path path, int maxBytes) {
+        try {
+            return new MappedResultStore(path, maxBytes, generation(getPromptVersion()));
+        } catch (IOException e) {
+            log.warn("Could not open result store {}, caching in memory only: {}", path, e.getMessage());
+            return null;
+        }
+    }
+    
+    // Tags disk records with the model and prompt version their key was made from
+    private int generation(String promptVersion) {
+        return (model + '\0' + promptVersion).hashCode();
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    @PreDestroy
+    public void close() throws IOException {
+        if (disk != null) {
+            disk.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
+
+/**
+ * Progress of one streamed analysis. Callbacks arrive in order but on
+ * whichever thread reached that step: a preprocessing thread, or the thread
+ * reading the upstream response.
+ */
+public interface AnalysisListener {
+    
+    default void onPreprocessed(ProcessedImage image) {
+    }
+    
+    /**
+     * The upstream call was accepted and the model has started answering.
+     */
+    default void onAccepted() {
+    }
+    
+    /**
+     * A top-level field of the result, as soon as the model has written it.
+     */
+    default void onField(String name, Object value) {
+    }
+    
+    /**
+     * Reports every field of a result that did not arrive as a stream, such as
+     * a cached one.
+     */
+    static void replay(AIAnalysisResult result, AnalysisListener listener) {
+        listener.onField("suggestedCharacter", result.getSuggestedCharacter());
+        listener.onField("confidence", result.getConfidence());
+        listener.onField("traits", result.getTraits());
+        listener.onField("reasoning", result.getReasoning());
+        listener.onField("personalizedStory", result.getPersonalizedStory());
+    }
+}
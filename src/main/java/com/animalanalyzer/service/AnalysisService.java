@@ -3,11 +3,16 @@ package com.animalanalyzer.service;
 import com.animalanalyzer.model.AIAnalysisResult;
 import com.animalanalyzer.model.AnalysisResponse;
 import com.animalanalyzer.model.Character;
+import com.animalanalyzer.model.ProcessedImage;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 @Service
 @Slf4j
 public class AnalysisService {
@@ -15,24 +20,141 @@ public class AnalysisService {
     private final ImageService imageService;
     private final AIService aiService;
     private final CharacterService characterService;
+    private final PreprocessingExecutor preprocessingExecutor;
+    private final AnalysisCache analysisCache;
+    private final SingleFlight singleFlight;
+    
+    // Requests already run on virtual threads, so the *Async methods may block
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
     
-    public AnalysisService(ImageService imageService, AIService aiService, CharacterService characterService) {
+    public AnalysisService(ImageService imageService,
+                           AIService aiService,
+                           CharacterService characterService,
+                           PreprocessingExecutor preprocessingExecutor,
+                           AnalysisCache analysisCache,
+                           SingleFlight singleFlight) {
         this.imageService = imageService;
         this.aiService = aiService;
         this.characterService = characterService;
+        this.preprocessingExecutor = preprocessingExecutor;
+        this.analysisCache = analysisCache;
+        this.singleFlight = singleFlight;
     }
     
     public AnalysisResponse analyzeImage(MultipartFile file) throws Exception {
         log.info("Starting image analysis for file: {}", file.getOriginalFilename());
+        return analyze(preprocessingExecutor.submit(() -> imageService.processImage(file)));
+    }
+    
+    /**
+     * Analyzes an image body read by {@link ImageService#readImage}.
+     */
+    public AnalysisResponse analyzeRawImage(byte[] data) throws Exception {
+        log.info("Starting image analysis for {} byte raw upload", data.length);
+        return analyze(preprocessingExecutor.submit(() -> imageService.processRawImage(data)));
+    }
+    
+    /**
+     * Non-blocking variant of {@link #analyzeImage}: no thread waits while the
+     * image is preprocessed or the upstream call is in flight. In virtual-thread
+     * mode the blocking pipeline runs instead, on the caller's virtual thread.
+     *
+     * @throws ServiceBusyException if preprocessing could not be queued
+     */
+    public CompletableFuture<AnalysisResponse> analyzeImageAsync(MultipartFile file) {
+        log.info("Starting image analysis for file: {}", file.getOriginalFilename());
+        return analyzeAsync(preprocessingExecutor.submit(() -> imageService.processImage(file)));
+    }
+    
+    public CompletableFuture<AnalysisResponse> analyzeRawImageAsync(byte[] data) {
+        log.info("Starting image analysis for {} byte raw upload", data.length);
+        return analyzeAsync(preprocessingExecutor.submit(() -> imageService.processRawImage(data)));
+    }
+    
+    /**
+     * Analyzes a resumable upload whose preprocessing was started by
+     * {@link UploadSessionStore} when its last byte arrived.
+     */
+    public CompletableFuture<AnalysisResponse> analyzeUploadAsync(CompletableFuture<ProcessedImage> preprocessing) {
+        log.info("Starting image analysis for completed upload");
+        return analyzeAsync(preprocessing);
+    }
+    
+    /**
+     * Analyzes an upload while reporting progress to {@code listener}:
+     * preprocessing done, the upstream call accepted, then each field of the
+     * result as the model writes it. A cached result, or one shared with an
+     * identical upload already in flight, is reported field by field at once.
+     *
+     * @throws ServiceBusyException if preprocessing could not be queued
+     */
+    public CompletableFuture<AnalysisResponse> analyzeImageStreaming(MultipartFile file, AnalysisListener listener) {
+        log.info("Starting streamed image analysis for file: {}", file.getOriginalFilename());
+        return preprocessingExecutor.submit(() -> imageService.processImage(file)).thenCompose(image -> {
+            log.debug("Image processed successfully as {}", image.getMediaType());
+            listener.onPreprocessed(image);
+            val cacheKey = analysisCache.key(image);
+            val cached = analysisCache.get(cacheKey).or(() -> analysisCache.getSimilar(image));
+            if (cached.isPresent()) {
+                log.debug("AI analysis completed: {} (cached: true)", cached.get().getSuggestedCharacter());
+                AnalysisListener.replay(cached.get(), listener);
+                return CompletableFuture.completedFuture(cached.get());
+            }
+            return analyzeAndCacheStreaming(cacheKey, image, listener);
+        }).thenApply(this::toResponse);
+    }
+    
+    private AnalysisResponse analyze(CompletableFuture<ProcessedImage> preprocessing) throws Exception {
+        // Process image on the bounded CPU pool; this thread only waits for it
+        val image = PreprocessingExecutor.await(preprocessing);
+        log.debug("Image processed successfully as {}", image.getMediaType());
         
-        // Process image
-        val imageBase64 = imageService.processImage(file);
-        log.debug("Image processed successfully");
-        
-        // Analyze with AI
-        val aiResult = aiService.analyzeImage(imageBase64);
-        log.debug("AI analysis completed: {}", aiResult.getSuggestedCharacter());
+        // Analyze with AI unless this image, or a near-duplicate of it, was already analyzed
+        val cacheKey = analysisCache.key(image);
+        val cached = analysisCache.get(cacheKey).or(() -> analysisCache.getSimilar(image));
+        val aiResult = cached.isPresent() ? cached.get() : analyzeAndCache(cacheKey, image);
+        log.debug("AI analysis completed: {} (cached: {})", aiResult.getSuggestedCharacter(), cached.isPresent());
         
+        return toResponse(aiResult);
+    }
+    
+    /**
+     * Same steps as {@link #analyze}, chained on the futures instead of waiting
+     * on them. The cache lookups run on the preprocessing thread that finished
+     * the image; the response is built on whichever thread completes the
+     * upstream call.
+     */
+    private CompletableFuture<AnalysisResponse> analyzeAsync(CompletableFuture<ProcessedImage> preprocessing) {
+        if (virtualThreads) {
+            return analyzeBlocking(preprocessing);
+        }
+        return preprocessing.thenCompose(image -> {
+            log.debug("Image processed successfully as {}", image.getMediaType());
+            val cacheKey = analysisCache.key(image);
+            val cached = analysisCache.get(cacheKey).or(() -> analysisCache.getSimilar(image));
+            if (cached.isPresent()) {
+                log.debug("AI analysis completed: {} (cached: true)", cached.get().getSuggestedCharacter());
+                return CompletableFuture.completedFuture(cached.get());
+            }
+            return analyzeAndCacheAsync(cacheKey, image);
+        }).thenApply(this::toResponse);
+    }
+    
+    /**
+     * A virtual thread that waits unmounts from its carrier, so the plain
+     * blocking calls ({@code RestClient}, {@code Mono.block()}) cost no
+     * platform thread while the upstream call is in flight.
+     */
+    private CompletableFuture<AnalysisResponse> analyzeBlocking(CompletableFuture<ProcessedImage> preprocessing) {
+        try {
+            return CompletableFuture.completedFuture(analyze(preprocessing));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    private AnalysisResponse toResponse(AIAnalysisResult aiResult) {
         // Create a dynamic character based on Claude's analysis
         val character = Character.builder()
             .id(aiResult.getSuggestedCharacter().toLowerCase().replace(" ", "-"))
@@ -46,6 +168,68 @@ public class AnalysisService {
             .story(aiResult.getPersonalizedStory())
             .confidence(aiResult.getConfidence())
             .reasoning(aiResult.getReasoning())
+            .promptVersion(aiResult.getPromptVersion())
+            .fallback(aiResult.isFallback())
             .build();
     }
+    
+    /**
+     * Identical uploads arriving together share one upstream call. The cache is
+     * checked again inside the flight, in case a call for this image finished
+     * between the first lookup and joining.
+     */
+    private AIAnalysisResult analyzeAndCache(String cacheKey, ProcessedImage image) throws Exception {
+        return singleFlight.execute(cacheKey, () -> {
+            val cached = analysisCache.get(cacheKey);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            
+            val result = aiService.analyzeImage(image);
+            analysisCache.put(cacheKey, image, result);
+            return result;
+        });
+    }
+    
+    private CompletableFuture<AIAnalysisResult> analyzeAndCacheAsync(String cacheKey, ProcessedImage image) {
+        return singleFlight.executeAsync(cacheKey, () -> {
+            val cached = analysisCache.get(cacheKey);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(cached.get());
+            }
+            
+            return aiService.analyzeImageAsync(image).thenApply(result -> {
+                analysisCache.put(cacheKey, image, result);
+                log.debug("AI analysis completed: {} (cached: false)", result.getSuggestedCharacter());
+                return result;
+            });
+        });
+    }
+    
+    /**
+     * Only the request that makes the upstream call hears it stream; requests
+     * that join its flight get the fields once the result is in.
+     */
+    private CompletableFuture<AIAnalysisResult> analyzeAndCacheStreaming(String cacheKey, ProcessedImage image,
+                                                                        AnalysisListener listener) {
+        val streamed = new AtomicBoolean();
+        return singleFlight.executeAsync(cacheKey, () -> {
+            val cached = analysisCache.get(cacheKey);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(cached.get());
+            }
+            
+            streamed.set(true);
+            return aiService.analyzeImageStreaming(image, listener).thenApply(result -> {
+                analysisCache.put(cacheKey, image, result);
+                log.debug("AI analysis completed: {} (cached: false)", result.getSuggestedCharacter());
+                return result;
+            });
+        }).thenApply(result -> {
+            if (!streamed.get()) {
+                AnalysisListener.replay(result, listener);
+            }
+            return result;
+        });
+    }
 }
\ No newline at end of file
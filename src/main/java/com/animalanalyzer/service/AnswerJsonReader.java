@@ -0,0 +1,91 @@
+package com.animalanalyzer.service;
+
+import java.io.Reader;
+
+/**
+ * Reads the JSON object out of a model answer in one pass over the text, so
+ * it can be handed straight to Jackson without cutting or cleaning a copy
+ * first. Reading starts at the first opening brace, skipping any preamble
+ * or markdown fence, and ends at the brace that closes it, skipping anything
+ * after. A literal {@code \n} the model wrote between tokens, rather than
+ * inside a string, is read as a space.
+ */
+public final class AnswerJsonReader extends Reader {
+    
+    private final CharSequence text;
+    private final int start;
+    private int position;
+    private int depth;
+    private boolean inString;
+    private boolean escape;
+    private boolean done;
+    
+    public AnswerJsonReader(CharSequence text) {
+        this.text = text;
+        this.start = indexOf(text, '{');
+        this.position = start;
+        this.done = start < 0;
+    }
+    
+    /**
+     * Whether the answer has an opening brace at all; when it has not, the
+     * reader is empty.
+     */
+    public boolean hasObject() {
+        return start >= 0;
+    }
+    
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (done) {
+            return -1;
+        }
+        
+        var count = 0;
+        while (count < length && position < text.length() && !done) {
+            var c = text.charAt(position++);
+            if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                done = --depth == 0;
+            } else if (c == '\\' && position < text.length() && isEscapedBlank(text.charAt(position))) {
+                position++;
+                c = ' ';
+            }
+            buffer[offset + count++] = c;
+        }
+        
+        if (position == text.length()) {
+            done = true;
+        }
+        return count == 0 && done ? -1 : count;
+    }
+    
+    @Override
+    public void close() {
+        done = true;
+    }
+    
+    private static boolean isEscapedBlank(char c) {
+        return c == 'n' || c == 'r' || c == 't';
+    }
+    
+    private static int indexOf(CharSequence text, char c) {
+        for (var i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,52 @@
+package com.animalanalyzer.service;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * {@link javax.imageio.stream.ImageInputStream} that reads directly from an
+ * in-memory upload. ImageIO's own memory-cache stream would copy every byte it
+ * reads into a second buffer.
+ */
+class ByteArrayImageInputStream extends ImageInputStreamImpl {
+    
+    private final byte[] data;
+    private final int length;
+    
+    ByteArrayImageInputStream(byte[] data) {
+        this(data, data.length);
+    }
+    
+    ByteArrayImageInputStream(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+    
+    @Override
+    public int read() {
+        if (streamPos >= length) {
+            return -1;
+        }
+        bitOffset = 0;
+        return data[(int) streamPos++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+        bitOffset = 0;
+        int count = (int) Math.min(len, length - streamPos);
+        System.arraycopy(data, (int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+    
+    @Override
+    public long length() {
+        return length;
+    }
+}
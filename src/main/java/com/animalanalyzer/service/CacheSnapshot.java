@@ -0,0 +1,261 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves the in-memory result cache and near-duplicate index to a binary file
+ * when the application shuts down, and loads them back after the next start,
+ * so a fresh deploy does not begin with every cache empty.
+ * <p>
+ * The file starts with a format version and the model and prompt version the
+ * results were produced with; only results of that prompt version are written,
+ * and a snapshot that does not match the running service is ignored. Loading
+ * maps the file read-only and runs on a background thread once the application
+ * is ready, so startup does not wait for it and lookups simply miss until it
+ * completes.
+ * <p>
+ * Layout, big-endian, with a CRC32 of everything before it at the end:
+ * <pre>
+ * [magic][format version][model][prompt version][saved at millis]
+ * [result count] { [32-byte digest][length][JSON result] }
+ * [hash count]   { [64-bit hash][32-byte digest] }
+ * [crc32]
+ * </pre>
+ */
+@Component
+@Slf4j
+public class CacheSnapshot {
+    
+    static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x41435331; // "ACS1"
+    private static final long RESTORE_WAIT_MILLIS = 5000;
+    
+    private final AnalysisCache analysisCache;
+    private final NearDuplicateIndex nearDuplicates;
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+    private final Path path;
+    private volatile Thread restoreThread;
+    
+    public CacheSnapshot(AnalysisCache analysisCache,
+                         NearDuplicateIndex nearDuplicates,
+                         ObjectMapper objectMapper,
+                         @Value("${analysis.snapshot.path:}") String path) {
+        this.analysisCache = analysisCache;
+        this.nearDuplicates = nearDuplicates;
+        this.writer = objectMapper.writerFor(AIAnalysisResult.class).without(SerializationFeature.INDENT_OUTPUT);
+        this.reader = objectMapper.readerFor(AIAnalysisResult.class);
+        this.path = path.isBlank() ? null : Path.of(path);
+        
+        log.info("CacheSnapshot initialized - path: {}", this.path != null ? this.path : "off");
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreInBackground() {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        
+        val thread = new Thread(this::restore, "cache-snapshot-restore");
+        thread.setDaemon(true);
+        restoreThread = thread;
+        thread.start();
+    }
+    
+    /**
+     * Loads the snapshot into the caches.
+     *
+     * @return the number of results restored, or -1 if the snapshot was unusable
+     */
+    int restore() {
+        val started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!isCompatible(buffer)) {
+                return -1;
+            }
+            
+            val results = buffer.getInt();
+            for (var i = 0; i < results; i++) {
+                val key = readDigest(buffer);
+                val json = new byte[buffer.getInt()];
+                buffer.get(json);
+                analysisCache.restore(key, reader.readValue(json));
+            }
+            val hashes = buffer.getInt();
+            for (var i = 0; i < hashes; i++) {
+                val hash = buffer.getLong();
+                nearDuplicates.add(hash, readDigest(buffer));
+            }
+            
+            log.info("Restored {} results and {} perceptual hashes from {} in {} ms",
+                results, hashes, path, (System.nanoTime() - started) / 1_000_000);
+            return results;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not restore cache snapshot {}: {}", path, e.getMessage());
+            return -1;
+        }
+    }
+    
+    @EventListener(ContextClosedEvent.class)
+    public void saveOnShutdown() {
+        if (path == null) {
+            return;
+        }
+        
+        // A restore still running would leave the snapshot with only part of the old entries
+        val thread = restoreThread;
+        if (thread != null) {
+            try {
+                thread.join(RESTORE_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        try {
+            save();
+        } catch (IOException e) {
+            log.warn("Could not save cache snapshot {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Writes the snapshot to a temporary file and moves it into place, so a
+     * crash mid-write leaves the previous snapshot intact.
+     */
+    void save() throws IOException {
+        val started = System.nanoTime();
+        // Copy first: requests may still be updating the caches while we write.
+        // The header names the current prompt version, so results of earlier
+        // versions still in memory after a reload are left out, with their hashes
+        val promptVersion = analysisCache.getPromptVersion();
+        val results = new ArrayList<Map.Entry<String, AIAnalysisResult>>();
+        val current = new HashSet<String>();
+        analysisCache.forEachResult((key, result) -> {
+            if (promptVersion.equals(result.getPromptVersion())) {
+                results.add(Map.entry(key, result));
+                current.add(key);
+            }
+        });
+        val keys = new ArrayList<String>();
+        val hashes = new ArrayList<Long>();
+        nearDuplicates.forEach((key, hash) -> {
+            if (current.contains(key)) {
+                keys.add(key);
+                hashes.add(hash);
+            }
+        });
+        
+        val parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        val temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            val crc = new CRC32();
+            try (var file = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                val out = new DataOutputStream(new CheckedOutputStream(file, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, analysisCache.getModel());
+                writeString(out, promptVersion);
+                out.writeLong(System.currentTimeMillis());
+                
+                out.writeInt(results.size());
+                for (val entry : results) {
+                    val json = writer.writeValueAsBytes(entry.getValue());
+                    out.write(HexFormat.of().parseHex(entry.getKey()));
+                    out.writeInt(json.length);
+                    out.write(json);
+                }
+                out.writeInt(keys.size());
+                for (var i = 0; i < keys.size(); i++) {
+                    out.writeLong(hashes.get(i));
+                    out.write(HexFormat.of().parseHex(keys.get(i)));
+                }
+                
+                // The checksum covers everything before it, so it bypasses the checked stream
+                out.flush();
+                new DataOutputStream(file).writeInt((int) crc.getValue());
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        
+        log.info("Saved {} results and {} perceptual hashes to {} in {} ms",
+            results.size(), keys.size(), path, (System.nanoTime() - started) / 1_000_000);
+    }
+    
+    private boolean isCompatible(ByteBuffer buffer) {
+        val crc = new CRC32();
+        crc.update(buffer.slice(0, buffer.limit() - Integer.BYTES));
+        if (buffer.getInt(buffer.limit() - Integer.BYTES) != (int) crc.getValue()) {
+            log.warn("Cache snapshot {} is corrupt, ignoring it", path);
+            return false;
+        }
+        
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            log.info("Cache snapshot {} has an unknown format, ignoring it", path);
+            return false;
+        }
+        
+        val model = readString(buffer);
+        val promptVersion = readString(buffer);
+        val savedAt = buffer.getLong();
+        if (!model.equals(analysisCache.getModel()) || !promptVersion.equals(analysisCache.getPromptVersion())) {
+            log.info("Cache snapshot {} is for model {} prompt {}, running {} prompt {}; ignoring it",
+                path, model, promptVersion, analysisCache.getModel(), analysisCache.getPromptVersion());
+            return false;
+        }
+        
+        log.debug("Cache snapshot {} saved at {}", path, Instant.ofEpochMilli(savedAt));
+        return true;
+    }
+    
+    private static String readDigest(ByteBuffer buffer) {
+        val digest = new byte[MappedResultStore.DIGEST_BYTES];
+        buffer.get(digest);
+        return HexFormat.of().formatHex(digest);
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        val bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        val bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
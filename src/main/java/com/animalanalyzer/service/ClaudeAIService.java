@@ -1,10 +1,8 @@
 package com.animalanalyzer.service;
 
 import com.animalanalyzer.model.AIAnalysisResult;
-import com.animalanalyzer.model.Character;
+import com.animalanalyzer.model.ProcessedImage;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.Builder;
-import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.beans.factory.annotation.Value;
@@ -21,14 +19,9 @@ import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.handler.timeout.WriteTimeoutHandler;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
-
 /**
  * Direct implementation using WebClient calls to Claude API.
  * Available as fallback option.
@@ -43,10 +36,11 @@ public class ClaudeAIService implements AIService {
     @Value("${claude.api.url}")
     private String apiUrl;
     
-    private final CharacterService characterService;
     private final ObjectMapper objectMapper;
+    private final ImageTokenBudget tokenBudget;
     private final WebClient webClient;
-    private final Random random = new Random();
+    private final PromptRegistry promptRegistry;
+    private final UpstreamUsageMetrics usageMetrics;
     
     @Value("${claude.api.model:claude-3-opus-20240229}")
     private String model;
@@ -57,12 +51,16 @@ public class ClaudeAIService implements AIService {
     @Value("${claude.api.use-real-api:false}")
     private boolean useRealApi;
     
-    public ClaudeAIService(CharacterService characterService, 
-                          ObjectMapper objectMapper,
+    public ClaudeAIService(ObjectMapper objectMapper,
+                          ImageTokenBudget tokenBudget,
+                          PromptRegistry promptRegistry,
+                          UpstreamUsageMetrics usageMetrics,
                           @Value("${claude.api.key}") String apiKey,
                           @Value("${claude.api.url}") String apiUrl) {
-        this.characterService = characterService;
         this.objectMapper = objectMapper;
+        this.tokenBudget = tokenBudget;
+        this.promptRegistry = promptRegistry;
+        this.usageMetrics = usageMetrics;
         this.apiKey = apiKey;
         this.apiUrl = apiUrl;
         
@@ -93,291 +91,77 @@ public class ClaudeAIService implements AIService {
     }
     
     @Override
-    public AIAnalysisResult analyzeImage(String imageBase64) throws Exception {
-        if (useRealApi && apiKey != null && !apiKey.isEmpty() && !apiKey.equals("your-api-key-here")) {
-            log.info("Analyzing image with Claude AI (real API)");
-            return callClaudeAPI(imageBase64);
-        } else {
-            log.error("Claude API key not configured. Please set CLAUDE_API_KEY environment variable.");
-            throw new RuntimeException("Claude API key not configured. Real-time image analysis requires a valid API key.");
-        }
+    public AIAnalysisResult analyzeImage(ProcessedImage image) throws Exception {
+        return callClaudeAPI(image).block();
     }
     
-    private PersonalityAnalysis analyzePersonality(String imageBase64) {
-        // Simulate personality detection
-        // In production, this would use Claude's actual image analysis
-        
-        val expressionTypes = new String[]{
-            "warm and approachable smile",
-            "thoughtful and contemplative expression",
-            "confident and determined gaze",
-            "playful and energetic demeanor",
-            "calm and serene presence"
-        };
-        
-        val energyLevels = new String[]{
-            "vibrant and dynamic energy",
-            "steady and grounded presence",
-            "gentle and nurturing aura",
-            "intense and focused determination",
-            "balanced and harmonious disposition"
-        };
-        
-        val expression = expressionTypes[random.nextInt(expressionTypes.length)];
-        val energy = energyLevels[random.nextInt(energyLevels.length)];
-        
-        return PersonalityAnalysis.builder()
-            .expression(expression)
-            .energy(energy)
-            .confidence(0.75 + random.nextDouble() * 0.2)
-            .reasoning(String.format(
-                "I notice your %s combined with %s. These visual cues suggest a personality that resonates strongly with specific animal characteristics.",
-                expression, energy
-            ))
-            .build();
+    @Override
+    public CompletableFuture<AIAnalysisResult> analyzeImageAsync(ProcessedImage image) {
+        return callClaudeAPI(image).toFuture();
     }
     
-    private Character matchCharacterToPersonality(PersonalityAnalysis personality) {
-        // Smart matching based on personality analysis
-        // For demo, we'll use keywords to match
-        val characters = characterService.getAllCharacters();
-        
-        if (personality.getExpression().contains("thoughtful")) {
-            return characterService.findById("wise-owl").orElse(characters.get(0));
-        } else if (personality.getExpression().contains("playful")) {
-            return characterService.findById("playful-otter").orElse(characters.get(1));
-        } else if (personality.getExpression().contains("confident")) {
-            return characterService.findById("noble-lion").orElse(characters.get(2));
-        } else if (personality.getExpression().contains("warm")) {
-            return characterService.findById("gentle-deer").orElse(characters.get(4));
-        } else {
-            // Random selection for other cases
-            return characters.get(random.nextInt(characters.size()));
+    /**
+     * Builds the upstream call without subscribing to it: callers either block
+     * on it or hand the caller a future that completes on the connection's
+     * event loop.
+     */
+    private Mono<AIAnalysisResult> callClaudeAPI(ProcessedImage image) {
+        if (!useRealApi || apiKey == null || apiKey.isEmpty() || apiKey.equals("your-api-key-here")) {
+            log.error("Claude API key not configured. Please set CLAUDE_API_KEY environment variable.");
+            return Mono.error(new RuntimeException("Claude API key not configured. Real-time image analysis requires a valid API key."));
         }
-    }
-    
-    private String generatePersonalizedStory(Character character, PersonalityAnalysis personality) {
-        return String.format(
-            "Looking at your photo, I can see your %s which reveals the essence of the %s. " +
-            "Your %s mirrors the %s's %s nature, showing someone who %s. " +
-            "Just as the %s %s, you radiate %s energy. " +
-            "This unique combination of %s and %s makes you a true %s spirit.",
-            
-            personality.getExpression(),
-            character.getName(),
-            personality.getEnergy(),
-            character.getName(),
-            character.getTraits().get(0),
-            getPersonalityInsight(character),
-            character.getName(),
-            getCharacterAction(character),
-            character.getTraits().get(1),
-            character.getTraits().get(0),
-            character.getTraits().get(2 < character.getTraits().size() ? 2 : 1),
-            character.getName()
-        );
-    }
-    
-    private String getCharacterAction(Character character) {
-        val actions = Map.of(
-            "wise-owl", "observes the world with keen insight",
-            "playful-otter", "brings joy to every moment",
-            "noble-lion", "leads with courage and strength",
-            "curious-fox", "explores with clever ingenuity",
-            "gentle-deer", "moves through life with grace",
-            "mighty-dragon", "soars above limitations",
-            "loyal-wolf", "protects those they care about",
-            "free-eagle", "embraces boundless freedom",
-            "creative-peacock", "expresses unique beauty",
-            "steady-turtle", "perseveres with patience"
-        );
-        return actions.getOrDefault(character.getId(), "embodies their true nature");
-    }
-    
-    private String getPersonalityInsight(Character character) {
-        val insights = Map.of(
-            "wise-owl", "values deep understanding and thoughtful analysis",
-            "playful-otter", "finds happiness in connecting with others",
-            "noble-lion", "naturally inspires and protects those around them",
-            "curious-fox", "approaches life with clever adaptability",
-            "gentle-deer", "brings peace and harmony wherever they go",
-            "mighty-dragon", "pursues ambitious goals with fierce determination",
-            "loyal-wolf", "builds strong bonds and values community",
-            "free-eagle", "seeks freedom and new horizons",
-            "creative-peacock", "expresses themselves with vibrant creativity",
-            "steady-turtle", "achieves success through persistence and wisdom"
-        );
-        return insights.getOrDefault(character.getId(), "lives authentically");
-    }
-    
-    // Inner class for personality analysis
-    @Data
-    @Builder
-    private static class PersonalityAnalysis {
-        private String expression;
-        private String energy;
-        private double confidence;
-        private String reasoning;
-    }
-    
-    private AIAnalysisResult callClaudeAPI(String imageBase64) throws Exception {
-        try {
-            val prompt = loadPromptTemplate();
-            
-            val requestBody = Map.of(
-                "model", model,
-                "max_tokens", maxTokens,
-                "messages", List.of(
-                    Map.of(
-                        "role", "user",
-                        "content", List.of(
-                            Map.of("type", "text", "text", prompt),
-                            Map.of("type", "image", "source", Map.of(
-                                "type", "base64",
-                                "media_type", "image/jpeg",
-                                "data", imageBase64.replaceFirst("^data:image/[^;]+;base64,", "")
-                            ))
-                        )
-                    )
-                )
-            );
-            
+        log.info("Analyzing image with Claude AI (real API)");
+        
+        return Mono.defer(() -> {
             log.info("Sending request to Claude API with model: {}", model);
-            log.debug("Request body: {}", objectMapper.writeValueAsString(requestBody));
+            log.debug("Request image: {} {}x{}, {} bytes", image.getMediaType(), image.getWidth(), image.getHeight(), image.getLength());
+            val prompt = promptRegistry.current();
             val startTime = System.currentTimeMillis();
             
-            val response = webClient.post()
+            return webClient.post()
                 .uri("/messages")
-                .bodyValue(requestBody)
+                .body(MessagesRequestWriter.template(model, maxTokens, prompt, false).bodyInserter(image))
                 .retrieve()
                 .onStatus(status -> status.is4xxClientError() || status.is5xxServerError(),
                     clientResponse -> clientResponse.bodyToMono(String.class)
                         .flatMap(errorBody -> {
+                            if (clientResponse.statusCode().value() == 429) {
+                                tokenBudget.recordRateLimited();
+                            }
                             log.error("Claude API error response: {}", errorBody);
                             return Mono.error(new RuntimeException("Claude API error: " + errorBody));
                         }))
-                .bodyToMono(Map.class)
-                .block();
-            
-            val duration = System.currentTimeMillis() - startTime;
-            log.info("Claude API responded in {} ms", duration);
-            
-            log.debug("Received response from Claude API");
-            
-            // Extract the assistant's response
-            val content = (List<Map<String, Object>>) response.get("content");
-            if (content != null && !content.isEmpty()) {
-                val textResponse = (String) content.get(0).get("text");
-                
-                // Claude sometimes returns incomplete JSON or with formatting issues
-                // Try to extract JSON from the response
-                val jsonResponse = extractJsonFromResponse(textResponse);
-                
-                log.debug("Extracted JSON response: {}", jsonResponse);
-                
-                // Parse the JSON response
-                val result = objectMapper.readValue(jsonResponse, AIAnalysisResult.class);
-                
-                // Return the Claude analysis directly - no need to match predefined characters
-                return AIAnalysisResult.builder()
-                    .suggestedCharacter(result.getSuggestedCharacter())
-                    .confidence(result.getConfidence())
-                    .traits(result.getTraits())
-                    .reasoning(result.getReasoning())
-                    .personalizedStory(result.getPersonalizedStory())
-                    .build();
-            }
-            
-            throw new RuntimeException("No content in Claude API response");
-            
-        } catch (Exception e) {
+                .bodyToMono(byte[].class)
+                .flatMap(response -> {
+                    val duration = System.currentTimeMillis() - startTime;
+                    log.info("Claude API responded in {} ms", duration);
+                    tokenBudget.recordUpstreamLatency(duration);
+                    return Mono.fromCallable(() -> toResult(MessagesResponse.parse(response), prompt));
+                });
+        }).onErrorMap(e -> {
             log.error("Error calling Claude API: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to analyze image with Claude API: " + e.getMessage(), e);
-        }
-    }
-    
-    private String loadPromptTemplate() {
-        try {
-            return new String(Files.readAllBytes(
-                Paths.get(getClass().getClassLoader().getResource("claude-prompt-template.txt").toURI())
-            ));
-        } catch (Exception e) {
-            log.error("Error loading prompt template", e);
-            return getDefaultPrompt();
-        }
+            return new RuntimeException("Failed to analyze image with Claude API: " + e.getMessage(), e);
+        });
     }
     
-    private String extractJsonFromResponse(String response) {
-        // Try to find JSON object in the response
-        val startIndex = response.indexOf("{");
-        val endIndex = response.lastIndexOf("}");
+    private AIAnalysisResult toResult(MessagesResponse response, PromptRegistry.Prompt prompt) throws Exception {
+        log.debug("Received response from Claude API (stop_reason: {})", response.stopReason());
+        usageMetrics.record(response.usage());
         
-        if (startIndex != -1 && endIndex != -1 && endIndex > startIndex) {
-            var jsonStr = response.substring(startIndex, endIndex + 1);
-            
-            // Claude sometimes returns JSON with literal \n in the structure (not in strings)
-            // Remove these literal \n characters that appear outside of string values
-            // First, let's clean up the JSON structure
-            jsonStr = jsonStr.replaceAll(",\\s*\\\\n\\s*", ", ");
-            jsonStr = jsonStr.replaceAll("\\{\\s*\\\\n\\s*", "{ ");
-            jsonStr = jsonStr.replaceAll("\\s*\\\\n\\s*\\}", " }");
-            jsonStr = jsonStr.replaceAll(":\\s*\\\\n\\s*", ": ");
-            
-            // Remove any remaining literal \n that's not inside quotes
-            // This is a more targeted approach that preserves \n inside string values
-            val cleaned = new StringBuilder();
-            var inString = false;
-            var escape = false;
-            
-            for (var i = 0; i < jsonStr.length(); i++) {
-                val c = jsonStr.charAt(i);
-                
-                if (!escape && c == '"') {
-                    inString = !inString;
-                }
-                
-                if (!inString && c == '\\' && i + 1 < jsonStr.length() && jsonStr.charAt(i + 1) == 'n') {
-                    // Skip literal \n outside of strings
-                    i++; // Also skip the 'n'
-                    cleaned.append(' '); // Replace with space
-                } else {
-                    cleaned.append(c);
-                }
-                
-                escape = !escape && c == '\\';
-            }
-            
-            return cleaned.toString().trim();
-        }
+        // Claude sometimes wraps the JSON in prose or writes literal \n between tokens;
+        // the reader skips both while Jackson parses
+        val textResponse = response.text();
+        log.debug("Parsing JSON from a {} character response", textResponse.length());
+        val result = objectMapper.readValue(new AnswerJsonReader(textResponse), AIAnalysisResult.class);
         
-        // If no JSON found, try to parse the entire response
-        return response;
-    }
-    
-    private String getDefaultPrompt() {
-        return """
-            Analyze this person's photo and match them to one of these animal characters based on their facial features, expression, and perceived personality:
-            
-            Characters:
-            1. Wise Owl - analytical, observant, knowledge-seeking, thoughtful
-            2. Playful Otter - social, energetic, fun-loving, creative
-            3. Noble Lion - confident, leadership, protective, courageous
-            4. Curious Fox - clever, adaptable, mischievous, quick-witted
-            5. Gentle Deer - empathetic, graceful, intuitive, peaceful
-            6. Mighty Dragon - ambitious, powerful, mysterious, passionate
-            7. Loyal Wolf - devoted, strategic, team-oriented, protective
-            8. Free Spirit Eagle - independent, visionary, bold, freedom-loving
-            9. Creative Peacock - artistic, expressive, unique, vibrant
-            10. Steady Turtle - patient, wise, persistent, calm
-            
-            Return ONLY a valid JSON response with this exact structure (ensure all strings are properly escaped):
-            {
-              "suggestedCharacter": "Character name from the list above",
-              "confidence": 0.0-1.0,
-              "traits": ["trait1", "trait2", "trait3", "trait4"],
-              "reasoning": "Your reasoning here as a single line without newlines",
-              "personalizedStory": "Your story here as a single line without newlines"
-            }
-            """;
+        // Return the Claude analysis directly - no need to match predefined characters
+        return AIAnalysisResult.builder()
+            .suggestedCharacter(result.getSuggestedCharacter())
+            .confidence(result.getConfidence())
+            .traits(result.getTraits())
+            .reasoning(result.getReasoning())
+            .personalizedStory(result.getPersonalizedStory())
+            .promptVersion(prompt.version())
+            .build();
     }
-}
\ No newline at end of file
+}
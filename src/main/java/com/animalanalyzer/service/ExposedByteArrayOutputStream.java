@@ -0,0 +1,18 @@
+package com.animalanalyzer.service;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * {@link ByteArrayOutputStream} that hands out its internal buffer instead of
+ * copying it, for callers that track the valid length themselves.
+ */
+class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    
+    ExposedByteArrayOutputStream(int size) {
+        super(size);
+    }
+    
+    byte[] buffer() {
+        return buf;
+    }
+}
@@ -0,0 +1,13 @@
+package com.animalanalyzer.service;
+
+/**
+ * Thrown when an {@code Idempotency-Key} is sent again with a different
+ * request body. Callers should answer with 422 rather than replay a response
+ * that belongs to another request.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+    
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+}
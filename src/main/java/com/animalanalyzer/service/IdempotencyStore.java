@@ -0,0 +1,203 @@
+package com.animalanalyzer.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Remembers serialized responses by client-supplied {@code Idempotency-Key},
+ * so a retried request is answered with the exact bytes of the original
+ * response instead of running the pipeline again.
+ * <p>
+ * An entry is created before the work starts and holds a future of the
+ * response, so a duplicate arriving mid-flight waits for the original. Failed
+ * work removes its entry and may be retried under the same key, and so does
+ * work whose response must not be replayed, such as a fallback answer given
+ * while the upstream API was unavailable. Entries expire after a fixed TTL
+ * and the store is bounded by entry count.
+ */
+@Component
+@Slf4j
+public class IdempotencyStore {
+    
+    private static final int MAX_KEY_LENGTH = 255;
+    
+    private final Cache<String, Entry> entries;
+    private final Counter executed;
+    private final Counter replayed;
+    private final Counter conflicts;
+    
+    public IdempotencyStore(MeterRegistry meterRegistry,
+                            @Value("${analysis.idempotency.max-entries:10000}") long maxEntries,
+                            @Value("${analysis.idempotency.ttl-seconds:86400}") long ttlSeconds) {
+        this.entries = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .build();
+        
+        this.executed = counter(meterRegistry, "executed");
+        this.replayed = counter(meterRegistry, "replayed");
+        this.conflicts = counter(meterRegistry, "conflict");
+        
+        log.info("IdempotencyStore initialized - max entries: {}, TTL: {}s", maxEntries, ttlSeconds);
+    }
+    
+    /**
+     * Runs {@code work} for a new key, or returns the response stored for a
+     * key already seen with the same request body.
+     *
+     * @param fingerprint the {@link #fingerprint} of the request body, compared
+     *                    against the original
+     * @throws IdempotencyKeyReusedException if the key was used for a different request
+     */
+    public Response execute(String key, byte[] fingerprint, Callable<Outcome> work) throws Exception {
+        val entry = new Entry(fingerprint, new CompletableFuture<>());
+        val existing = claim(key, entry);
+        if (existing != null) {
+            // Wait on a copy so a caller that gives up never cancels the original
+            return new Response(PreprocessingExecutor.await(existing.response().copy()), true);
+        }
+        
+        try {
+            val outcome = work.call();
+            store(key, entry, outcome);
+            return new Response(outcome.body(), false);
+        } catch (Exception e) {
+            entries.asMap().remove(key, entry);
+            entry.response().completeExceptionally(e);
+            throw e;
+        } finally {
+            if (!entry.response().isDone()) {
+                entries.asMap().remove(key, entry);
+                entry.response().cancel(false);
+            }
+        }
+    }
+    
+    /**
+     * Like {@link #execute}, for work that completes a future instead of
+     * blocking. An invalid or reused key is still thrown straight away.
+     */
+    public CompletableFuture<Response> executeAsync(String key, byte[] fingerprint,
+                                                    Supplier<CompletableFuture<Outcome>> work) {
+        val entry = new Entry(fingerprint, new CompletableFuture<>());
+        val existing = claim(key, entry);
+        if (existing != null) {
+            return existing.response().copy().thenApply(body -> new Response(body, true));
+        }
+        
+        CompletableFuture<Outcome> pending;
+        try {
+            pending = work.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        pending.whenComplete((outcome, error) -> {
+            if (error != null) {
+                entries.asMap().remove(key, entry);
+                entry.response().completeExceptionally(PreprocessingExecutor.unwrap(error));
+            } else {
+                store(key, entry, outcome);
+            }
+        });
+        return entry.response().copy().thenApply(body -> new Response(body, false));
+    }
+    
+    /**
+     * Digest of a request body, read in chunks so the body need not be in
+     * memory at once.
+     */
+    public static byte[] fingerprint(InputStream request) throws IOException {
+        try (val in = new DigestInputStream(request, sha256())) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return in.getMessageDigest().digest();
+        }
+    }
+    
+    public static byte[] fingerprint(byte[] request) {
+        return sha256().digest(request);
+    }
+    
+    /**
+     * Completes {@code entry}. Duplicates already waiting on it get the
+     * response either way; one that is not replayable is then dropped, so
+     * the next retry runs the work again.
+     */
+    private void store(String key, Entry entry, Outcome outcome) {
+        if (!outcome.replayable()) {
+            entries.asMap().remove(key, entry);
+        }
+        entry.response().complete(outcome.body());
+    }
+    
+    /**
+     * Stores {@code entry} under a new key, or returns the entry already stored
+     * under it for the same request.
+     */
+    private Entry claim(String key, Entry entry) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1-" + MAX_KEY_LENGTH + " characters");
+        }
+        
+        val existing = entries.asMap().putIfAbsent(key, entry);
+        if (existing == null) {
+            executed.increment();
+            return null;
+        }
+        if (!MessageDigest.isEqual(existing.fingerprint(), entry.fingerprint())) {
+            conflicts.increment();
+            throw new IdempotencyKeyReusedException("Idempotency-Key was already used for a different request");
+        }
+        
+        replayed.increment();
+        log.debug("Replaying response for Idempotency-Key {} (complete: {})", key, existing.response().isDone());
+        return existing;
+    }
+    
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("analysis.idempotency.requests")
+            .tag("result", result)
+            .description("Requests carrying an Idempotency-Key, by outcome")
+            .register(meterRegistry);
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * A serialized response produced by the work, and whether a retry may be
+     * answered with it.
+     */
+    public record Outcome(byte[] body, boolean replayable) {
+    }
+    
+    /**
+     * A serialized response and whether it was replayed from an earlier request.
+     */
+    public record Response(byte[] body, boolean replayed) {
+    }
+    
+    private record Entry(byte[] fingerprint, CompletableFuture<byte[]> response) {
+    }
+}
@@ -0,0 +1,215 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.ImageFormat;
+import com.animalanalyzer.model.ImageInfo;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Parses JPEG and PNG headers straight from the upload bytes and rejects
+ * images whose declared size, frame count or bit depth would make decoding
+ * unsafe. No ImageIO reader is created and no pixel data is touched, so a
+ * decompression bomb is refused before it can allocate anything.
+ */
+@Component
+@Slf4j
+public class ImageProbe {
+    
+    private static final int PNG_SIGNATURE_LENGTH = 8;
+    
+    private final long maxPixels;
+    private final int maxFrames;
+    private final int maxBitsPerPixel;
+    
+    public ImageProbe(@Value("${image.limits.max-pixels:50000000}") long maxPixels,
+                      @Value("${image.limits.max-frames:1}") int maxFrames,
+                      @Value("${image.limits.max-bits-per-pixel:32}") int maxBitsPerPixel) {
+        this.maxPixels = maxPixels;
+        this.maxFrames = maxFrames;
+        this.maxBitsPerPixel = maxBitsPerPixel;
+    }
+    
+    /**
+     * Probes a complete upload.
+     *
+     * @throws IllegalArgumentException if the format is unsupported, the header
+     *     is corrupt or truncated, or a limit is exceeded
+     */
+    public ImageInfo probe(byte[] data) {
+        return tryProbe(data, data.length)
+            .orElseThrow(() -> new IllegalArgumentException("Unsupported or corrupt image"));
+    }
+    
+    /**
+     * Probes the first {@code length} bytes of an upload that may still be arriving.
+     *
+     * @return the header information, or empty if more bytes are needed
+     * @throws IllegalArgumentException if the bytes seen so far are invalid or a
+     *     limit is exceeded
+     */
+    public Optional<ImageInfo> tryProbe(byte[] data, int length) {
+        if (length < PNG_SIGNATURE_LENGTH) {
+            return Optional.empty();
+        }
+        
+        val format = ImageFormat.sniff(data)
+            .orElseThrow(() -> new IllegalArgumentException("Invalid image format. Only JPEG and PNG are allowed."));
+        
+        val info = format == ImageFormat.PNG ? parsePng(data, length) : parseJpeg(data, length);
+        info.ifPresent(this::checkLimits);
+        return info;
+    }
+    
+    private void checkLimits(ImageInfo info) {
+        if (info.getWidth() <= 0 || info.getHeight() <= 0) {
+            throw new IllegalArgumentException("Unsupported or corrupt image");
+        }
+        
+        if (info.getPixelCount() > maxPixels) {
+            log.warn("Rejecting {}x{} image: exceeds {} pixel limit", info.getWidth(), info.getHeight(), maxPixels);
+            throw new IllegalArgumentException(String.format(
+                "Image dimensions %dx%d exceed the %d pixel limit", info.getWidth(), info.getHeight(), maxPixels));
+        }
+        
+        if (info.getFrames() > maxFrames) {
+            throw new IllegalArgumentException(String.format(
+                "Image has %d frames; at most %d allowed", info.getFrames(), maxFrames));
+        }
+        
+        if (info.getBitsPerPixel() > maxBitsPerPixel) {
+            throw new IllegalArgumentException(String.format(
+                "Image color depth of %d bits per pixel exceeds the %d bit limit", info.getBitsPerPixel(), maxBitsPerPixel));
+        }
+    }
+    
+    /**
+     * Reads IHDR and walks the chunk list up to the first IDAT, picking up the
+     * APNG frame count from acTL if present.
+     */
+    private Optional<ImageInfo> parsePng(byte[] data, int length) {
+        var pos = PNG_SIGNATURE_LENGTH;
+        if (length < pos + 8 + 13) {
+            return Optional.empty();
+        }
+        if (readInt(data, pos) != 13 || !isChunk(data, pos + 4, "IHDR")) {
+            throw new IllegalArgumentException("Unsupported or corrupt image");
+        }
+        
+        val width = readInt(data, pos + 8);
+        val height = readInt(data, pos + 12);
+        val bitDepth = data[pos + 16] & 0xFF;
+        int channels = switch (data[pos + 17]) {
+            case 0, 3 -> 1; // grayscale, palette
+            case 2 -> 3;    // RGB
+            case 4 -> 2;    // grayscale + alpha
+            case 6 -> 4;    // RGBA
+            default -> throw new IllegalArgumentException("Unsupported or corrupt image");
+        };
+        
+        var frames = 1;
+        pos += 8 + 13 + 4;
+        while (true) {
+            if (length < pos + 8) {
+                return Optional.empty();
+            }
+            val chunkLength = readInt(data, pos);
+            if (chunkLength < 0 || (long) pos + chunkLength + 12 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Unsupported or corrupt image");
+            }
+            if (isChunk(data, pos + 4, "IDAT")) {
+                break;
+            }
+            if (isChunk(data, pos + 4, "acTL")) {
+                if (length < pos + 12) {
+                    return Optional.empty();
+                }
+                frames = readInt(data, pos + 8);
+            }
+            pos += 8 + chunkLength + 4;
+        }
+        
+        return Optional.of(ImageInfo.builder()
+            .format(ImageFormat.PNG)
+            .width(width)
+            .height(height)
+            .frames(frames)
+            .bitsPerPixel(bitDepth * channels)
+            .build());
+    }
+    
+    /**
+     * Walks the JPEG marker segments up to the first start-of-frame marker.
+     */
+    private Optional<ImageInfo> parseJpeg(byte[] data, int length) {
+        var pos = 2;
+        while (true) {
+            if (length < pos + 4) {
+                return Optional.empty();
+            }
+            if ((data[pos] & 0xFF) != 0xFF) {
+                throw new IllegalArgumentException("Unsupported or corrupt image");
+            }
+            
+            val marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++; // fill byte
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2; // standalone markers carry no length
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                throw new IllegalArgumentException("Unsupported or corrupt image"); // no frame header
+            }
+            
+            if (isStartOfFrame(marker)) {
+                if (length < pos + 10) {
+                    return Optional.empty();
+                }
+                val precision = data[pos + 4] & 0xFF;
+                val height = readShort(data, pos + 5);
+                val width = readShort(data, pos + 7);
+                val components = data[pos + 9] & 0xFF;
+                return Optional.of(ImageInfo.builder()
+                    .format(ImageFormat.JPEG)
+                    .width(width)
+                    .height(height)
+                    .frames(1)
+                    .bitsPerPixel(precision * components)
+                    .build());
+            }
+            
+            val segmentLength = readShort(data, pos + 2);
+            if (segmentLength < 2) {
+                throw new IllegalArgumentException("Unsupported or corrupt image");
+            }
+            pos += 2 + segmentLength;
+        }
+    }
+    
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+    
+    private static boolean isChunk(byte[] data, int pos, String type) {
+        for (var i = 0; i < 4; i++) {
+            if (data[pos + i] != type.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int readInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+    }
+    
+    private static int readShort(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,326 @@
+package com.animalanalyzer.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Separable two-pass resampler. Each pass is split into row tiles that run on a
+ * dedicated fork-join pool, and the intermediate and destination pixel buffers
+ * are borrowed from a small bounded pool. Callers must close the returned
+ * {@link ResampledImage} once the pixels have been encoded.
+ */
+@Component
+@Slf4j
+public class ImageResampler {
+    
+    private static final int MAX_POOLED_PIXELS = 4 * 1024 * 1024;
+    private static final int[] RGB_MASKS = {0xFF0000, 0x00FF00, 0x0000FF};
+    private static final DirectColorModel RGB_MODEL = new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF);
+    
+    private final ResampleQuality quality;
+    private final int tileRows;
+    private final ForkJoinPool pool;
+    private final Deque<int[]> freeBuffers = new ArrayDeque<>();
+    private final int maxFreeBuffers;
+    private final ReentrantLock bufferLock = new ReentrantLock();
+    
+    public ImageResampler(@Value("${image.resample.quality:AREA_AVERAGE}") ResampleQuality quality,
+                          @Value("${image.resample.tile-rows:64}") int tileRows) {
+        this.quality = quality;
+        this.tileRows = Math.max(1, tileRows);
+        
+        val parallelism = Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+        // Two buffers (intermediate + destination) per concurrently running resize
+        this.maxFreeBuffers = parallelism * 2;
+        
+        log.info("ImageResampler initialized - quality: {}, tile rows: {}, parallelism: {}",
+            quality, this.tileRows, parallelism);
+    }
+    
+    public ResampleQuality getQuality() {
+        return quality;
+    }
+    
+    /**
+     * Resamples {@code source} to exactly {@code width x height} as opaque RGB.
+     * Transparent pixels are composited onto white. A source that already has
+     * those dimensions and a JPEG-compatible layout is returned as is.
+     */
+    public ResampledImage resize(BufferedImage source, int width, int height) {
+        if (source.getWidth() == width && source.getHeight() == height && isOpaqueRgb(source)) {
+            return new ResampledImage(source, null, this);
+        }
+        
+        val srcHeight = source.getHeight();
+        val horizontal = Kernel.compute(source.getWidth(), width, quality);
+        val vertical = Kernel.compute(srcHeight, height, quality);
+        
+        val intermediate = acquire(srcHeight * width);
+        val destination = acquire(width * height);
+        try {
+            pool.invoke(new RowTask(0, srcHeight, tileRows,
+                (from, to) -> resampleRows(source, intermediate, width, horizontal, from, to)));
+            pool.invoke(new RowTask(0, height, tileRows,
+                (from, to) -> resampleColumns(intermediate, destination, width, vertical, from, to)));
+        } catch (RuntimeException e) {
+            release(destination);
+            throw e;
+        } finally {
+            release(intermediate);
+        }
+        
+        return new ResampledImage(wrap(destination, width, height), destination, this);
+    }
+    
+    private void resampleRows(BufferedImage source, int[] out, int outWidth, Kernel kernel, int from, int to) {
+        val srcWidth = source.getWidth();
+        val hasAlpha = source.getColorModel().hasAlpha();
+        val row = new int[srcWidth];
+        
+        for (var y = from; y < to; y++) {
+            source.getRGB(0, y, srcWidth, 1, row, 0, srcWidth);
+            if (hasAlpha) {
+                flattenOntoWhite(row);
+            }
+            val offset = y * outWidth;
+            
+            for (var x = 0; x < outWidth; x++) {
+                val start = kernel.start()[x];
+                val count = kernel.count()[x];
+                val weightOffset = x * kernel.window();
+                
+                float r = 0, g = 0, b = 0;
+                for (var k = 0; k < count; k++) {
+                    val pixel = row[start + k];
+                    val weight = kernel.weights()[weightOffset + k];
+                    r += ((pixel >> 16) & 0xFF) * weight;
+                    g += ((pixel >> 8) & 0xFF) * weight;
+                    b += (pixel & 0xFF) * weight;
+                }
+                out[offset + x] = pack(r, g, b);
+            }
+        }
+    }
+    
+    private void resampleColumns(int[] in, int[] out, int width, Kernel kernel, int from, int to) {
+        val r = new float[width];
+        val g = new float[width];
+        val b = new float[width];
+        
+        for (var y = from; y < to; y++) {
+            Arrays.fill(r, 0);
+            Arrays.fill(g, 0);
+            Arrays.fill(b, 0);
+            
+            val start = kernel.start()[y];
+            val count = kernel.count()[y];
+            val weightOffset = y * kernel.window();
+            
+            // Walk whole source rows so the inner loop stays sequential in memory
+            for (var k = 0; k < count; k++) {
+                val rowOffset = (start + k) * width;
+                val weight = kernel.weights()[weightOffset + k];
+                for (var x = 0; x < width; x++) {
+                    val pixel = in[rowOffset + x];
+                    r[x] += ((pixel >> 16) & 0xFF) * weight;
+                    g[x] += ((pixel >> 8) & 0xFF) * weight;
+                    b[x] += (pixel & 0xFF) * weight;
+                }
+            }
+            
+            val offset = y * width;
+            for (var x = 0; x < width; x++) {
+                out[offset + x] = pack(r[x], g[x], b[x]);
+            }
+        }
+    }
+    
+    private static void flattenOntoWhite(int[] row) {
+        for (var i = 0; i < row.length; i++) {
+            val pixel = row[i];
+            val alpha = pixel >>> 24;
+            if (alpha == 0xFF) {
+                continue;
+            }
+            val white = (0xFF - alpha) * 0xFF;
+            val r = (((pixel >> 16) & 0xFF) * alpha + white) / 0xFF;
+            val g = (((pixel >> 8) & 0xFF) * alpha + white) / 0xFF;
+            val b = ((pixel & 0xFF) * alpha + white) / 0xFF;
+            row[i] = r << 16 | g << 8 | b;
+        }
+    }
+    
+    private static boolean isOpaqueRgb(BufferedImage image) {
+        return switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR,
+                 BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY -> true;
+            default -> false;
+        };
+    }
+    
+    private static int pack(float r, float g, float b) {
+        return clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+    
+    private static int clamp(float value) {
+        val rounded = Math.round(value);
+        return rounded < 0 ? 0 : Math.min(rounded, 255);
+    }
+    
+    private static BufferedImage wrap(int[] pixels, int width, int height) {
+        val buffer = new DataBufferInt(pixels, width * height);
+        val raster = Raster.createPackedRaster(buffer, width, height, width, RGB_MASKS, null);
+        return new BufferedImage(RGB_MODEL, raster, false, null);
+    }
+    
+    private int[] acquire(int size) {
+        bufferLock.lock();
+        try {
+            for (var it = freeBuffers.iterator(); it.hasNext(); ) {
+                val buffer = it.next();
+                if (buffer.length >= size) {
+                    it.remove();
+                    return buffer;
+                }
+            }
+        } finally {
+            bufferLock.unlock();
+        }
+        return new int[size];
+    }
+    
+    private void release(int[] buffer) {
+        if (buffer.length > MAX_POOLED_PIXELS) {
+            return;
+        }
+        
+        bufferLock.lock();
+        try {
+            if (freeBuffers.size() < maxFreeBuffers) {
+                freeBuffers.push(buffer);
+            }
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+    
+    /**
+     * A resampled image whose pixel buffer goes back to the pool on {@link #close()}.
+     * The image must not be used after it has been closed.
+     */
+    public static final class ResampledImage implements AutoCloseable {
+        
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final ImageResampler owner;
+        
+        private ResampledImage(BufferedImage image, int[] pixels, ImageResampler owner) {
+            this.image = image;
+            this.pixels = pixels;
+            this.owner = owner;
+        }
+        
+        public BufferedImage image() {
+            return image;
+        }
+        
+        @Override
+        public void close() {
+            if (pixels != null) {
+                owner.release(pixels);
+            }
+        }
+    }
+    
+    /**
+     * Precomputed filter taps for one axis: for every output coordinate, the first
+     * contributing source coordinate, the number of taps and their normalized weights.
+     */
+    private record Kernel(int[] start, int[] count, float[] weights, int window) {
+        
+        static Kernel compute(int inSize, int outSize, ResampleQuality quality) {
+            val scale = (double) inSize / outSize;
+            val filterScale = Math.max(scale, 1.0);
+            val support = quality.support() * filterScale;
+            val window = (int) Math.ceil(support) * 2 + 1;
+            
+            val start = new int[outSize];
+            val count = new int[outSize];
+            val weights = new float[outSize * window];
+            
+            for (var i = 0; i < outSize; i++) {
+                val center = (i + 0.5) * scale;
+                val min = Math.max(0, (int) (center - support + 0.5));
+                val max = Math.min(inSize, (int) (center + support + 0.5));
+                val taps = Math.min(window, max - min);
+                
+                var total = 0.0;
+                for (var k = 0; k < taps; k++) {
+                    val weight = quality.weight((k + min - center + 0.5) / filterScale);
+                    weights[i * window + k] = (float) weight;
+                    total += weight;
+                }
+                if (total != 0.0) {
+                    for (var k = 0; k < taps; k++) {
+                        weights[i * window + k] /= (float) total;
+                    }
+                }
+                
+                start[i] = min;
+                count[i] = taps;
+            }
+            
+            return new Kernel(start, count, weights, window);
+        }
+    }
+    
+    @FunctionalInterface
+    private interface RowRange {
+        void apply(int from, int to);
+    }
+    
+    private static final class RowTask extends RecursiveAction {
+        
+        private final int from;
+        private final int to;
+        private final int tileRows;
+        private final RowRange body;
+        
+        RowTask(int from, int to, int tileRows, RowRange body) {
+            this.from = from;
+            this.to = to;
+            this.tileRows = tileRows;
+            this.body = body;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= tileRows) {
+                body.apply(from, to);
+                return;
+            }
+            val mid = (from + to) >>> 1;
+            invokeAll(new RowTask(from, mid, tileRows, body), new RowTask(mid, to, tileRows, body));
+        }
+    }
+}
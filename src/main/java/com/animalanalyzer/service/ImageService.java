@@ -1,40 +1,210 @@
 package com.animalanalyzer.service;
 
+import com.animalanalyzer.model.ImageFormat;
+import com.animalanalyzer.model.ImageInfo;
+import com.animalanalyzer.model.ProcessedImage;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
+import javax.imageio.ImageReader;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Base64;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Set;
 
 @Service
 @Slf4j
 public class ImageService {
     
-    private static final int MAX_IMAGE_SIZE = 1024;
-    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
-    private static final Set<String> ALLOWED_FORMATS = Set.of("image/jpeg", "image/png");
+    static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
+    static final Set<String> ALLOWED_FORMATS = Set.of("image/jpeg", "image/png");
+    // Shortest side left after subsampling a passthrough image for its perceptual hash
+    private static final int PERCEPTUAL_HASH_SIZE = 64;
+    // Starting buffer for raw bodies sent without a Content-Length
+    private static final int INITIAL_BODY_SIZE = 64 * 1024;
     
-    public String processImage(MultipartFile file) throws IOException {
+    private final ImageProbe imageProbe;
+    private final ImageResampler resampler;
+    private final JpegEncoder jpegEncoder;
+    private final ImageTokenBudget tokenBudget;
+    private final boolean passthroughEnabled;
+    private final long passthroughMaxBytes;
+    private final boolean perceptualHashEnabled;
+    
+    static {
+        // Uploads are at most 10MB and already in memory, so skip ImageIO's temp-file cache
+        ImageIO.setUseCache(false);
+    }
+    
+    public ImageService(ImageProbe imageProbe,
+                        ImageResampler resampler,
+                        JpegEncoder jpegEncoder,
+                        ImageTokenBudget tokenBudget,
+                        @Value("${image.passthrough.enabled:true}") boolean passthroughEnabled,
+                        @Value("${image.passthrough.max-bytes:1048576}") long passthroughMaxBytes,
+                        @Value("${analysis.cache.similar.enabled:true}") boolean perceptualHashEnabled) {
+        this.imageProbe = imageProbe;
+        this.resampler = resampler;
+        this.jpegEncoder = jpegEncoder;
+        this.tokenBudget = tokenBudget;
+        this.passthroughEnabled = passthroughEnabled;
+        this.passthroughMaxBytes = passthroughMaxBytes;
+        this.perceptualHashEnabled = perceptualHashEnabled;
+    }
+    
+    public ProcessedImage processImage(MultipartFile file) throws IOException {
         // Validate image
         validateImage(file);
         
-        // Read and process image
-        val image = ImageIO.read(file.getInputStream());
-        val resized = resizeImage(image, MAX_IMAGE_SIZE);
+        return process(file.getInputStream().readAllBytes());
+    }
+    
+    /**
+     * Processes an image body already read by {@link #readImage}. When the image
+     * passes through unchanged, the array is forwarded as is.
+     */
+    public ProcessedImage processRawImage(byte[] data) throws IOException {
+        return process(data);
+    }
+    
+    /**
+     * Reads a raw image request body, enforcing the size limit as bytes arrive
+     * rather than after the whole body is buffered. The header is probed as soon
+     * as enough of it is in, so a body that is not a supported image, or whose
+     * dimensions exceed the limits, is rejected without reading the rest.
+     * <p>
+     * With a declared length the body is read into an array of exactly that
+     * size, which later stages use without copying.
+     */
+    public byte[] readImage(InputStream body, long contentLength, String contentType) throws IOException {
+        if (!ALLOWED_FORMATS.contains(contentType)) {
+            throw new IllegalArgumentException("Invalid image format. Only JPEG and PNG are allowed.");
+        }
+        if (contentLength > MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("Image size exceeds 10MB limit");
+        }
         
-        // Convert to base64
-        val baos = new ByteArrayOutputStream();
-        ImageIO.write(resized, "jpg", baos);
-        val imageBytes = baos.toByteArray();
+        val declared = contentLength >= 0;
+        var data = new byte[declared ? (int) contentLength : INITIAL_BODY_SIZE];
+        var length = 0;
+        var probed = false;
+        // Probe at doubling lengths so a header that never completes costs linear time
+        var nextProbe = 0;
+        while (true) {
+            if (length == data.length) {
+                if (declared || data.length == MAX_FILE_SIZE) {
+                    if (body.read() >= 0) {
+                        throw new IllegalArgumentException(declared
+                            ? "Request body is longer than its Content-Length"
+                            : "Image size exceeds 10MB limit");
+                    }
+                    break;
+                }
+                data = Arrays.copyOf(data, (int) Math.min(MAX_FILE_SIZE, data.length * 2L));
+            }
+            
+            val read = body.read(data, length, data.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+            if (!probed && length >= nextProbe) {
+                probed = imageProbe.tryProbe(data, length).isPresent();
+                nextProbe = length * 2;
+            }
+        }
         
-        return Base64.getEncoder().encodeToString(imageBytes);
+        if (length == 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        if (declared && length < contentLength) {
+            throw new IllegalArgumentException("Request body ended before its Content-Length");
+        }
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+    
+    /**
+     * Reads an image body that arrives as data buffers, such as a WebFlux
+     * file part, with the same limits and early probe as
+     * {@link #readImage(InputStream, long, String)}. Each buffer is copied in
+     * and released as it arrives, so no thread waits for the next one.
+     */
+    public Mono<byte[]> readImage(Flux<DataBuffer> body, String contentType) {
+        if (contentType == null || !ALLOWED_FORMATS.contains(contentType)) {
+            return Mono.error(new IllegalArgumentException("Invalid image format. Only JPEG and PNG are allowed."));
+        }
+        
+        return Mono.defer(() -> {
+            val reader = new BufferedBody();
+            return body
+                .doOnNext(buffer -> {
+                    try {
+                        reader.append(buffer);
+                    } finally {
+                        DataBufferUtils.release(buffer);
+                    }
+                })
+                .then(Mono.fromCallable(reader::toArray));
+        });
+    }
+    
+    private ProcessedImage process(byte[] data) throws IOException {
+        // Identify the real format and dimensions from the headers before any pixel work
+        val info = imageProbe.probe(data);
+        val width = info.getWidth();
+        val height = info.getHeight();
+        val target = tokenBudget.chooseTarget(width, height);
+        
+        // Already small enough: forward the original bytes without touching the pixels
+        if (canPassThrough(info, target, data.length)) {
+            log.debug("Passing through {}x{} {} image ({} bytes)", width, height, info.getFormat(), data.length);
+            return ProcessedImage.builder()
+                .data(data)
+                .length(data.length)
+                .mediaType(info.getFormat().getMediaType())
+                .width(width)
+                .height(height)
+                .perceptualHash(perceptualHashEnabled ? hashPassthrough(info, data) : null)
+                .build();
+        }
+        
+        val reader = createReader(info.getFormat(), data);
+        try {
+            // Read and process image
+            val image = decodeSubsampled(reader, info, target);
+            log.debug("Resizing {}x{} to {}x{} (~{} tokens)", width, height, target.width(), target.height(), target.estimatedTokens());
+            
+            // Resize and encode; the resized raster goes back to the pool once written
+            val encoded = new ExposedByteArrayOutputStream(estimateJpegSize(target));
+            Long perceptualHash = null;
+            try (ImageResampler.ResampledImage resized = resampler.resize(image, target.width(), target.height())) {
+                jpegEncoder.encode(resized.image(), encoded);
+                if (perceptualHashEnabled) {
+                    perceptualHash = PerceptualHash.dHash(resized.image());
+                }
+            }
+            
+            // Hand over the encoder's buffer as is rather than copying it with toByteArray()
+            return ProcessedImage.builder()
+                .data(encoded.buffer())
+                .length(encoded.size())
+                .mediaType(ImageFormat.JPEG.getMediaType())
+                .width(target.width())
+                .height(target.height())
+                .perceptualHash(perceptualHash)
+                .build();
+        } finally {
+            reader.dispose();
+        }
     }
     
     private void validateImage(MultipartFile file) {
@@ -51,27 +221,107 @@ public class ImageService {
         }
     }
     
-    private BufferedImage resizeImage(BufferedImage originalImage, int maxSize) {
-        val width = originalImage.getWidth();
-        val height = originalImage.getHeight();
-        
-        // Calculate new dimensions maintaining aspect ratio
-        val scale = Math.min((double) maxSize / width, (double) maxSize / height);
+    private boolean canPassThrough(ImageInfo info, ImageTokenBudget.Target target, long size) {
+        return passthroughEnabled
+            && target.isOriginalSize(info.getWidth(), info.getHeight())
+            && size <= passthroughMaxBytes;
+    }
+    
+    private ImageReader createReader(ImageFormat format, byte[] data) {
+        val readers = ImageIO.getImageReadersByFormatName(format.getFormatName());
+        if (!readers.hasNext()) {
+            throw new IllegalStateException("No ImageReader available for " + format);
+        }
         
-        if (scale >= 1.0) {
-            return originalImage; // No need to resize
+        val reader = readers.next();
+        reader.setInput(new ByteArrayImageInputStream(data), true, true);
+        return reader;
+    }
+    
+    /**
+     * Decodes with source subsampling, so a 6000x4000 photo is never materialized
+     * at full size. The subsampled raster is still at least as large as the target,
+     * leaving only the fractional step to the resampler.
+     */
+    private BufferedImage decodeSubsampled(ImageReader reader, ImageInfo info, ImageTokenBudget.Target target) {
+        val factor = subsamplingFactor(info.getWidth(), info.getHeight(), target.width(), target.height());
+        val param = reader.getDefaultReadParam();
+        if (factor > 1) {
+            param.setSourceSubsampling(factor, factor, 0, 0);
         }
         
-        val newWidth = (int) (width * scale);
-        val newHeight = (int) (height * scale);
+        log.debug("Decoding {}x{} image with subsampling factor {}", info.getWidth(), info.getHeight(), factor);
+        try {
+            return reader.read(0, param);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unsupported or corrupt image", e);
+        }
+    }
+    
+    /**
+     * Passthrough images are never decoded for resizing, so the hash comes from
+     * a heavily subsampled decode that only needs to resolve the 9x8 hash grid.
+     * An image that cannot be decoded simply gets no hash.
+     */
+    private Long hashPassthrough(ImageInfo info, byte[] data) {
+        val reader = createReader(info.getFormat(), data);
+        try {
+            val factor = Math.max(1, Math.min(info.getWidth(), info.getHeight()) / PERCEPTUAL_HASH_SIZE);
+            val param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(factor, factor, 0, 0);
+            return PerceptualHash.dHash(reader.read(0, param));
+        } catch (IOException e) {
+            log.debug("Could not decode passthrough image for hashing: {}", e.getMessage());
+            return null;
+        } finally {
+            reader.dispose();
+        }
+    }
+    
+    private static int estimateJpegSize(ImageTokenBudget.Target target) {
+        // Photos typically land around two bits per pixel at default quality
+        return Math.max(16 * 1024, target.width() * target.height() / 4);
+    }
+    
+    /**
+     * Largest integer factor that keeps both sides at or above the target size.
+     */
+    static int subsamplingFactor(int width, int height, int targetWidth, int targetHeight) {
+        return Math.max(1, Math.min(width / targetWidth, height / targetHeight));
+    }
+    
+    /**
+     * Accumulates a body of unknown length for {@link #readImage(Flux, String)}.
+     */
+    private final class BufferedBody {
         
-        val resizedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        val g2d = resizedImage.createGraphics();
+        private byte[] data = new byte[INITIAL_BODY_SIZE];
+        private int length;
+        private boolean probed;
+        private int nextProbe;
         
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.drawImage(originalImage, 0, 0, newWidth, newHeight, null);
-        g2d.dispose();
+        void append(DataBuffer buffer) {
+            val count = buffer.readableByteCount();
+            if (length + (long) count > MAX_FILE_SIZE) {
+                throw new IllegalArgumentException("Image size exceeds 10MB limit");
+            }
+            if (length + count > data.length) {
+                data = Arrays.copyOf(data, (int) Math.min(MAX_FILE_SIZE, Math.max(length + count, data.length * 2L)));
+            }
+            buffer.read(data, length, count);
+            length += count;
+            // Header parsing only, cheap enough for the thread delivering the buffer
+            if (!probed && length >= nextProbe) {
+                probed = imageProbe.tryProbe(data, length).isPresent();
+                nextProbe = length * 2;
+            }
+        }
         
-        return resizedImage;
+        byte[] toArray() {
+            if (length == 0) {
+                throw new IllegalArgumentException("File is empty");
+            }
+            return length == data.length ? data : Arrays.copyOf(data, length);
+        }
     }
-}
\ No newline at end of file
+}
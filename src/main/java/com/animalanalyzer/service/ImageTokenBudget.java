@@ -0,0 +1,163 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Chooses the size images are sent upstream at from an input-token budget.
+ * Anthropic estimates image cost as {@code width * height / 750} tokens, so the
+ * budget translates directly into a pixel area.
+ * <p>
+ * In adaptive mode the budget is lowered one step whenever the upstream p95
+ * latency over a window of calls exceeds the target or a call is rate limited,
+ * and raised one step again once a full window stays comfortably below target.
+ */
+@Component
+@Slf4j
+public class ImageTokenBudget {
+    
+    static final double PIXELS_PER_TOKEN = 750.0;
+    
+    // Latency must fall below this fraction of the target before the budget grows again
+    private static final double RECOVERY_RATIO = 0.75;
+    
+    private final int maxDimension;
+    private final int maxTokens;
+    private final int minTokens;
+    private final int stepTokens;
+    private final boolean adaptive;
+    private final long latencyTargetMillis;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long[] latencySamples;
+    private int sampleCount;
+    private volatile int currentBudget;
+    
+    private final DistributionSummary estimatedTokens;
+    private final DistributionSummary targetLongEdge;
+    
+    public ImageTokenBudget(MeterRegistry meterRegistry,
+                            @Value("${image.token-budget.max-dimension:1024}") int maxDimension,
+                            @Value("${image.token-budget.max-tokens:1400}") int maxTokens,
+                            @Value("${image.token-budget.min-tokens:400}") int minTokens,
+                            @Value("${image.token-budget.step-tokens:200}") int stepTokens,
+                            @Value("${image.token-budget.adaptive.enabled:false}") boolean adaptive,
+                            @Value("${image.token-budget.adaptive.latency-p95-target-ms:20000}") long latencyTargetMillis,
+                            @Value("${image.token-budget.adaptive.window:20}") int window) {
+        this.maxDimension = maxDimension;
+        this.maxTokens = maxTokens;
+        this.minTokens = Math.min(minTokens, maxTokens);
+        this.stepTokens = Math.max(1, stepTokens);
+        this.adaptive = adaptive;
+        this.latencyTargetMillis = latencyTargetMillis;
+        this.latencySamples = new long[Math.max(1, window)];
+        this.currentBudget = maxTokens;
+        
+        Gauge.builder("image.token.budget", this, ImageTokenBudget::getCurrentBudget)
+            .description("Current per-image input token budget")
+            .register(meterRegistry);
+        this.estimatedTokens = DistributionSummary.builder("image.tokens.estimated")
+            .description("Estimated input tokens of each image sent upstream")
+            .register(meterRegistry);
+        this.targetLongEdge = DistributionSummary.builder("image.target.long.edge")
+            .description("Longest side in pixels of each image sent upstream")
+            .baseUnit("pixels")
+            .register(meterRegistry);
+        
+        log.info("ImageTokenBudget initialized - max dimension: {}, budget: {}-{} tokens, adaptive: {}",
+            maxDimension, this.minTokens, maxTokens, adaptive);
+    }
+    
+    public int getCurrentBudget() {
+        return currentBudget;
+    }
+    
+    public static int estimateTokens(int width, int height) {
+        return (int) Math.ceil(width * (double) height / PIXELS_PER_TOKEN);
+    }
+    
+    /**
+     * Picks the largest size with the original aspect ratio that fits both the
+     * maximum dimension and the current token budget, never upscaling. The
+     * choice is recorded in the size and token metrics.
+     */
+    public Target chooseTarget(int width, int height) {
+        val maxPixels = currentBudget * PIXELS_PER_TOKEN;
+        val scale = Math.min(1.0, Math.min(
+            Math.min((double) maxDimension / width, (double) maxDimension / height),
+            Math.sqrt(maxPixels / ((double) width * height))));
+        
+        val targetWidth = scale < 1.0 ? Math.max(1, (int) (width * scale)) : width;
+        val targetHeight = scale < 1.0 ? Math.max(1, (int) (height * scale)) : height;
+        val tokens = estimateTokens(targetWidth, targetHeight);
+        
+        estimatedTokens.record(tokens);
+        targetLongEdge.record(Math.max(targetWidth, targetHeight));
+        return new Target(targetWidth, targetHeight, tokens);
+    }
+    
+    public void recordUpstreamLatency(long millis) {
+        if (!adaptive) {
+            return;
+        }
+        
+        lock.lock();
+        try {
+            latencySamples[sampleCount++] = millis;
+            if (sampleCount < latencySamples.length) {
+                return;
+            }
+            
+            val sorted = Arrays.copyOf(latencySamples, sampleCount);
+            Arrays.sort(sorted);
+            val p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+            sampleCount = 0;
+            
+            if (p95 > latencyTargetMillis) {
+                adjust(-stepTokens, "p95 latency " + p95 + "ms");
+            } else if (p95 < latencyTargetMillis * RECOVERY_RATIO) {
+                adjust(stepTokens, "p95 latency " + p95 + "ms");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public void recordRateLimited() {
+        if (!adaptive) {
+            return;
+        }
+        
+        lock.lock();
+        try {
+            // Back off immediately and start a fresh window before growing again
+            sampleCount = 0;
+            adjust(-stepTokens, "upstream rate limit");
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void adjust(int delta, String reason) {
+        val updated = Math.max(minTokens, Math.min(maxTokens, currentBudget + delta));
+        if (updated != currentBudget) {
+            log.info("Adjusting image token budget {} -> {} ({})", currentBudget, updated, reason);
+            currentBudget = updated;
+        }
+    }
+    
+    public record Target(int width, int height, int estimatedTokens) {
+        
+        public boolean isOriginalSize(int originalWidth, int originalHeight) {
+            return width == originalWidth && height == originalHeight;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.animalanalyzer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JPEG encoder backed by a bounded pool of {@link ImageWriter} instances, so the
+ * service registry lookup and writer setup are not repeated for every request.
+ * <p>
+ * When a target size is configured, the compression quality is binary searched
+ * until the output lands just under that many bytes. The quality picked for each
+ * pixel-count bucket is remembered and tried first next time, so similar images
+ * usually need a single encode.
+ */
+@Component
+@Slf4j
+public class JpegEncoder {
+    
+    // Results between this fraction of the target and the target itself are accepted
+    private static final double TARGET_TOLERANCE = 0.10;
+    // Images are grouped into 64K-pixel buckets for the remembered quality
+    private static final int BUCKET_SHIFT = 16;
+    
+    private final BlockingQueue<ImageWriter> writers;
+    private final long targetBytes;
+    private final float minQuality;
+    private final float maxQuality;
+    private final int maxAttempts;
+    private final Map<Integer, Float> qualityByBucket = new ConcurrentHashMap<>();
+    
+    public JpegEncoder(@Value("${image.encoder.pool-size:0}") int poolSize,
+                       @Value("${image.encoder.target-bytes:0}") long targetBytes,
+                       @Value("${image.encoder.min-quality:0.4}") float minQuality,
+                       @Value("${image.encoder.max-quality:0.92}") float maxQuality,
+                       @Value("${image.encoder.max-attempts:5}") int maxAttempts) {
+        if (minQuality <= 0 || maxQuality > 1 || minQuality > maxQuality) {
+            throw new IllegalArgumentException("JPEG quality range must satisfy 0 < min <= max <= 1");
+        }
+        
+        val capacity = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        this.writers = new ArrayBlockingQueue<>(capacity);
+        this.targetBytes = targetBytes;
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        
+        if (targetBytes > 0) {
+            log.info("JpegEncoder targeting {} bytes - quality {}-{}, max attempts: {}",
+                targetBytes, minQuality, maxQuality, this.maxAttempts);
+        }
+    }
+    
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        if (targetBytes <= 0) {
+            write(image, null, out);
+            return;
+        }
+        
+        encodeToTarget(image).writeTo(out);
+    }
+    
+    /**
+     * Binary searches the quality range for the largest output not above the
+     * target, starting from the quality last chosen for images of this size.
+     * If even the minimum quality overshoots, that smallest result is used.
+     */
+    private ByteArrayOutputStream encodeToTarget(RenderedImage image) throws IOException {
+        val bucket = bucket(image.getWidth(), image.getHeight());
+        var low = minQuality;
+        var high = maxQuality;
+        float quality = qualityByBucket.getOrDefault(bucket, maxQuality);
+        
+        ByteArrayOutputStream best = null;
+        var bestQuality = minQuality;
+        ByteArrayOutputStream smallest = null;
+        var attempts = 0;
+        
+        while (attempts < maxAttempts) {
+            attempts++;
+            val buffer = new ByteArrayOutputStream((int) Math.min(targetBytes, Integer.MAX_VALUE - 8));
+            write(image, quality, buffer);
+            val size = buffer.size();
+            
+            if (size <= targetBytes) {
+                if (best == null || size > best.size()) {
+                    best = buffer;
+                    bestQuality = quality;
+                }
+                if (size >= targetBytes * (1 - TARGET_TOLERANCE) || quality >= high) {
+                    break;
+                }
+                low = quality;
+            } else {
+                if (smallest == null || size < smallest.size()) {
+                    smallest = buffer;
+                }
+                if (quality <= low) {
+                    break;
+                }
+                high = quality;
+            }
+            quality = (low + high) / 2;
+        }
+        
+        if (best == null) {
+            // Nothing fit; keep the smallest attempt and start lower next time
+            log.debug("No JPEG quality fits {} bytes after {} attempts, using {} bytes", targetBytes, attempts, smallest.size());
+            qualityByBucket.put(bucket, minQuality);
+            return smallest;
+        }
+        
+        log.debug("Encoded {}x{} JPEG at quality {} to {} bytes in {} attempts",
+            image.getWidth(), image.getHeight(), bestQuality, best.size(), attempts);
+        qualityByBucket.put(bucket, bestQuality);
+        return best;
+    }
+    
+    private void write(RenderedImage image, Float quality, OutputStream out) throws IOException {
+        val writer = acquire();
+        var reusable = false;
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            val param = writer.getDefaultWriteParam();
+            if (quality != null) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+            reusable = true;
+        } finally {
+            release(writer, reusable);
+        }
+    }
+    
+    Float cachedQuality(int width, int height) {
+        return qualityByBucket.get(bucket(width, height));
+    }
+    
+    private static int bucket(int width, int height) {
+        return (int) (((long) width * height) >>> BUCKET_SHIFT);
+    }
+    
+    private ImageWriter acquire() {
+        val pooled = writers.poll();
+        if (pooled != null) {
+            return pooled;
+        }
+        
+        val available = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!available.hasNext()) {
+            throw new IllegalStateException("No JPEG ImageWriter available");
+        }
+        return available.next();
+    }
+    
+    private void release(ImageWriter writer, boolean reusable) {
+        // A writer that failed mid-stream may hold partial state, so it is not reused
+        if (reusable) {
+            writer.reset();
+            if (writers.offer(writer)) {
+                return;
+            }
+        }
+        writer.dispose();
+    }
+}
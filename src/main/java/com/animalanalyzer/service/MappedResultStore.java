@@ -0,0 +1,188 @@
+package com.animalanalyzer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of serialized results in a memory-mapped file, keyed by a
+ * SHA-256 digest. Each record is laid out as
+ * {@code [payload length][crc32][generation][32-byte digest][payload]}; the
+ * length is written last, so a record torn by a crash fails its checksum on
+ * the next start and everything from there on is overwritten by new appends.
+ * <p>
+ * The generation tags what a record was produced with. Records of any other
+ * generation than the one the store is opened for can no longer be looked up,
+ * so opening compacts them away, sliding the live records down over them.
+ * <p>
+ * The file is mapped once at its full capacity, which caps its size. When it
+ * is full, new records are dropped; existing ones stay readable.
+ */
+@Slf4j
+final class MappedResultStore implements Closeable {
+    
+    static final int DIGEST_BYTES = 32;
+    static final int HEADER_BYTES = 12;
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Map<String, Integer> index = new ConcurrentHashMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile int writePosition;
+    private boolean fullLogged;
+    
+    MappedResultStore(Path path, int capacity, int generation) throws IOException {
+        val parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        
+        this.capacity = capacity;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.writePosition = compact(generation);
+        
+        log.info("Opened result store {} - {} records, {} of {} bytes used", path, index.size(), writePosition, capacity);
+    }
+    
+    /**
+     * Returns a copy of the payload stored for {@code key}, or null if absent.
+     */
+    byte[] get(String key) {
+        val offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        
+        val payload = new byte[buffer.getInt(offset)];
+        buffer.get(offset + HEADER_BYTES + DIGEST_BYTES, payload);
+        return payload;
+    }
+    
+    /**
+     * Appends a record unless the key is already stored or the file is full.
+     *
+     * @return whether the record was written
+     */
+    boolean put(String key, int generation, byte[] payload) {
+        val digest = HexFormat.of().parseHex(key);
+        if (digest.length != DIGEST_BYTES) {
+            throw new IllegalArgumentException("Key must be a hex SHA-256 digest");
+        }
+        
+        appendLock.lock();
+        try {
+            if (index.containsKey(key)) {
+                return false;
+            }
+            
+            val position = writePosition;
+            val recordBytes = HEADER_BYTES + DIGEST_BYTES + payload.length;
+            if ((long) position + recordBytes > capacity) {
+                if (!fullLogged) {
+                    log.warn("Result store is full at {} bytes, new results are kept in memory only", position);
+                    fullLogged = true;
+                }
+                return false;
+            }
+            
+            buffer.putInt(position + 8, generation);
+            buffer.put(position + HEADER_BYTES, digest);
+            buffer.put(position + HEADER_BYTES + DIGEST_BYTES, payload);
+            buffer.putInt(position + 4, checksum(position + 8, 4 + DIGEST_BYTES + payload.length));
+            buffer.putInt(position, payload.length);
+            
+            writePosition = position + recordBytes;
+            index.put(key, position);
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+    
+    int size() {
+        return index.size();
+    }
+    
+    int usedBytes() {
+        return writePosition;
+    }
+    
+    /**
+     * Indexes the valid records of {@code generation}, moving each down to
+     * follow the previous one kept, and zeroes what is left behind so none of
+     * it is read back on a later start. A crash part way through loses at
+     * most the records from the one being moved on, like a torn append.
+     *
+     * @return the end of the last record kept
+     */
+    private int compact(int generation) {
+        var position = 0;
+        var kept = 0;
+        var dropped = 0;
+        while (position + HEADER_BYTES + DIGEST_BYTES <= capacity) {
+            val length = buffer.getInt(position);
+            if (length <= 0 || (long) position + HEADER_BYTES + DIGEST_BYTES + length > capacity) {
+                break;
+            }
+            if (buffer.getInt(position + 4) != checksum(position + 8, 4 + DIGEST_BYTES + length)) {
+                log.warn("Corrupt result record at offset {}, discarding it and everything after", position);
+                break;
+            }
+            
+            val recordBytes = HEADER_BYTES + DIGEST_BYTES + length;
+            if (buffer.getInt(position + 8) != generation) {
+                dropped++;
+                position += recordBytes;
+                continue;
+            }
+            
+            if (kept < position) {
+                val record = new byte[recordBytes];
+                buffer.get(position, record);
+                buffer.put(kept + 4, record, 4, recordBytes - 4);
+                buffer.putInt(kept, length);
+            }
+            val digest = new byte[DIGEST_BYTES];
+            buffer.get(kept + HEADER_BYTES, digest);
+            index.put(HexFormat.of().formatHex(digest), kept);
+            kept += recordBytes;
+            position += recordBytes;
+        }
+        
+        if (kept < position) {
+            val zeros = new byte[Math.min(position - kept, 8192)];
+            for (var offset = kept; offset < position; offset += zeros.length) {
+                buffer.put(offset, zeros, 0, Math.min(zeros.length, position - offset));
+            }
+            log.info("Compacted result store - dropped {} records of other generations, freed {} bytes",
+                dropped, position - kept);
+        }
+        return kept;
+    }
+    
+    private int checksum(int offset, int length) {
+        val crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,210 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.ProcessedImage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import lombok.val;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes an Anthropic Messages API request straight to an output stream. The
+ * image is base64-encoded on the fly from its raw bytes, so the request body
+ * is the only place the encoded image ever exists.
+ * <p>
+ * The prompt is sent as a system block. Once it reaches the model's minimum
+ * cacheable length (1024 tokens for most models) the block is marked with
+ * {@code cache_control}, so Anthropic can serve it from its prompt cache
+ * instead of processing it again on every call. The bundled prompt is about
+ * 600 tokens, so it is not marked and is processed in full on every call.
+ * <p>
+ * Everything before the image is the same for a given model, token limit and
+ * prompt version, so it is serialized once into a {@link Template} and copied
+ * into each body as bytes. Only the media type and the image data are written
+ * per request, which also makes the body length known before it is written.
+ */
+final class MessagesRequestWriter {
+    
+    // Prompt reloads add templates; old versions are dropped all at once past this
+    private static final int MAX_TEMPLATES = 16;
+    
+    // Shorter prompts are never cached. Tokens are estimated from characters,
+    // leaning low: a marker on a prompt under the minimum is simply ignored
+    private static final int MIN_CACHEABLE_TOKENS = 1024;
+    private static final int MIN_CHARS_PER_TOKEN = 3;
+    
+    private static final byte[] MEDIA_TYPE_FIELD = bytes(",\"media_type\":\"");
+    private static final byte[] DATA_FIELD = bytes("\",\"data\":\"");
+    private static final byte[] SUFFIX = bytes("\"}}]}]}");
+    
+    // Closing the generator must not end the objects the per-request part goes into
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+        .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+        .disable(StreamWriteFeature.AUTO_CLOSE_CONTENT)
+        .build();
+    
+    private static final Map<TemplateKey, Template> TEMPLATES = new ConcurrentHashMap<>();
+    
+    private record TemplateKey(String model, int maxTokens, String promptVersion, boolean stream) {
+    }
+    
+    private MessagesRequestWriter() {
+    }
+    
+    /**
+     * The request template for these settings, serialized on first use.
+     *
+     * @param stream ask for the answer as server-sent events rather than one
+     *               JSON response
+     */
+    static Template template(String model, int maxTokens, PromptRegistry.Prompt prompt, boolean stream) {
+        val key = new TemplateKey(model, maxTokens, prompt.version(), stream);
+        val template = TEMPLATES.get(key);
+        if (template != null) {
+            return template;
+        }
+        if (TEMPLATES.size() >= MAX_TEMPLATES) {
+            TEMPLATES.clear();
+        }
+        return TEMPLATES.computeIfAbsent(key, k -> new Template(head(model, maxTokens, prompt.text(), stream)));
+    }
+    
+    /**
+     * A request with everything up to the image source already serialized.
+     */
+    static final class Template {
+        
+        private final byte[] head;
+        
+        private Template(byte[] head) {
+            this.head = head;
+        }
+        
+        /**
+         * Exact length of the body {@link #write} produces for this image.
+         */
+        int contentLength(ProcessedImage image) {
+            return head.length + MEDIA_TYPE_FIELD.length + mediaType(image).length + DATA_FIELD.length
+                + (image.getLength() + 2) / 3 * 4 + SUFFIX.length;
+        }
+        
+        void write(OutputStream out, ProcessedImage image) throws IOException {
+            out.write(head);
+            out.write(MEDIA_TYPE_FIELD);
+            out.write(mediaType(image));
+            out.write(DATA_FIELD);
+            try (OutputStream data = Base64.getEncoder().wrap(new NonClosingOutputStream(out))) {
+                data.write(image.getData(), 0, image.getLength());
+            }
+            out.write(SUFFIX);
+        }
+        
+        /**
+         * Writes the request into a single buffer of exactly its length from the
+         * connection's allocator, base64-encoding the image as it goes.
+         */
+        BodyInserter<Void, ReactiveHttpOutputMessage> bodyInserter(ProcessedImage image) {
+            return (request, context) -> {
+                val length = contentLength(image);
+                val buffer = request.bufferFactory().allocateBuffer(length);
+                try (OutputStream out = buffer.asOutputStream()) {
+                    write(out, image);
+                } catch (IOException e) {
+                    DataBufferUtils.release(buffer);
+                    return Mono.error(e);
+                }
+                request.getHeaders().setContentLength(length);
+                return request.writeWith(Mono.just(buffer));
+            };
+        }
+    }
+    
+    private static byte[] head(String model, int maxTokens, String prompt, boolean stream) {
+        val out = new ByteArrayOutputStream(prompt.length() + 256);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("model", model);
+            generator.writeNumberField("max_tokens", maxTokens);
+            if (stream) {
+                generator.writeBooleanField("stream", true);
+            }
+            
+            // The instructions are the same for every request, so they go first as a
+            // system block; only the image after them differs between calls
+            generator.writeArrayFieldStart("system");
+            generator.writeStartObject();
+            generator.writeStringField("type", "text");
+            generator.writeStringField("text", prompt);
+            if (isCacheable(prompt)) {
+                generator.writeObjectFieldStart("cache_control");
+                generator.writeStringField("type", "ephemeral");
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeEndArray();
+            
+            generator.writeArrayFieldStart("messages");
+            generator.writeStartObject();
+            generator.writeStringField("role", "user");
+            generator.writeArrayFieldStart("content");
+            generator.writeStartObject();
+            generator.writeStringField("type", "image");
+            generator.writeObjectFieldStart("source");
+            generator.writeStringField("type", "base64");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+    
+    static boolean isCacheable(String prompt) {
+        return prompt.length() >= MIN_CACHEABLE_TOKENS * MIN_CHARS_PER_TOKEN;
+    }
+    
+    // Media types come from ImageService, but a stray quote would break the JSON around it
+    private static byte[] mediaType(ProcessedImage image) {
+        val mediaType = image.getMediaType();
+        for (var i = 0; i < mediaType.length(); i++) {
+            val c = mediaType.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '/' || c == '+' || c == '-' || c == '.')) {
+                throw new IllegalArgumentException("Unsupported media type: " + mediaType);
+            }
+        }
+        return mediaType.getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    // Lets the base64 encoder write its final padding without closing the body stream
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
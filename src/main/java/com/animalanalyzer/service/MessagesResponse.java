@@ -0,0 +1,146 @@
+package com.animalanalyzer.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.val;
+
+import java.io.IOException;
+
+/**
+ * The parts of an Anthropic Messages API response the analysis uses: the
+ * answer text, why the model stopped, and the token counts. Responses are
+ * read with a streaming parser that keeps only these and skips everything
+ * else, so no tree of maps is built for the whole body.
+ */
+public record MessagesResponse(String text, String stopReason, Usage usage) {
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    /**
+     * Token counts from the {@code usage} object; missing counts are zero.
+     */
+    public record Usage(long inputTokens, long outputTokens, long cacheReadInputTokens, long cacheCreationInputTokens) {
+        
+        static final Usage NONE = new Usage(0, 0, 0, 0);
+        
+        /**
+         * Combines the counts of two events of one streamed response. Each
+         * count is a running total, so the larger one is kept.
+         */
+        Usage merge(Usage later) {
+            return new Usage(
+                Math.max(inputTokens, later.inputTokens),
+                Math.max(outputTokens, later.outputTokens),
+                Math.max(cacheReadInputTokens, later.cacheReadInputTokens),
+                Math.max(cacheCreationInputTokens, later.cacheCreationInputTokens));
+        }
+    }
+    
+    // Also the shape of a streamed text delta
+    record Block(String type, String text) {
+    }
+    
+    /**
+     * Reads a response body. The text of all {@code text} content blocks is
+     * joined in order.
+     *
+     * @throws UpstreamResponseException if the response holds no text block
+     * @throws IOException if the body is not a JSON object
+     */
+    public static MessagesResponse parse(byte[] body) throws IOException {
+        try (val parser = JSON_FACTORY.createParser(body)) {
+            return parse(parser);
+        }
+    }
+    
+    private static MessagesResponse parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object as the Messages API response");
+        }
+        
+        StringBuilder text = null;
+        var toolUse = false;
+        String stopReason = null;
+        var usage = Usage.NONE;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName();
+            val token = parser.nextToken();
+            switch (name) {
+                case "content" -> {
+                    if (token != JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    JsonToken element;
+                    while ((element = parser.nextToken()) != JsonToken.END_ARRAY && element != null) {
+                        if (element != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        val block = readBlock(parser);
+                        if ("text".equals(block.type()) && block.text() != null) {
+                            text = text == null ? new StringBuilder(block.text()) : text.append(block.text());
+                        } else if ("tool_use".equals(block.type())) {
+                            toolUse = true;
+                        }
+                    }
+                }
+                case "stop_reason" -> stopReason = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                case "usage" -> usage = token == JsonToken.START_OBJECT ? readUsage(parser) : Usage.NONE;
+                default -> parser.skipChildren();
+            }
+        }
+        
+        if (text == null) {
+            throw new UpstreamResponseException(toolUse
+                ? "Anthropic answered with a tool_use block instead of text"
+                : "Anthropic response has no text content", stopReason);
+        }
+        return new MessagesResponse(text.toString(), stopReason, usage);
+    }
+    
+    // Fields may come in any order; tool input and citations are skipped
+    static Block readBlock(JsonParser parser) throws IOException {
+        String type = null;
+        String text = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName();
+            val token = parser.nextToken();
+            if (token == JsonToken.VALUE_STRING && name.equals("type")) {
+                type = parser.getText();
+            } else if (token == JsonToken.VALUE_STRING && name.equals("text")) {
+                text = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new Block(type, text);
+    }
+    
+    static Usage readUsage(JsonParser parser) throws IOException {
+        long input = 0;
+        long output = 0;
+        long cacheRead = 0;
+        long cacheCreation = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName();
+            val token = parser.nextToken();
+            if (token != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (name) {
+                case "input_tokens" -> input = parser.getLongValue();
+                case "output_tokens" -> output = parser.getLongValue();
+                case "cache_read_input_tokens" -> cacheRead = parser.getLongValue();
+                case "cache_creation_input_tokens" -> cacheCreation = parser.getLongValue();
+                default -> {
+                    // server_tool_use and other counts are not tracked
+                }
+            }
+        }
+        return new Usage(input, output, cacheRead, cacheCreation);
+    }
+}
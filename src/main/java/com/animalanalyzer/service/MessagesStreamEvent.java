@@ -0,0 +1,111 @@
+package com.animalanalyzer.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.val;
+
+import java.io.IOException;
+
+/**
+ * The parts of one server-sent event of a streamed Messages API response the
+ * analysis uses: the text of a {@code text_delta}, the token counts carried
+ * by {@code message_start} and {@code message_delta}, and the message of an
+ * {@code error}. Parts an event does not carry are null. Like
+ * {@link MessagesResponse}, the data is read with a streaming parser that
+ * skips everything else.
+ */
+public record MessagesStreamEvent(String type, String text, MessagesResponse.Usage usage, String error) {
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    /**
+     * Reads the {@code data} of an event.
+     *
+     * @throws IOException if the data is not a JSON object
+     */
+    public static MessagesStreamEvent parse(String data) throws IOException {
+        try (val parser = JSON_FACTORY.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object as the Messages API event");
+            }
+            
+            String type = null;
+            MessagesResponse.Block delta = null;
+            MessagesResponse.Usage usage = null;
+            String error = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val name = parser.currentName();
+                val token = parser.nextToken();
+                switch (name) {
+                    case "type" -> type = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    case "delta" -> {
+                        if (token == JsonToken.START_OBJECT) {
+                            delta = MessagesResponse.readBlock(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    // message_start nests its counts in the message, message_delta has them at the top
+                    case "message" -> {
+                        if (token == JsonToken.START_OBJECT) {
+                            usage = readMessageUsage(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "usage" -> {
+                        if (token == JsonToken.START_OBJECT) {
+                            usage = MessagesResponse.readUsage(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "error" -> {
+                        if (token == JsonToken.START_OBJECT) {
+                            error = readError(parser);
+                        } else {
+                            error = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            
+            val text = delta != null && "text_delta".equals(delta.type()) ? delta.text() : null;
+            return new MessagesStreamEvent(type, text, usage, error);
+        }
+    }
+    
+    private static MessagesResponse.Usage readMessageUsage(JsonParser parser) throws IOException {
+        MessagesResponse.Usage usage = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && name.equals("usage")) {
+                usage = MessagesResponse.readUsage(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return usage;
+    }
+    
+    private static String readError(JsonParser parser) throws IOException {
+        String type = null;
+        String message = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName();
+            val token = parser.nextToken();
+            if (token == JsonToken.VALUE_STRING && name.equals("type")) {
+                type = parser.getText();
+            } else if (token == JsonToken.VALUE_STRING && name.equals("message")) {
+                message = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return type + ": " + message;
+    }
+}
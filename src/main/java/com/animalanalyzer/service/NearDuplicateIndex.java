@@ -0,0 +1,283 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * In-memory index from 64-bit perceptual hashes to result cache keys, searched
+ * by Hamming distance with multi-index hashing. The hash is split into four
+ * 16-bit chunks, each with its own table; any hash within distance {@code d}
+ * of the query matches at least one chunk within {@code d / 4} bits, so only
+ * those buckets are probed instead of scanning every entry.
+ * <p>
+ * Each table keeps its hashes sorted by chunk in one flat array, so a bucket
+ * is a contiguous run that scans sequentially. New entries collect in a small
+ * pending run that is scanned linearly and merged into the tables once it
+ * fills up. At capacity the oldest half of the entries is dropped.
+ */
+@Component
+@Slf4j
+public class NearDuplicateIndex {
+    
+    private static final int TABLES = 4;
+    private static final int CHUNK_BITS = 16;
+    private static final int BUCKETS = 1 << CHUNK_BITS;
+    private static final int DIGEST_LONGS = 4;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Pending entries are merged once they exceed this or 1/64 of the index, whichever is larger
+    private static final int MIN_PENDING = 4096;
+    
+    private final boolean enabled;
+    private final int maxDistance;
+    private final int probeRadius;
+    private final int maxEntries;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // All entries in insertion order; the first `indexed` are also in the tables
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private long[] digests = new long[INITIAL_CAPACITY * DIGEST_LONGS];
+    private int size;
+    private int indexed;
+    
+    // Per table: bucket start offsets, and hashes with their entry numbers ordered by bucket
+    private final int[][] offsets = new int[TABLES][BUCKETS + 1];
+    private final long[][] tableHashes = new long[TABLES][0];
+    private final int[][] tableEntries = new int[TABLES][0];
+    
+    private final Counter hits;
+    private final Counter misses;
+    private final DistributionSummary matchDistance;
+    
+    public NearDuplicateIndex(MeterRegistry meterRegistry,
+                              @Value("${analysis.cache.similar.enabled:true}") boolean enabled,
+                              @Value("${analysis.cache.similar.max-distance:6}") int maxDistance,
+                              @Value("${analysis.cache.similar.max-entries:250000}") int maxEntries) {
+        if (maxDistance < 0 || maxDistance > 11) {
+            throw new IllegalArgumentException("Perceptual hash distance must be between 0 and 11");
+        }
+        
+        this.enabled = enabled;
+        this.maxDistance = maxDistance;
+        this.probeRadius = maxDistance / TABLES;
+        this.maxEntries = Math.max(2, maxEntries);
+        
+        this.hits = Counter.builder("analysis.cache.similar.requests")
+            .tag("result", "hit")
+            .description("Perceptual near-duplicate lookups")
+            .register(meterRegistry);
+        this.misses = Counter.builder("analysis.cache.similar.requests")
+            .tag("result", "miss")
+            .description("Perceptual near-duplicate lookups")
+            .register(meterRegistry);
+        this.matchDistance = DistributionSummary.builder("analysis.cache.similar.distance")
+            .description("Hamming distance of near-duplicate matches")
+            .register(meterRegistry);
+        Gauge.builder("analysis.cache.similar.entries", this, NearDuplicateIndex::size)
+            .description("Perceptual hashes in the near-duplicate index")
+            .register(meterRegistry);
+        
+        log.info("NearDuplicateIndex initialized - enabled: {}, max distance: {}, max entries: {}",
+            enabled, maxDistance, this.maxEntries);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Returns the cache key of the closest indexed hash within the configured
+     * distance.
+     */
+    public Optional<String> findNearest(long hash) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        
+        lock.readLock().lock();
+        try {
+            val search = new Search(hash, maxDistance + 1);
+            for (var entry = indexed; entry < size; entry++) {
+                search.offer(hashes[entry], entry);
+            }
+            
+            for (var table = 0; table < TABLES && search.distance > 0; table++) {
+                val chunk = chunk(hash, table);
+                probe(table, chunk, search);
+                if (probeRadius < 1) {
+                    continue;
+                }
+                for (var i = 0; i < CHUNK_BITS; i++) {
+                    val flipped = chunk ^ (1 << i);
+                    probe(table, flipped, search);
+                    if (probeRadius < 2) {
+                        continue;
+                    }
+                    for (var j = i + 1; j < CHUNK_BITS; j++) {
+                        probe(table, flipped ^ (1 << j), search);
+                    }
+                }
+            }
+            
+            if (search.entry < 0) {
+                misses.increment();
+                return Optional.empty();
+            }
+            hits.increment();
+            matchDistance.record(search.distance);
+            return Optional.of(digestKey(search.entry));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public void add(long hash, String key) {
+        if (!enabled) {
+            return;
+        }
+        
+        val digest = HexFormat.of().parseHex(key);
+        if (digest.length != DIGEST_LONGS * Long.BYTES) {
+            throw new IllegalArgumentException("Key must be a hex SHA-256 digest");
+        }
+        
+        lock.writeLock().lock();
+        try {
+            if (size == maxEntries) {
+                dropOldestHalf();
+            }
+            if (size == hashes.length) {
+                grow();
+            }
+            
+            val entry = size++;
+            hashes[entry] = hash;
+            ByteBuffer.wrap(digest).asLongBuffer().get(digests, entry * DIGEST_LONGS, DIGEST_LONGS);
+            
+            if (size - indexed >= Math.max(MIN_PENDING, size / 64)) {
+                rebuildTables();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Visits every entry from oldest to newest, so adding them back in that
+     * order rebuilds an equivalent index.
+     */
+    void forEach(ObjLongConsumer<String> visitor) {
+        lock.readLock().lock();
+        try {
+            for (var entry = 0; entry < size; entry++) {
+                visitor.accept(digestKey(entry), hashes[entry]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void probe(int table, int chunk, Search search) {
+        val bucketHashes = tableHashes[table];
+        val bucketEntries = tableEntries[table];
+        val end = offsets[table][chunk + 1];
+        for (var i = offsets[table][chunk]; i < end; i++) {
+            search.offer(bucketHashes[i], bucketEntries[i]);
+        }
+    }
+    
+    // Counting sort of every entry by chunk, one table at a time
+    private void rebuildTables() {
+        for (var table = 0; table < TABLES; table++) {
+            val start = offsets[table];
+            Arrays.fill(start, 0);
+            for (var entry = 0; entry < size; entry++) {
+                start[chunk(hashes[entry], table) + 1]++;
+            }
+            for (var bucket = 0; bucket < BUCKETS; bucket++) {
+                start[bucket + 1] += start[bucket];
+            }
+            
+            // Reuse the table arrays while they fit; they are sized to the entry capacity
+            if (tableHashes[table].length < size) {
+                tableHashes[table] = new long[hashes.length];
+                tableEntries[table] = new int[hashes.length];
+            }
+            val sortedHashes = tableHashes[table];
+            val sortedEntries = tableEntries[table];
+            val fill = Arrays.copyOf(start, BUCKETS);
+            for (var entry = 0; entry < size; entry++) {
+                val position = fill[chunk(hashes[entry], table)]++;
+                sortedHashes[position] = hashes[entry];
+                sortedEntries[position] = entry;
+            }
+        }
+        indexed = size;
+    }
+    
+    private void grow() {
+        val capacity = (int) Math.min(maxEntries, (long) hashes.length * 2);
+        hashes = Arrays.copyOf(hashes, capacity);
+        digests = Arrays.copyOf(digests, capacity * DIGEST_LONGS);
+    }
+    
+    private void dropOldestHalf() {
+        val dropped = size / 2;
+        size -= dropped;
+        System.arraycopy(hashes, dropped, hashes, 0, size);
+        System.arraycopy(digests, dropped * DIGEST_LONGS, digests, 0, size * DIGEST_LONGS);
+        rebuildTables();
+        log.info("Near-duplicate index full, dropped {} oldest entries", dropped);
+    }
+    
+    private String digestKey(int entry) {
+        val digest = ByteBuffer.allocate(DIGEST_LONGS * Long.BYTES);
+        digest.asLongBuffer().put(digests, entry * DIGEST_LONGS, DIGEST_LONGS);
+        return HexFormat.of().formatHex(digest.array());
+    }
+    
+    private static int chunk(long hash, int table) {
+        return (int) (hash >>> (table * CHUNK_BITS)) & (BUCKETS - 1);
+    }
+    
+    private static final class Search {
+        
+        private final long hash;
+        private int entry = -1;
+        private int distance;
+        
+        Search(long hash, int distance) {
+            this.hash = hash;
+            this.distance = distance;
+        }
+        
+        void offer(long candidate, int candidateEntry) {
+            val candidateDistance = Long.bitCount(candidate ^ hash);
+            if (candidateDistance < distance) {
+                entry = candidateEntry;
+                distance = candidateDistance;
+            }
+        }
+    }
+}
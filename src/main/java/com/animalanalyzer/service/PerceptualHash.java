@@ -0,0 +1,55 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 64-bit difference hash (dHash). The image is reduced to a 9x8 grid of
+ * average luminance and each bit records whether a cell is darker than its
+ * right-hand neighbour, which survives re-compression, rescaling and small
+ * colour shifts.
+ */
+final class PerceptualHash {
+    
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    // Sampled source rows per grid row; enough for a stable average
+    private static final int ROWS_PER_CELL = 8;
+    
+    private PerceptualHash() {
+    }
+    
+    static long dHash(BufferedImage image) {
+        val width = image.getWidth();
+        val height = image.getHeight();
+        val sums = new long[ROWS * COLUMNS];
+        val counts = new long[ROWS * COLUMNS];
+        val row = new int[width];
+        val rowStep = Math.max(1, height / (ROWS * ROWS_PER_CELL));
+        
+        for (var y = 0; y < height; y += rowStep) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            val cellRow = y * ROWS / height * COLUMNS;
+            for (var x = 0; x < width; x++) {
+                val pixel = row[x];
+                val luma = ((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587 + (pixel & 0xFF) * 114;
+                val cell = cellRow + x * COLUMNS / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+        
+        var hash = 0L;
+        for (var r = 0; r < ROWS; r++) {
+            for (var c = 0; c < COLUMNS - 1; c++) {
+                val left = r * COLUMNS + c;
+                val right = left + 1;
+                // Compare averages without dividing: left/countLeft < right/countRight
+                val brighter = sums[left] * counts[right] < sums[right] * counts[left];
+                hash = hash << 1 | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,151 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Core-count-sized pool for CPU-bound image work (decode, resize, encode), kept
+ * apart from the request threads that block on the upstream API. The queue is
+ * bounded; once it is full, new work is either rejected with a
+ * {@link ServiceBusyException} or, with {@code CALLER_RUNS}, run on the
+ * submitting thread.
+ */
+@Component
+@Slf4j
+public class PreprocessingExecutor {
+    
+    public enum RejectionPolicy {
+        REJECT,
+        CALLER_RUNS
+    }
+    
+    private final ThreadPoolExecutor executor;
+    private final RejectionPolicy rejectionPolicy;
+    private final long retryAfterSeconds;
+    private final Timer waitTimer;
+    private final Timer runTimer;
+    private final Counter rejected;
+    
+    public PreprocessingExecutor(MeterRegistry meterRegistry,
+                                 @Value("${image.preprocessing.threads:0}") int threads,
+                                 @Value("${image.preprocessing.queue-capacity:0}") int queueCapacity,
+                                 @Value("${image.preprocessing.rejection-policy:REJECT}") RejectionPolicy rejectionPolicy,
+                                 @Value("${image.preprocessing.retry-after-seconds:2}") long retryAfterSeconds) {
+        val poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        val capacity = queueCapacity > 0 ? queueCapacity : poolSize * 2;
+        val threadCount = new AtomicInteger();
+        
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity),
+            runnable -> {
+                val thread = new Thread(runnable, "image-preprocess-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.rejectionPolicy = rejectionPolicy;
+        this.retryAfterSeconds = retryAfterSeconds;
+        
+        Gauge.builder("image.preprocess.queue.depth", executor, pool -> pool.getQueue().size())
+            .description("Image preprocessing tasks waiting for a thread")
+            .register(meterRegistry);
+        Gauge.builder("image.preprocess.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Image preprocessing tasks currently running")
+            .register(meterRegistry);
+        this.waitTimer = Timer.builder("image.preprocess.wait")
+            .description("Time image preprocessing tasks spend queued")
+            .register(meterRegistry);
+        this.runTimer = Timer.builder("image.preprocess.duration")
+            .description("Time spent decoding, resizing and encoding an image")
+            .register(meterRegistry);
+        this.rejected = Counter.builder("image.preprocess.rejected")
+            .description("Image preprocessing tasks that found the queue full")
+            .register(meterRegistry);
+        
+        log.info("PreprocessingExecutor initialized - threads: {}, queue capacity: {}, rejection policy: {}",
+            poolSize, capacity, rejectionPolicy);
+    }
+    
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        val future = new CompletableFuture<T>();
+        val enqueued = System.nanoTime();
+        
+        try {
+            executor.execute(() -> {
+                waitTimer.record(System.nanoTime() - enqueued, TimeUnit.NANOSECONDS);
+                run(task, future);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            if (rejectionPolicy != RejectionPolicy.CALLER_RUNS || executor.isShutdown()) {
+                throw new ServiceBusyException("Image preprocessing queue is full", retryAfterSeconds);
+            }
+            log.debug("Preprocessing queue full, running on caller thread");
+            run(task, future);
+        }
+        return future;
+    }
+    
+    /**
+     * Waits for a task from {@link #submit(Callable)} and rethrows the task's own
+     * exception rather than the {@link ExecutionException} wrapping it.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * The exception a future failed with, without the {@link CompletionException}
+     * or {@link ExecutionException} that dependent stages wrap it in.
+     */
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+    
+    private <T> void run(Callable<T> task, CompletableFuture<T> future) {
+        val started = System.nanoTime();
+        T result;
+        try {
+            result = task.call();
+        } catch (Throwable e) {
+            runTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            future.completeExceptionally(e);
+            return;
+        }
+        // Record before completing: dependent stages run inline and are not preprocessing
+        runTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        future.complete(result);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
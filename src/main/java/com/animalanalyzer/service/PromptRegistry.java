@@ -0,0 +1,202 @@
+package com.animalanalyzer.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The analysis prompt, loaded once and shared by the AI services. The template
+ * comes from {@code prompt.dir} when that directory holds one, otherwise from
+ * the classpath, and only if neither is readable from a built-in default.
+ * <p>
+ * Each load is an immutable {@link Prompt} whose version is a digest of its
+ * text, so results and cache keys can name the exact prompt they came from.
+ * When {@code prompt.dir} is set, a watcher reloads the template as it changes
+ * and swaps it in atomically: a request keeps the prompt it started with, the
+ * next one gets the new version, and an empty or unreadable file leaves the
+ * current prompt in place.
+ */
+@Component
+@Slf4j
+public class PromptRegistry {
+    
+    static final String TEMPLATE = "claude-prompt-template.txt";
+    // Editors save in several writes; wait for them to settle before reading
+    private static final long SETTLE_MILLIS = 200;
+    
+    /**
+     * One loaded template. {@code version} is the first 12 hex digits of the
+     * SHA-256 of the text.
+     */
+    public record Prompt(String version, String text, String source) {
+    }
+    
+    private final Path file;
+    private final AtomicReference<Prompt> current;
+    private final WatchService watcher;
+    
+    public PromptRegistry(@Value("${prompt.dir:}") String directory,
+                          @Value("${prompt.reload.enabled:true}") boolean reload) {
+        this.file = directory.isBlank() ? null : Path.of(directory).resolve(TEMPLATE);
+        this.current = new AtomicReference<>(initialPrompt());
+        this.watcher = reload && file != null ? watch(file.getParent()) : null;
+        
+        log.info("PromptRegistry initialized - prompt version: {}, source: {}, hot reload: {}",
+            current.get().version(), current.get().source(), watcher != null ? file.getParent() : "off");
+    }
+    
+    public Prompt current() {
+        return current.get();
+    }
+    
+    /**
+     * Loads the template again and swaps it in if its text changed.
+     *
+     * @return true if a new version is now current
+     */
+    boolean reload() {
+        final Prompt loaded;
+        try {
+            loaded = load();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not reload prompt template, keeping version {}: {}", current.get().version(), e.getMessage());
+            return false;
+        }
+        
+        val previous = current.getAndUpdate(prompt -> prompt.version().equals(loaded.version()) ? prompt : loaded);
+        if (previous.version().equals(loaded.version())) {
+            return false;
+        }
+        log.info("Prompt template reloaded from {} - version {} -> {}", loaded.source(), previous.version(), loaded.version());
+        return true;
+    }
+    
+    private Prompt initialPrompt() {
+        try {
+            return load();
+        } catch (IOException | RuntimeException e) {
+            log.error("Error loading prompt template, using the built-in prompt", e);
+            return prompt(defaultPrompt(), "default");
+        }
+    }
+    
+    private Prompt load() throws IOException {
+        if (file != null && Files.exists(file)) {
+            return prompt(requireText(Files.readString(file), file), file.toString());
+        }
+        
+        // A stream rather than a file path, which a resource inside the jar does not have
+        try (InputStream in = PromptRegistry.class.getClassLoader().getResourceAsStream(TEMPLATE)) {
+            if (in != null) {
+                return prompt(requireText(new String(in.readAllBytes(), StandardCharsets.UTF_8), TEMPLATE), "classpath:" + TEMPLATE);
+            }
+        }
+        log.warn("No prompt template found, using the built-in prompt");
+        return prompt(defaultPrompt(), "default");
+    }
+    
+    private static Prompt prompt(String text, String source) {
+        return new Prompt(version(text), text, source);
+    }
+    
+    // A half-written or truncated file must not replace a working prompt
+    private static String requireText(String text, Object source) throws IOException {
+        if (text.isBlank()) {
+            throw new IOException("Prompt template " + source + " is empty");
+        }
+        return text;
+    }
+    
+    private static String version(String text) {
+        try {
+            val digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest).substring(0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private WatchService watch(Path directory) {
+        try {
+            val service = directory.getFileSystem().newWatchService();
+            // Any entry, not just the template: mounted config maps swap a symlinked directory instead
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            
+            val thread = new Thread(() -> watchLoop(service), "prompt-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            return service;
+        } catch (IOException e) {
+            log.warn("Could not watch {} for prompt changes, hot reload is off: {}", directory, e.getMessage());
+            return null;
+        }
+    }
+    
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                var key = service.take();
+                do {
+                    key.pollEvents();
+                    key.reset();
+                } while ((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                reload();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Shutting down
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @PreDestroy
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+    
+    private static String defaultPrompt() {
+        return """
+            Analyze this person's photo and match them to one of these animal characters based on their facial features, expression, and perceived personality:
+            
+            Characters:
+            1. Wise Owl - analytical, observant, knowledge-seeking, thoughtful
+            2. Playful Otter - social, energetic, fun-loving, creative
+            3. Noble Lion - confident, leadership, protective, courageous
+            4. Curious Fox - clever, adaptable, mischievous, quick-witted
+            5. Gentle Deer - empathetic, graceful, intuitive, peaceful
+            6. Mighty Dragon - ambitious, powerful, mysterious, passionate
+            7. Loyal Wolf - devoted, strategic, team-oriented, protective
+            8. Free Spirit Eagle - independent, visionary, bold, freedom-loving
+            9. Creative Peacock - artistic, expressive, unique, vibrant
+            10. Steady Turtle - patient, wise, persistent, calm
+            
+            Return ONLY a valid JSON response with this exact structure (ensure all strings are properly escaped):
+            {
+              "suggestedCharacter": "Character name from the list above",
+              "confidence": 0.0-1.0,
+              "traits": ["trait1", "trait2", "trait3", "trait4"],
+              "reasoning": "Your reasoning here as a single line without newlines",
+              "personalizedStory": "Your story here as a single line without newlines"
+            }
+            """;
+    }
+}
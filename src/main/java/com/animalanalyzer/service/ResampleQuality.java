@@ -0,0 +1,53 @@
+package com.animalanalyzer.service;
+
+/**
+ * Reconstruction filters supported by {@link ImageResampler}. The support is the
+ * filter radius in source pixels before it is widened for downscaling.
+ */
+public enum ResampleQuality {
+    
+    BILINEAR(1.0) {
+        @Override
+        double weight(double x) {
+            x = Math.abs(x);
+            return x < 1.0 ? 1.0 - x : 0.0;
+        }
+    },
+    
+    AREA_AVERAGE(0.5) {
+        @Override
+        double weight(double x) {
+            return x > -0.5 && x <= 0.5 ? 1.0 : 0.0;
+        }
+    },
+    
+    LANCZOS(3.0) {
+        @Override
+        double weight(double x) {
+            if (x == 0.0) {
+                return 1.0;
+            }
+            if (x <= -3.0 || x >= 3.0) {
+                return 0.0;
+            }
+            return sinc(x) * sinc(x / 3.0);
+        }
+    };
+    
+    private final double support;
+    
+    ResampleQuality(double support) {
+        this.support = support;
+    }
+    
+    double support() {
+        return support;
+    }
+    
+    abstract double weight(double x);
+    
+    private static double sinc(double x) {
+        x *= Math.PI;
+        return Math.sin(x) / x;
+    }
+}
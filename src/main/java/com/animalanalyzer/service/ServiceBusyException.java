@@ -0,0 +1,19 @@
+package com.animalanalyzer.service;
+
+/**
+ * Thrown when a bounded stage cannot accept more work. Callers should answer
+ * with 503 and ask the client to retry after {@link #getRetryAfterSeconds()}.
+ */
+public class ServiceBusyException extends RuntimeException {
+    
+    private final long retryAfterSeconds;
+    
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,142 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls that share a key. The first caller runs the call
+ * on its own thread; callers arriving while it is in flight wait on a copy of
+ * the shared future and receive the same result or exception.
+ * <p>
+ * A waiter that gives up only abandons its copy, never the shared call. If the
+ * leading caller is itself interrupted, its failure is not handed to the
+ * waiters: they start over and one of them takes the lead.
+ */
+@Component
+@Slf4j
+public class SingleFlight {
+    
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter followers;
+    
+    public SingleFlight(MeterRegistry meterRegistry) {
+        this.leaders = Counter.builder("analysis.inflight.requests")
+            .tag("role", "leader")
+            .description("Calls that started a new in-flight analysis or joined an existing one")
+            .register(meterRegistry);
+        this.followers = Counter.builder("analysis.inflight.requests")
+            .tag("role", "follower")
+            .description("Calls that started a new in-flight analysis or joined an existing one")
+            .register(meterRegistry);
+        Gauge.builder("analysis.inflight.calls", inFlight, Map::size)
+            .description("Distinct analyses currently in flight")
+            .register(meterRegistry);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String key, Callable<V> call) throws Exception {
+        while (true) {
+            val flight = new CompletableFuture<Object>();
+            val existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                leaders.increment();
+                return (V) lead(key, flight, call);
+            }
+            
+            followers.increment();
+            log.debug("Joining in-flight call for {}", key);
+            try {
+                return (V) PreprocessingExecutor.await(existing.copy());
+            } catch (LeaderAbandonedException e) {
+                log.debug("Leader for {} was interrupted, retrying", key);
+            }
+        }
+    }
+    
+    /**
+     * Like {@link #execute}, for calls that complete a future instead of
+     * blocking. Every caller, the one that started the call included, gets its
+     * own copy of the shared future, so cancelling one never cancels the call.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> CompletableFuture<V> executeAsync(String key, Supplier<CompletableFuture<V>> call) {
+        val flight = new CompletableFuture<Object>();
+        val existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            followers.increment();
+            log.debug("Joining in-flight call for {}", key);
+            // A blocking leader that was interrupted hands over to the next caller, as in execute
+            return (CompletableFuture<V>) existing.copy().exceptionallyCompose(e -> {
+                if (PreprocessingExecutor.unwrap(e) instanceof LeaderAbandonedException) {
+                    log.debug("Leader for {} was interrupted, retrying", key);
+                    return (CompletableFuture<Object>) executeAsync(key, call);
+                }
+                return CompletableFuture.failedFuture(e);
+            });
+        }
+        
+        leaders.increment();
+        CompletableFuture<V> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        pending.whenComplete((result, error) -> {
+            inFlight.remove(key, flight);
+            if (error != null) {
+                flight.completeExceptionally(PreprocessingExecutor.unwrap(error));
+            } else {
+                flight.complete(result);
+            }
+        });
+        return (CompletableFuture<V>) (CompletableFuture<?>) flight.copy();
+    }
+    
+    int inFlightCount() {
+        return inFlight.size();
+    }
+    
+    private Object lead(String key, CompletableFuture<Object> flight, Callable<?> call) throws Exception {
+        Throwable failure = new LeaderAbandonedException();
+        try {
+            val result = call.call();
+            // Unregister before completing, so late arrivals start afresh instead of joining a finished call
+            inFlight.remove(key, flight);
+            flight.complete(result);
+            return result;
+        } catch (Exception e) {
+            if (!(e instanceof InterruptedException) && !Thread.currentThread().isInterrupted()) {
+                failure = e;
+            }
+            throw e;
+        } finally {
+            if (!flight.isDone()) {
+                inFlight.remove(key, flight);
+                flight.completeExceptionally(failure);
+            }
+        }
+    }
+    
+    /**
+     * Signals waiters that the leading caller was interrupted rather than the
+     * call itself failing.
+     */
+    private static final class LeaderAbandonedException extends Exception {
+        
+        LeaderAbandonedException() {
+            super("In-flight call was abandoned by its caller", null, false, false);
+        }
+    }
+}
@@ -1,21 +1,35 @@
 package com.animalanalyzer.service;
 
 import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.ChannelOption;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.ai.anthropic.AnthropicChatModel;
 import org.springframework.ai.anthropic.api.AnthropicApi;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Hybrid Spring AI service that uses Spring AI components
@@ -26,10 +40,19 @@ import java.util.Map;
 @Slf4j
 public class SpringAIHybridService implements AIService {
     
+    // Event data is left as text for MessagesStreamEvent to read
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> STREAM_EVENT =
+            new ParameterizedTypeReference<>() {
+            };
+    
     private final AnthropicChatModel chatModel;
     private final AnthropicApi anthropicApi;
     private final ObjectMapper objectMapper;
+    private final ImageTokenBudget tokenBudget;
     private final RestClient restClient;
+    private final WebClient webClient;
+    private final PromptRegistry promptRegistry;
+    private final UpstreamUsageMetrics usageMetrics;
     
     @Value("${claude.api.use-real-api:false}")
     private boolean useRealApi;
@@ -45,10 +68,16 @@ public class SpringAIHybridService implements AIService {
     
     public SpringAIHybridService(AnthropicChatModel chatModel,
                                 AnthropicApi anthropicApi,
-                                ObjectMapper objectMapper) {
+                                ObjectMapper objectMapper,
+                                ImageTokenBudget tokenBudget,
+                                PromptRegistry promptRegistry,
+                                UpstreamUsageMetrics usageMetrics) {
         this.chatModel = chatModel;
         this.anthropicApi = anthropicApi;
         this.objectMapper = objectMapper;
+        this.tokenBudget = tokenBudget;
+        this.promptRegistry = promptRegistry;
+        this.usageMetrics = usageMetrics;
         
         // Create RestClient using Spring AI's configuration
         this.restClient = RestClient.builder()
@@ -57,11 +86,21 @@ public class SpringAIHybridService implements AIService {
                 .defaultHeader("content-type", "application/json")
                 .build();
         
+        // Same endpoint for the non-blocking path; responses complete on the Netty event loop
+        this.webClient = WebClient.builder()
+                .baseUrl("https://api.anthropic.com")
+                .defaultHeader("anthropic-version", "2023-06-01")
+                .defaultHeader("content-type", "application/json")
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create()
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000)
+                        .responseTimeout(Duration.ofSeconds(120))))
+                .build();
+        
         log.info("SpringAIHybridService initialized - Spring AI with image support");
     }
     
     @Override
-    public AIAnalysisResult analyzeImage(String imageBase64) throws Exception {
+    public AIAnalysisResult analyzeImage(ProcessedImage image) throws Exception {
         if (!useRealApi || apiKey == null || apiKey.isEmpty()) {
             log.warn("Claude API disabled or no API key. Set CLAUDE_USE_REAL_API=true and provide API key");
             return createDemoResponse();
@@ -70,88 +109,202 @@ public class SpringAIHybridService implements AIService {
         log.info("Analyzing image with Spring AI Hybrid approach");
         
         try {
-            val promptText = loadPromptTemplate();
-            
-            // Clean base64 data
-            val cleanedBase64 = imageBase64.replaceFirst("^data:image/[^;]+;base64,", "");
-            
-            // Build request body that Anthropic expects
-            val requestBody = Map.of(
-                "model", model,
-                "max_tokens", maxTokens,
-                "messages", List.of(
-                    Map.of(
-                        "role", "user",
-                        "content", List.of(
-                            Map.of(
-                                "type", "image",
-                                "source", Map.of(
-                                    "type", "base64",
-                                    "media_type", "image/jpeg",
-                                    "data", cleanedBase64
-                                )
-                            ),
-                            Map.of(
-                                "type", "text",
-                                "text", promptText
-                            )
-                        )
-                    )
-                )
-            );
+            log.debug("Sending {} image request to Anthropic API ({} bytes)", image.getMediaType(), image.getLength());
             
-            log.debug("Sending image request to Anthropic API");
-            
-            // Use RestClient to send the request with proper headers
+            // Use RestClient to send the request with proper headers; the body is
+            // written straight to the connection with the image base64-encoded on the fly
+            val prompt = promptRegistry.current();
+            val request = MessagesRequestWriter.template(model, maxTokens, prompt, false);
+            val startTime = System.currentTimeMillis();
             val response = restClient.post()
                     .uri("/v1/messages")
                     .header("x-api-key", apiKey)
-                    .body(requestBody)
+                    .contentLength(request.contentLength(image))
+                    .body(out -> request.write(out, image))
                     .retrieve()
-                    .toEntity(Map.class);
-            
-            log.info("Received response from Anthropic");
-            
-            // Extract content from response
-            val responseBody = response.getBody();
-            val content = (List<Map<String, Object>>) responseBody.get("content");
-            val textContent = (String) content.get(0).get("text");
-            
-            log.debug("Extracted response content");
+                    .body(byte[].class);
             
-            // Parse JSON from response
-            val jsonResponse = extractJsonFromResponse(textContent);
-            val result = objectMapper.readValue(jsonResponse, AIAnalysisResult.class);
+            val duration = System.currentTimeMillis() - startTime;
+            log.info("Received response from Anthropic in {} ms", duration);
+            tokenBudget.recordUpstreamLatency(duration);
             
-            return AIAnalysisResult.builder()
-                    .suggestedCharacter(result.getSuggestedCharacter())
-                    .confidence(validateConfidence(result.getConfidence()))
-                    .traits(result.getTraits() != null ? result.getTraits() : List.of())
-                    .reasoning(result.getReasoning())
-                    .personalizedStory(result.getPersonalizedStory())
-                    .build();
+            return toResult(MessagesResponse.parse(response), prompt);
                     
         } catch (Exception e) {
+            if (e instanceof HttpClientErrorException.TooManyRequests) {
+                tokenBudget.recordRateLimited();
+            }
             log.error("Error analyzing image: {}", e.getMessage(), e);
             return createDemoResponse();
         }
     }
     
-    private double validateConfidence(Double confidence) {
-        if (confidence == null) return 0.75;
-        return Math.max(0.0, Math.min(1.0, confidence));
+    @Override
+    public CompletableFuture<AIAnalysisResult> analyzeImageAsync(ProcessedImage image) {
+        if (!useRealApi || apiKey == null || apiKey.isEmpty()) {
+            log.warn("Claude API disabled or no API key. Set CLAUDE_USE_REAL_API=true and provide API key");
+            return CompletableFuture.completedFuture(createDemoResponse());
+        }
+        
+        log.info("Analyzing image with Spring AI Hybrid approach (non-blocking)");
+        
+        log.debug("Sending {} image request to Anthropic API ({} bytes)", image.getMediaType(), image.getLength());
+        
+        val prompt = promptRegistry.current();
+        val startTime = System.currentTimeMillis();
+        return webClient.post()
+                .uri("/v1/messages")
+                .header("x-api-key", apiKey)
+                .body(MessagesRequestWriter.template(model, maxTokens, prompt, false).bodyInserter(image))
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .flatMap(responseBody -> {
+                    val duration = System.currentTimeMillis() - startTime;
+                    log.info("Received response from Anthropic in {} ms", duration);
+                    tokenBudget.recordUpstreamLatency(duration);
+                    return Mono.fromCallable(() -> toResult(MessagesResponse.parse(responseBody), prompt));
+                })
+                .onErrorResume(e -> {
+                    if (e instanceof WebClientResponseException.TooManyRequests) {
+                        tokenBudget.recordRateLimited();
+                    }
+                    log.error("Error analyzing image: {}", e.getMessage(), e);
+                    return Mono.just(createDemoResponse());
+                })
+                .toFuture();
+    }
+    
+    /**
+     * Asks for the answer as server-sent events and feeds the text deltas to a
+     * {@link StreamingJsonFieldExtractor}, so each field reaches the listener
+     * as soon as the model has written it instead of after the whole answer.
+     * The result is built from those fields; the answer text is never held
+     * in full.
+     * <p>
+     * A failure before any field was sent falls back to the demo answer like
+     * the other paths. Once the client has seen real fields, mixing in demo
+     * ones would contradict them, so the failure is passed on instead.
+     */
+    @Override
+    public CompletableFuture<AIAnalysisResult> analyzeImageStreaming(ProcessedImage image, AnalysisListener listener) {
+        if (!useRealApi || apiKey == null || apiKey.isEmpty()) {
+            log.warn("Claude API disabled or no API key. Set CLAUDE_USE_REAL_API=true and provide API key");
+            return AIService.super.analyzeImageStreaming(image, listener);
+        }
+        
+        log.info("Analyzing image with Spring AI Hybrid approach (streaming)");
+        
+        val prompt = promptRegistry.current();
+        val fields = new HashMap<String, Object>();
+        val usage = new AtomicReference<>(MessagesResponse.Usage.NONE);
+        val extractor = new StreamingJsonFieldExtractor((name, value) -> {
+            fields.put(name, value);
+            listener.onField(name, value);
+        });
+        val startTime = System.currentTimeMillis();
+        return webClient.post()
+                .uri("/v1/messages")
+                .header("x-api-key", apiKey)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .body(MessagesRequestWriter.template(model, maxTokens, prompt, true).bodyInserter(image))
+                .retrieve()
+                .bodyToFlux(STREAM_EVENT)
+                .filter(event -> event.data() != null)
+                .concatMap(event -> Mono.fromCallable(() -> MessagesStreamEvent.parse(event.data())))
+                .doOnNext(event -> {
+                    if (event.usage() != null) {
+                        // message_start carries the input counts, message_delta the running output count
+                        usage.set(usage.get().merge(event.usage()));
+                    }
+                    switch (String.valueOf(event.type())) {
+                        case "message_start" -> {
+                            log.info("Anthropic accepted the request after {} ms", System.currentTimeMillis() - startTime);
+                            listener.onAccepted();
+                        }
+                        case "content_block_delta" -> {
+                            if (event.text() != null) {
+                                extractor.accept(event.text());
+                            }
+                        }
+                        case "error" -> throw new IllegalStateException("Anthropic stream error: " + event.error());
+                        default -> {
+                            // ping, content_block_start/stop, message_delta, message_stop
+                        }
+                    }
+                })
+                .then(Mono.fromCallable(() -> {
+                    val duration = System.currentTimeMillis() - startTime;
+                    log.info("Received streamed response from Anthropic in {} ms", duration);
+                    tokenBudget.recordUpstreamLatency(duration);
+                    usageMetrics.record(usage.get());
+                    if (!extractor.isComplete()) {
+                        throw new IllegalStateException("Streamed answer did not hold a complete JSON object");
+                    }
+                    return fromFields(fields, prompt);
+                }))
+                .onErrorResume(e -> {
+                    if (e instanceof WebClientResponseException.TooManyRequests) {
+                        tokenBudget.recordRateLimited();
+                    }
+                    log.error("Error analyzing image: {}", e.getMessage(), e);
+                    if (!fields.isEmpty()) {
+                        return Mono.error(e);
+                    }
+                    val demo = createDemoResponse();
+                    AnalysisListener.replay(demo, listener);
+                    return Mono.just(demo);
+                })
+                .toFuture();
     }
     
-    private String extractJsonFromResponse(String response) {
-        val start = response.indexOf("{");
-        val end = response.lastIndexOf("}");
+    private AIAnalysisResult toResult(MessagesResponse response, PromptRegistry.Prompt prompt) throws Exception {
+        usageMetrics.record(response.usage());
+        if ("max_tokens".equals(response.stopReason())) {
+            log.warn("Anthropic stopped at the {} token limit; the answer may be cut short", maxTokens);
+        }
         
-        if (start != -1 && end != -1 && end > start) {
-            return response.substring(start, end + 1).trim();
+        // Parse JSON from response
+        val json = new AnswerJsonReader(response.text());
+        if (!json.hasObject()) {
+            log.warn("No JSON found in response, using default");
         }
+        val result = objectMapper.readValue(json.hasObject() ? json : new StringReader(createDefaultJsonResponse()),
+                AIAnalysisResult.class);
         
-        log.warn("No JSON found in response, using default");
-        return createDefaultJsonResponse();
+        // The default answer is not the model's, so it must not be cached as if it were
+        return AIAnalysisResult.builder()
+                .suggestedCharacter(result.getSuggestedCharacter())
+                .confidence(validateConfidence(result.getConfidence()))
+                .traits(result.getTraits() != null ? result.getTraits() : List.of())
+                .reasoning(result.getReasoning())
+                .personalizedStory(result.getPersonalizedStory())
+                .promptVersion(prompt.version())
+                .fallback(!json.hasObject())
+                .build();
+    }
+    
+    private AIAnalysisResult fromFields(Map<String, Object> fields, PromptRegistry.Prompt prompt) {
+        val confidence = fields.get("confidence") instanceof Number number ? number.doubleValue() : null;
+        val traits = fields.get("traits") instanceof List<?> list
+                ? list.stream().map(String::valueOf).toList()
+                : List.<String>of();
+        return AIAnalysisResult.builder()
+                .suggestedCharacter(text(fields, "suggestedCharacter"))
+                .confidence(validateConfidence(confidence))
+                .traits(traits)
+                .reasoning(text(fields, "reasoning"))
+                .personalizedStory(text(fields, "personalizedStory"))
+                .promptVersion(prompt.version())
+                .build();
+    }
+    
+    private static String text(Map<String, Object> fields, String name) {
+        return fields.get(name) instanceof String value ? value : null;
+    }
+    
+    private double validateConfidence(Double confidence) {
+        if (confidence == null) return 0.75;
+        return Math.max(0.0, Math.min(1.0, confidence));
     }
     
     private String createDefaultJsonResponse() {
@@ -174,43 +327,7 @@ public class SpringAIHybridService implements AIService {
                 .traits(List.of("analytical", "observant", "thoughtful", "knowledgeable"))
                 .reasoning("Demo: Based on analytical expression, the Wise Owl represents your thoughtful nature.")
                 .personalizedStory("Demo: Like the wise owl who sees in the darkness, you possess deep insight and understanding.")
+                .fallback(true)
                 .build();
     }
-    
-    private String loadPromptTemplate() {
-        try {
-            return new String(Files.readAllBytes(
-                Paths.get(getClass().getClassLoader().getResource("claude-prompt-template.txt").toURI())
-            ));
-        } catch (Exception e) {
-            log.error("Error loading prompt template", e);
-            return getDefaultPrompt();
-        }
-    }
-    
-    private String getDefaultPrompt() {
-        return """
-            Analyze the person in this image and match them to an animal character:
-            
-            Wise Owl - analytical, observant, thoughtful
-            Playful Otter - social, energetic, creative
-            Noble Lion - confident, leadership, courageous
-            Curious Fox - clever, adaptable, quick-witted
-            Gentle Deer - empathetic, graceful, peaceful
-            Mighty Dragon - ambitious, powerful, passionate
-            Loyal Wolf - devoted, strategic, protective
-            Free Eagle - independent, visionary, bold
-            Creative Peacock - artistic, expressive, vibrant
-            Steady Turtle - patient, wise, calm
-            
-            Return JSON only:
-            {
-              "suggestedCharacter": "Animal Name",
-              "confidence": 0.75,
-              "traits": ["trait1", "trait2", "trait3", "trait4"],
-              "reasoning": "Based on their expression and features",
-              "personalizedStory": "A personalized story about their character"
-            }
-            """;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,329 @@
+package com.animalanalyzer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Picks the top-level fields out of a JSON object whose text arrives in
+ * pieces, as it does from a streamed model response, and reports each field
+ * as soon as its value is closed. Nothing before the opening brace is read,
+ * so preamble prose and a markdown fence are skipped, and a literal
+ * {@code \n} between tokens counts as whitespace.
+ * <p>
+ * Only scalars and arrays of scalars are reported; nested objects are
+ * skipped. The text is never buffered: only the value being read is kept,
+ * up to {@link #MAX_VALUE_CHARS}. Extraction stops at the end of the object,
+ * at the first malformed token after a field was reported, or at a value
+ * that is too long.
+ */
+@Slf4j
+final class StreamingJsonFieldExtractor {
+    
+    static final int MAX_VALUE_CHARS = 16 * 1024;
+    static final int MAX_ARRAY_ITEMS = 64;
+    
+    private enum State {
+        PREAMBLE, BEFORE_NAME, NAME, AFTER_NAME, BEFORE_VALUE, VALUE, LITERAL,
+        BEFORE_ITEM, ITEM, ITEM_LITERAL, AFTER_ITEM, NESTED, NESTED_STRING, AFTER_VALUE, DONE
+    }
+    
+    private final BiConsumer<String, Object> onField;
+    private final StringBuilder token = new StringBuilder();
+    private State state = State.PREAMBLE;
+    private boolean complete;
+    private boolean reported;
+    private boolean strayBackslash;
+    private boolean escape;
+    private int unicodeDigits = -1;
+    private int unicode;
+    private int depth;
+    private String field;
+    private List<Object> items;
+    
+    StreamingJsonFieldExtractor(BiConsumer<String, Object> onField) {
+        this.onField = onField;
+    }
+    
+    /**
+     * Feeds the next piece of text and reports the fields it closes.
+     */
+    void accept(CharSequence text) {
+        for (var i = 0; i < text.length() && state != State.DONE; i++) {
+            if (!next(text.charAt(i))) {
+                fail(text.charAt(i));
+            }
+        }
+    }
+    
+    /**
+     * Whether the closing brace of the object has been read.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+    
+    private boolean next(char c) {
+        switch (state) {
+            case DONE -> {
+                return true;
+            }
+            case PREAMBLE -> {
+                if (c == '{') {
+                    state = State.BEFORE_NAME;
+                }
+                return true;
+            }
+            case NAME, VALUE, ITEM -> {
+                return string(c);
+            }
+            case NESTED_STRING -> {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    state = State.NESTED;
+                }
+                return true;
+            }
+            case LITERAL, ITEM_LITERAL -> {
+                if (isLiteralChar(c)) {
+                    return append(c);
+                }
+                if (!literal()) {
+                    return false;
+                }
+                return next(c);
+            }
+            case NESTED -> {
+                if (c == '"') {
+                    state = State.NESTED_STRING;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    state = State.AFTER_VALUE;
+                }
+                return true;
+            }
+            default -> {
+                return blank(c) || structural(c);
+            }
+        }
+    }
+    
+    // Whitespace between tokens, including a literal backslash-n the model wrote instead of a newline
+    private boolean blank(char c) {
+        if (strayBackslash) {
+            strayBackslash = false;
+            return c == 'n' || c == 'r' || c == 't';
+        }
+        if (c == '\\') {
+            strayBackslash = true;
+            return true;
+        }
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+    
+    private boolean structural(char c) {
+        switch (state) {
+            case BEFORE_NAME -> {
+                if (c == '"') {
+                    state = State.NAME;
+                    return true;
+                }
+                return c == '}' && close();
+            }
+            case AFTER_NAME -> {
+                if (c == ':') {
+                    state = State.BEFORE_VALUE;
+                    return true;
+                }
+                return false;
+            }
+            case BEFORE_VALUE -> {
+                return value(c, State.VALUE, State.LITERAL);
+            }
+            case BEFORE_ITEM -> {
+                if (c == ']') {
+                    return report(items);
+                }
+                return value(c, State.ITEM, State.ITEM_LITERAL);
+            }
+            case AFTER_ITEM -> {
+                if (c == ',') {
+                    state = State.BEFORE_ITEM;
+                    return true;
+                }
+                return c == ']' && report(items);
+            }
+            case AFTER_VALUE -> {
+                if (c == ',') {
+                    state = State.BEFORE_NAME;
+                    return true;
+                }
+                return c == '}' && close();
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+    
+    private boolean value(char c, State string, State literal) {
+        if (c == '"') {
+            state = string;
+            return true;
+        }
+        if (isLiteralChar(c)) {
+            state = literal;
+            return append(c);
+        }
+        if (c == '[' && state == State.BEFORE_VALUE) {
+            items = new ArrayList<>();
+            state = State.BEFORE_ITEM;
+            return true;
+        }
+        if (c == '{' || c == '[') {
+            // Not reported; the rest of the object is still read
+            depth = state == State.BEFORE_ITEM ? 2 : 1;
+            items = null;
+            state = State.NESTED;
+            return true;
+        }
+        return false;
+    }
+    
+    private boolean string(char c) {
+        if (unicodeDigits >= 0) {
+            val digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return false;
+            }
+            unicode = unicode * 16 + digit;
+            if (++unicodeDigits == 4) {
+                unicodeDigits = -1;
+                return append((char) unicode);
+            }
+            return true;
+        }
+        if (escape) {
+            escape = false;
+            return switch (c) {
+                case '"', '\\', '/' -> append(c);
+                case 'n' -> append('\n');
+                case 't' -> append('\t');
+                case 'r' -> append('\r');
+                case 'b' -> append('\b');
+                case 'f' -> append('\f');
+                case 'u' -> {
+                    unicodeDigits = 0;
+                    unicode = 0;
+                    yield true;
+                }
+                default -> false;
+            };
+        }
+        if (c == '\\') {
+            escape = true;
+            return true;
+        }
+        if (c != '"') {
+            return append(c);
+        }
+        
+        switch (state) {
+            case NAME -> {
+                field = take();
+                state = State.AFTER_NAME;
+            }
+            case VALUE -> report(take());
+            default -> item(take());
+        }
+        return true;
+    }
+    
+    private boolean literal() {
+        val text = take();
+        Object value;
+        switch (text) {
+            case "true" -> value = true;
+            case "false" -> value = false;
+            case "null" -> value = null;
+            default -> {
+                try {
+                    value = text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0
+                        ? (Object) Long.valueOf(text)
+                        : (Object) Double.valueOf(text);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return state == State.LITERAL ? report(value) : item(value);
+    }
+    
+    private boolean item(Object value) {
+        if (items.size() == MAX_ARRAY_ITEMS) {
+            log.debug("Stopped extracting streamed fields: {} has more than {} items", field, MAX_ARRAY_ITEMS);
+            state = State.DONE;
+            return true;
+        }
+        items.add(value);
+        state = State.AFTER_ITEM;
+        return true;
+    }
+    
+    private boolean report(Object value) {
+        onField.accept(field, value);
+        reported = true;
+        items = null;
+        state = State.AFTER_VALUE;
+        return true;
+    }
+    
+    private boolean close() {
+        complete = true;
+        state = State.DONE;
+        return true;
+    }
+    
+    private boolean append(char c) {
+        if (token.length() == MAX_VALUE_CHARS) {
+            log.debug("Stopped extracting streamed fields: a value is longer than {} characters", MAX_VALUE_CHARS);
+            state = State.DONE;
+            return true;
+        }
+        token.append(c);
+        return true;
+    }
+    
+    private String take() {
+        val text = token.toString();
+        token.setLength(0);
+        return text;
+    }
+    
+    private void fail(char c) {
+        if (reported) {
+            log.debug("Stopped extracting streamed fields at '{}' while reading {}", c, state);
+            state = State.DONE;
+            return;
+        }
+        // A brace in the preamble prose; look for the object further on
+        token.setLength(0);
+        strayBackslash = false;
+        escape = false;
+        unicodeDigits = -1;
+        items = null;
+        state = State.PREAMBLE;
+        next(c);
+    }
+    
+    private static boolean isLiteralChar(char c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+}
@@ -0,0 +1,20 @@
+package com.animalanalyzer.service;
+
+/**
+ * Thrown when an upload chunk does not continue from the bytes already
+ * stored. Callers should answer with 409 and tell the client to resume from
+ * {@link #getOffset()}.
+ */
+public class UploadOffsetMismatchException extends RuntimeException {
+    
+    private final long offset;
+    
+    public UploadOffsetMismatchException(String message, long offset) {
+        super(message);
+        this.offset = offset;
+    }
+    
+    public long getOffset() {
+        return offset;
+    }
+}
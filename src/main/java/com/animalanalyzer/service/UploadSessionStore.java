@@ -0,0 +1,400 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.ProcessedImage;
+import com.animalanalyzer.model.UploadStatus;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resumable uploads sent as a series of ranged chunks. Chunks are written
+ * straight to a temporary file, so a slow or interrupted upload holds no heap,
+ * and the bytes written so far count even if the connection drops mid-chunk.
+ * <p>
+ * The header is probed while chunks arrive, so an upload that is not a
+ * supported image or exceeds the limits is rejected without waiting for the
+ * rest. When the last byte lands, preprocessing starts right away; it reads
+ * the file back and deletes it, so completing the upload only waits for what
+ * is left of it before the upstream call.
+ * <p>
+ * Sessions expire after a period without chunks. The store is bounded by
+ * session count: once full, new uploads are refused with
+ * {@link ServiceBusyException} rather than evicting one that is still being
+ * written. Removing a session for any reason deletes its file.
+ */
+@Component
+@Slf4j
+public class UploadSessionStore {
+    
+    private static final String FILE_PREFIX = "upload-";
+    private static final String FILE_SUFFIX = ".part";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // Headers further in than this are left to the full probe at preprocessing
+    private static final int MAX_PROBE_BYTES = 256 * 1024;
+    
+    private final ImageService imageService;
+    private final ImageProbe imageProbe;
+    private final PreprocessingExecutor preprocessingExecutor;
+    private final Path directory;
+    private final long maxSessions;
+    private final long retryAfterSeconds;
+    private final Cache<String, Session> sessions;
+    private final ReentrantLock registerLock = new ReentrantLock();
+    
+    public UploadSessionStore(ImageService imageService,
+                              ImageProbe imageProbe,
+                              PreprocessingExecutor preprocessingExecutor,
+                              MeterRegistry meterRegistry,
+                              @Value("${image.uploads.dir:}") String directory,
+                              @Value("${image.uploads.ttl-seconds:900}") long ttlSeconds,
+                              @Value("${image.uploads.max-sessions:100}") long maxSessions,
+                              @Value("${image.uploads.retry-after-seconds:30}") long retryAfterSeconds) {
+        this.imageService = imageService;
+        this.imageProbe = imageProbe;
+        this.preprocessingExecutor = preprocessingExecutor;
+        this.directory = directory.isBlank()
+            ? Path.of(System.getProperty("java.io.tmpdir"), "analysis-uploads")
+            : Path.of(directory);
+        this.maxSessions = maxSessions;
+        this.retryAfterSeconds = retryAfterSeconds;
+        // The scheduler expires idle sessions on time, so abandoned files do not wait for the next access
+        this.sessions = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofSeconds(ttlSeconds))
+            .scheduler(Scheduler.systemScheduler())
+            .removalListener((String id, Session session, RemovalCause cause) -> {
+                if (session != null) {
+                    log.debug("Upload {} removed ({})", id, cause);
+                    session.discard();
+                }
+            })
+            .build();
+        
+        Gauge.builder("image.uploads.active", sessions, Cache::estimatedSize)
+            .description("Resumable uploads in progress or awaiting completion")
+            .register(meterRegistry);
+        
+        deleteLeftoverFiles();
+        log.info("UploadSessionStore initialized - directory: {}, TTL: {}s, max sessions: {}",
+            this.directory, ttlSeconds, maxSessions);
+    }
+    
+    /**
+     * Starts an upload of {@code size} bytes.
+     *
+     * @throws ServiceBusyException if the store already holds its maximum of sessions
+     */
+    public UploadStatus create(String contentType, long size) throws IOException {
+        if (contentType == null || !ImageService.ALLOWED_FORMATS.contains(contentType)) {
+            throw new IllegalArgumentException("Invalid image format. Only JPEG and PNG are allowed.");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        if (size > ImageService.MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("Image size exceeds 10MB limit");
+        }
+        
+        Files.createDirectories(directory);
+        val file = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+        try {
+            val channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            val session = new Session(UUID.randomUUID().toString(), size, file, channel);
+            try {
+                register(session);
+            } catch (ServiceBusyException e) {
+                channel.close();
+                throw e;
+            }
+            log.debug("Created upload {} for {} bytes of {}", session.id, size, contentType);
+            return session.status();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+    
+    public UploadStatus status(String id) {
+        return find(id).status();
+    }
+    
+    /**
+     * Stores the bytes {@code start} to {@code end} inclusive, read from
+     * {@code body}. A chunk may overlap bytes already stored but must not leave
+     * a gap; a chunk that is entirely stored already is not read.
+     *
+     * @throws UploadOffsetMismatchException if the chunk starts past the stored bytes
+     * @throws IllegalStateException if another chunk of the upload is being written
+     * @throws IllegalArgumentException if the range or body is invalid, or the
+     *     bytes so far are not a supported image; in the last case the upload
+     *     is discarded
+     */
+    public UploadStatus append(String id, long start, long end, long total, InputStream body) throws IOException {
+        val session = find(id);
+        if (total != session.size) {
+            throw new IllegalArgumentException("Content-Range total does not match the upload size " + session.size);
+        }
+        if (start < 0 || end < start || end >= total) {
+            throw new IllegalArgumentException("Invalid Content-Range");
+        }
+        if (!session.lock.tryLock()) {
+            throw new IllegalStateException("Another chunk of upload " + id + " is being written");
+        }
+        
+        try {
+            if (start > session.received) {
+                throw new UploadOffsetMismatchException(
+                    "Chunk starts at " + start + " but upload " + id + " has " + session.received + " bytes",
+                    session.received);
+            }
+            if (end < session.received) {
+                return session.status();
+            }
+            if (session.discarded) {
+                throw new NoSuchElementException("Unknown or expired upload " + id);
+            }
+            
+            write(session, start, end + 1, body);
+            if (session.isComplete()) {
+                startPreprocessing(session);
+            }
+            return session.status();
+        } finally {
+            session.lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the preprocessing of a fully received upload. The session stays
+     * until {@link #remove(String)}, so a completion that fails can be retried.
+     *
+     * @throws IllegalStateException if bytes are still missing
+     * @throws ServiceBusyException if preprocessing could not start yet
+     */
+    public CompletableFuture<ProcessedImage> complete(String id) {
+        val session = find(id);
+        session.lock.lock();
+        try {
+            if (!session.isComplete()) {
+                throw new IllegalStateException("Upload " + id + " has " + session.received
+                    + " of " + session.size + " bytes");
+            }
+            if (session.processed == null) {
+                session.processed = preprocessingExecutor.submit(loadImage(session));
+            }
+            return session.processed;
+        } finally {
+            session.lock.unlock();
+        }
+    }
+    
+    /**
+     * Removes an upload the client asked to delete.
+     *
+     * @throws NoSuchElementException if the upload is unknown or has expired
+     */
+    public void remove(String id) {
+        find(id);
+        sessions.invalidate(id);
+    }
+    
+    /**
+     * Drops an upload that has been analyzed. Unlike {@link #remove(String)}
+     * it does nothing if the session already expired while the analysis ran.
+     */
+    public void invalidate(String id) {
+        sessions.invalidate(id);
+    }
+    
+    /**
+     * Adds a session unless the store is full. Count and insert happen under
+     * one lock, so concurrent creates cannot overshoot the limit.
+     */
+    private void register(Session session) {
+        registerLock.lock();
+        try {
+            if (sessions.estimatedSize() >= maxSessions) {
+                // Expired sessions still count until the cache gets round to removing them
+                sessions.cleanUp();
+                if (sessions.estimatedSize() >= maxSessions) {
+                    throw new ServiceBusyException("Too many uploads in progress", retryAfterSeconds);
+                }
+            }
+            sessions.put(session.id, session);
+        } finally {
+            registerLock.unlock();
+        }
+    }
+    
+    private Session find(String id) {
+        val session = sessions.getIfPresent(id);
+        if (session == null) {
+            throw new NoSuchElementException("Unknown or expired upload " + id);
+        }
+        return session;
+    }
+    
+    private void write(Session session, long start, long end, InputStream body) throws IOException {
+        val buffer = new byte[(int) Math.min(end - start, WRITE_BUFFER_SIZE)];
+        var position = start;
+        while (position < end) {
+            val read = body.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (read < 0) {
+                throw new IllegalArgumentException("Chunk ended before the end of its Content-Range");
+            }
+            val bytes = ByteBuffer.wrap(buffer, 0, read);
+            while (bytes.hasRemaining()) {
+                position += session.channel.write(bytes, position);
+            }
+            // Count bytes as they land, so a dropped connection resumes from here
+            session.received = Math.max(session.received, position);
+            if (!session.probed && session.received >= session.nextProbe) {
+                probe(session);
+            }
+        }
+        
+        if (body.read() >= 0) {
+            throw new IllegalArgumentException("Chunk is longer than its Content-Range");
+        }
+    }
+    
+    private void probe(Session session) throws IOException {
+        val length = (int) Math.min(session.received, MAX_PROBE_BYTES);
+        val prefix = new byte[length];
+        read(session.channel, prefix);
+        try {
+            val info = imageProbe.tryProbe(prefix, length);
+            info.ifPresent(header -> log.debug("Upload {} is a {}x{} {}",
+                session.id, header.getWidth(), header.getHeight(), header.getFormat()));
+            session.probed = info.isPresent() || length == MAX_PROBE_BYTES;
+            // Doubling intervals keep a header that never completes from costing quadratic reads
+            session.nextProbe = length * 2L;
+        } catch (IllegalArgumentException e) {
+            sessions.invalidate(session.id);
+            throw e;
+        }
+    }
+    
+    /**
+     * Starts preprocessing as soon as the last byte is stored. A full queue is
+     * not an error for the chunk that was just stored; completion retries.
+     */
+    private void startPreprocessing(Session session) {
+        try {
+            session.processed = preprocessingExecutor.submit(loadImage(session));
+        } catch (ServiceBusyException e) {
+            log.debug("Preprocessing queue full, deferring upload {} to completion", session.id);
+        }
+    }
+    
+    /**
+     * Reads the file into an array of exactly the upload size and deletes it
+     * once preprocessing runs. Until then only the file holds the upload, so
+     * a queued task costs no heap; afterwards only the processed image does.
+     */
+    private Callable<ProcessedImage> loadImage(Session session) {
+        return () -> {
+            val data = new byte[(int) session.size];
+            read(session.channel, data);
+            session.discard();
+            return imageService.processRawImage(data);
+        };
+    }
+    
+    private static void read(FileChannel channel, byte[] into) throws IOException {
+        val buffer = ByteBuffer.wrap(into);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("Upload file is shorter than expected");
+            }
+        }
+    }
+    
+    /**
+     * Files of sessions lost in a restart cannot be resumed.
+     */
+    private void deleteLeftoverFiles() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (var files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (val file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not clean up upload directory {}: {}", directory, e.getMessage());
+        }
+    }
+    
+    private static final class Session {
+        
+        final String id;
+        final long size;
+        final Path file;
+        final FileChannel channel;
+        final ReentrantLock lock = new ReentrantLock();
+        // Contiguous bytes stored from the start; read without the lock for status
+        volatile long received;
+        boolean probed;
+        long nextProbe;
+        boolean discarded;
+        CompletableFuture<ProcessedImage> processed;
+        
+        Session(String id, long size, Path file, FileChannel channel) {
+            this.id = id;
+            this.size = size;
+            this.file = file;
+            this.channel = channel;
+        }
+        
+        boolean isComplete() {
+            return received == size;
+        }
+        
+        UploadStatus status() {
+            return UploadStatus.builder()
+                .id(id)
+                .size(size)
+                .received(received)
+                .complete(isComplete())
+                .build();
+        }
+        
+        /**
+         * Waits for a chunk being written, so expiry never closes the file
+         * under it; chunks that arrive afterwards see the session as gone.
+         */
+        void discard() {
+            lock.lock();
+            try {
+                discarded = true;
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete upload file {}: {}", file, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
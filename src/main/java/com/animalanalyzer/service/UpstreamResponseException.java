@@ -0,0 +1,21 @@
+package com.animalanalyzer.service;
+
+/**
+ * Thrown when a Messages API response parses but holds no answer text, such
+ * as an empty {@code content} array or a {@code tool_use} block in place of
+ * text. The call itself succeeded, so retrying the same request is unlikely
+ * to help.
+ */
+public class UpstreamResponseException extends RuntimeException {
+    
+    private final String stopReason;
+    
+    public UpstreamResponseException(String message, String stopReason) {
+        super(message + " (stop_reason: " + stopReason + ")");
+        this.stopReason = stopReason;
+    }
+    
+    public String getStopReason() {
+        return stopReason;
+    }
+}
@@ -0,0 +1,46 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token counts from the {@code usage} block of Messages API responses, so the
+ * share of the prompt served from Anthropic's prompt cache can be watched:
+ * {@code cache_read} tokens were read from the cache, {@code cache_creation}
+ * tokens were written to it, and {@code input} tokens were processed in full.
+ */
+@Component
+@Slf4j
+public class UpstreamUsageMetrics {
+    
+    private final Counter inputTokens;
+    private final Counter outputTokens;
+    private final Counter cacheReadTokens;
+    private final Counter cacheCreationTokens;
+    
+    public UpstreamUsageMetrics(MeterRegistry meterRegistry) {
+        this.inputTokens = counter(meterRegistry, "input");
+        this.outputTokens = counter(meterRegistry, "output");
+        this.cacheReadTokens = counter(meterRegistry, "cache_read");
+        this.cacheCreationTokens = counter(meterRegistry, "cache_creation");
+    }
+    
+    public void record(MessagesResponse.Usage usage) {
+        inputTokens.increment(usage.inputTokens());
+        outputTokens.increment(usage.outputTokens());
+        cacheReadTokens.increment(usage.cacheReadInputTokens());
+        cacheCreationTokens.increment(usage.cacheCreationInputTokens());
+        log.debug("Upstream usage - input: {}, output: {}, cache read: {}, cache creation: {}",
+            usage.inputTokens(), usage.outputTokens(), usage.cacheReadInputTokens(), usage.cacheCreationInputTokens());
+    }
+    
+    private static Counter counter(MeterRegistry meterRegistry, String type) {
+        return Counter.builder("analysis.upstream.tokens")
+            .tag("type", type)
+            .description("Tokens reported by the Messages API, by how they were processed")
+            .baseUnit("tokens")
+            .register(meterRegistry);
+    }
+}
@@ -0,0 +1,120 @@
+package com.animalanalyzer.benchmark;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.service.AnswerJsonReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a model answer into an {@link AIAnalysisResult}: {@code regexCleanup}
+ * is the extraction the services used before, which cuts the object out,
+ * runs four {@code replaceAll} passes and rebuilds the string, then parses
+ * the copy; {@code singlePass} hands {@link AnswerJsonReader} straight to
+ * Jackson. Run with {@code -prof gc} to compare allocation as well.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.animalanalyzer.benchmark.AnswerJsonBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnswerJsonBenchmark {
+
+    // Length of the reasoning and story, as a multiple of a typical sentence
+    @Param({"1", "20"})
+    int sentences;
+
+    @Param({"false", "true"})
+    boolean strayNewlines;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String answer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        val sentence = "Your calm, steady gaze and the \"quiet\" smile suggest a thoughtful observer. ";
+        val result = AIAnalysisResult.builder()
+                .suggestedCharacter("Wise Owl")
+                .confidence(0.92)
+                .traits(List.of("analytical", "observant", "thoughtful", "patient"))
+                .reasoning(sentence.repeat(sentences))
+                .personalizedStory(sentence.repeat(sentences))
+                .build();
+        var json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(result);
+        if (strayNewlines) {
+            json = json.replace(",\n", ",\\n\n").replace("{\n", "{\\n\n");
+        }
+        answer = "Here is my analysis of the photo:\n\n```json\n" + json + "\n```\n\nLet me know if you need more.";
+    }
+
+    @Benchmark
+    public AIAnalysisResult regexCleanup() throws IOException {
+        return objectMapper.readValue(extractJsonFromResponse(answer), AIAnalysisResult.class);
+    }
+
+    @Benchmark
+    public AIAnalysisResult singlePass() throws IOException {
+        return objectMapper.readValue(new AnswerJsonReader(answer), AIAnalysisResult.class);
+    }
+
+    // The extraction AnswerJsonReader replaced, kept here as the baseline
+    private static String extractJsonFromResponse(String response) {
+        val startIndex = response.indexOf("{");
+        val endIndex = response.lastIndexOf("}");
+
+        if (startIndex != -1 && endIndex != -1 && endIndex > startIndex) {
+            var jsonStr = response.substring(startIndex, endIndex + 1);
+            jsonStr = jsonStr.replaceAll(",\\s*\\\\n\\s*", ", ");
+            jsonStr = jsonStr.replaceAll("\\{\\s*\\\\n\\s*", "{ ");
+            jsonStr = jsonStr.replaceAll("\\s*\\\\n\\s*\\}", " }");
+            jsonStr = jsonStr.replaceAll(":\\s*\\\\n\\s*", ": ");
+
+            val cleaned = new StringBuilder();
+            var inString = false;
+            var escape = false;
+            for (var i = 0; i < jsonStr.length(); i++) {
+                val c = jsonStr.charAt(i);
+                if (!escape && c == '"') {
+                    inString = !inString;
+                }
+                if (!inString && c == '\\' && i + 1 < jsonStr.length() && jsonStr.charAt(i + 1) == 'n') {
+                    i++;
+                    cleaned.append(' ');
+                } else {
+                    cleaned.append(c);
+                }
+                escape = !escape && c == '\\';
+            }
+            return cleaned.toString().trim();
+        }
+        return response;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AnswerJsonBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
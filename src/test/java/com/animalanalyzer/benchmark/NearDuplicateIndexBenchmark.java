@@ -0,0 +1,92 @@
+package com.animalanalyzer.benchmark;
+
+import com.animalanalyzer.service.NearDuplicateIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency of {@link NearDuplicateIndex} at a few million entries.
+ * Hits query a stored hash with {@code maxDistance} random bits flipped;
+ * misses query random hashes, which probe the same buckets but match nothing.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.animalanalyzer.benchmark.NearDuplicateIndexBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class NearDuplicateIndexBenchmark {
+
+    private static final int QUERIES = 4096;
+
+    @Param({"1000000", "3000000"})
+    int entries;
+
+    @Param({"6", "10"})
+    int maxDistance;
+
+    private NearDuplicateIndex index;
+    private long[] hitQueries;
+    private long[] missQueries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new NearDuplicateIndex(new SimpleMeterRegistry(), true, maxDistance, entries);
+        val random = new Random(42);
+        val hashes = new long[entries];
+        for (var i = 0; i < entries; i++) {
+            hashes[i] = random.nextLong();
+            index.add(hashes[i], String.format("%064x", i));
+        }
+
+        hitQueries = new long[QUERIES];
+        missQueries = new long[QUERIES];
+        for (var i = 0; i < QUERIES; i++) {
+            var query = hashes[random.nextInt(entries)];
+            for (var bit = 0; bit < maxDistance; bit++) {
+                query ^= 1L << random.nextInt(Long.SIZE);
+            }
+            hitQueries[i] = query;
+            missQueries[i] = random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public Optional<String> hit() {
+        return index.findNearest(hitQueries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Optional<String> miss() {
+        return index.findNearest(missQueries[next++ & (QUERIES - 1)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NearDuplicateIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
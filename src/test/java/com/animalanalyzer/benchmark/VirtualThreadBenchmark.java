@@ -0,0 +1,175 @@
+package com.animalanalyzer.benchmark;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
+import com.animalanalyzer.service.ImageTokenBudget;
+import com.animalanalyzer.service.PromptRegistry;
+import com.animalanalyzer.service.SpringAIHybridService;
+import com.animalanalyzer.service.UpstreamUsageMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thousand concurrent blocking analyses through
+ * {@link SpringAIHybridService#analyzeImage} against a local Messages API stub
+ * that answers after {@code upstreamLatencyMs}. {@code platform} runs them on
+ * 200 platform threads, Tomcat's default maximum; {@code virtual} on one
+ * virtual thread each, as with {@code spring.threads.virtual.enabled}.
+ * <p>
+ * The score is the time for all calls to finish. The {@code peakThreads} and
+ * {@code heapUsedMb} counters compare footprint; add {@code -prof gc} for
+ * allocation rates. The stub and the client hold a socket per call, so raise
+ * {@code ulimit -n} above 2000 first.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.animalanalyzer.benchmark.VirtualThreadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx512m")
+public class VirtualThreadBenchmark {
+
+    private static final int CONCURRENCY = 1000;
+    private static final int PLATFORM_THREADS = 200;
+    private static final byte[] RESPONSE = ("{\"content\": [{\"type\": \"text\", \"text\": "
+            + "\"{\\\"suggestedCharacter\\\": \\\"Wise Owl\\\", \\\"confidence\\\": 0.9, "
+            + "\\\"traits\\\": [\\\"analytical\\\"], \\\"reasoning\\\": \\\"stub\\\", "
+            + "\\\"personalizedStory\\\": \\\"stub\\\"}\"}]}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"platform", "virtual"})
+    String threads;
+
+    @Param({"500"})
+    int upstreamLatencyMs;
+
+    private HttpServer upstream;
+    private SpringAIHybridService service;
+    private ProcessedImage image;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), CONCURRENCY);
+        upstream.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        upstream.createContext("/v1/messages", this::respond);
+        upstream.start();
+
+        val tokenBudget = new ImageTokenBudget(new SimpleMeterRegistry(), 1024, 1400, 400, 200, false, 20000, 20);
+        service = new SpringAIHybridService(null, null, new ObjectMapper(), tokenBudget,
+                new PromptRegistry("", false), new UpstreamUsageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(service, "restClient", RestClient.builder()
+                .baseUrl("http://localhost:" + upstream.getAddress().getPort())
+                .defaultHeader("content-type", "application/json")
+                .build());
+        ReflectionTestUtils.setField(service, "useRealApi", true);
+        ReflectionTestUtils.setField(service, "apiKey", "benchmark");
+        ReflectionTestUtils.setField(service, "model", "benchmark");
+        ReflectionTestUtils.setField(service, "maxTokens", 1500);
+
+        val data = new byte[48 * 1024];
+        image = ProcessedImage.builder()
+                .data(data)
+                .length(data.length)
+                .mediaType("image/jpeg")
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        upstream.stop(0);
+    }
+
+    @Setup(Level.Iteration)
+    public void startExecutor() {
+        executor = threads.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void analyzeConcurrently(Footprint footprint) throws Exception {
+        val calls = new ArrayList<Future<AIAnalysisResult>>(CONCURRENCY);
+        for (var i = 0; i < CONCURRENCY; i++) {
+            calls.add(executor.submit(() -> service.analyzeImage(image)));
+        }
+        for (val call : calls) {
+            // The service answers failures with a demo result, which would flatter the score
+            if (call.get().isFallback()) {
+                throw new IllegalStateException("Upstream call failed; see the service log");
+            }
+        }
+
+        footprint.peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+        footprint.heapUsedMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getRequestBody().readAllBytes();
+            Thread.sleep(upstreamLatencyMs);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, RESPONSE.length);
+            exchange.getResponseBody().write(RESPONSE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public long peakThreads;
+        public long heapUsedMb;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VirtualThreadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
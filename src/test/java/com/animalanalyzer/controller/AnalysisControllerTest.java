@@ -2,7 +2,12 @@ package com.animalanalyzer.controller;
 
 import com.animalanalyzer.model.AnalysisResponse;
 import com.animalanalyzer.model.Character;
+import com.animalanalyzer.service.AnalysisListener;
 import com.animalanalyzer.service.AnalysisService;
+import com.animalanalyzer.service.IdempotencyKeyReusedException;
+import com.animalanalyzer.service.IdempotencyStore;
+import com.animalanalyzer.service.ImageService;
+import com.animalanalyzer.service.ServiceBusyException;
 import lombok.val;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,12 +16,26 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(AnalysisController.class)
@@ -28,6 +47,12 @@ class AnalysisControllerTest {
     @MockBean
     private AnalysisService analysisService;
 
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private IdempotencyStore idempotencyStore;
+
     @Test
     void testAnalyzeImage() throws Exception {
         // Prepare test data
@@ -46,7 +71,7 @@ class AnalysisControllerTest {
                 .story("Like the owl, you see beyond the surface")
                 .build();
 
-        when(analysisService.analyzeImage(any())).thenReturn(mockResponse);
+        when(analysisService.analyzeImageAsync(any())).thenReturn(CompletableFuture.completedFuture(mockResponse));
 
         val file = new MockMultipartFile(
                 "image",
@@ -56,7 +81,7 @@ class AnalysisControllerTest {
         );
 
         // Perform request
-        mockMvc.perform(multipart("/api/v1/analyze")
+        performAsync(multipart("/api/v1/analyze")
                 .file(file))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.character.name").value("Wise Owl"))
@@ -75,18 +100,18 @@ class AnalysisControllerTest {
                 new byte[0]
         );
 
-        when(analysisService.analyzeImage(any()))
+        when(analysisService.analyzeImageAsync(any()))
                 .thenThrow(new IllegalArgumentException("File is empty"));
 
-        mockMvc.perform(multipart("/api/v1/analyze")
+        performAsync(multipart("/api/v1/analyze")
                 .file(emptyFile))
                 .andExpect(status().isBadRequest());
     }
 
     @Test
     void testAnalyzeImageServiceException() throws Exception {
-        when(analysisService.analyzeImage(any()))
-                .thenThrow(new RuntimeException("AI service error"));
+        when(analysisService.analyzeImageAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("AI service error")));
 
         val file = new MockMultipartFile(
                 "image",
@@ -95,8 +120,197 @@ class AnalysisControllerTest {
                 "test image content".getBytes()
         );
 
-        mockMvc.perform(multipart("/api/v1/analyze")
+        performAsync(multipart("/api/v1/analyze")
                 .file(file))
                 .andExpect(status().isInternalServerError());
     }
+
+    @Test
+    void testAnalyzeImageServiceBusy() throws Exception {
+        when(analysisService.analyzeImageAsync(any()))
+                .thenThrow(new ServiceBusyException("Image preprocessing queue is full", 3));
+
+        val file = new MockMultipartFile(
+                "image",
+                "test.jpg",
+                MediaType.IMAGE_JPEG_VALUE,
+                "test image content".getBytes()
+        );
+
+        performAsync(multipart("/api/v1/analyze")
+                .file(file))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "3"));
+    }
+
+    @Test
+    void testAnalyzeImageWithIdempotencyKeyStoresResponse() throws Exception {
+        val response = AnalysisResponse.builder()
+                .confidence(0.85)
+                .reasoning("Your thoughtful expression matches the wise owl")
+                .build();
+        when(analysisService.analyzeImageAsync(any())).thenReturn(CompletableFuture.completedFuture(response));
+        val fingerprint = IdempotencyStore.fingerprint(imageFile().getBytes());
+        when(idempotencyStore.executeAsync(eq("retry-1"), aryEq(fingerprint), any())).thenAnswer(invocation ->
+                invocation.<Supplier<CompletableFuture<IdempotencyStore.Outcome>>>getArgument(2).get()
+                        .thenApply(outcome -> {
+                            assertTrue(outcome.replayable());
+                            return new IdempotencyStore.Response(outcome.body(), false);
+                        }));
+
+        performAsync(multipart("/api/v1/analyze")
+                .file(imageFile())
+                .header("Idempotency-Key", "retry-1"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(header().string("Idempotent-Replayed", "false"))
+                .andExpect(jsonPath("$.confidence").value(0.85));
+    }
+
+    @Test
+    void testAnalyzeImageWithIdempotencyKeyDoesNotStoreFallback() throws Exception {
+        val response = AnalysisResponse.builder()
+                .confidence(0.85)
+                .reasoning("Demo mode")
+                .fallback(true)
+                .build();
+        when(analysisService.analyzeImageAsync(any())).thenReturn(CompletableFuture.completedFuture(response));
+        when(idempotencyStore.executeAsync(eq("retry-1"), any(), any())).thenAnswer(invocation ->
+                invocation.<Supplier<CompletableFuture<IdempotencyStore.Outcome>>>getArgument(2).get()
+                        .thenApply(outcome -> {
+                            assertFalse(outcome.replayable());
+                            return new IdempotencyStore.Response(outcome.body(), false);
+                        }));
+
+        performAsync(multipart("/api/v1/analyze")
+                .file(imageFile())
+                .header("Idempotency-Key", "retry-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.reasoning").value("Demo mode"))
+                .andExpect(jsonPath("$.fallback").doesNotExist());
+    }
+
+    @Test
+    void testAnalyzeImageReplaysStoredResponse() throws Exception {
+        val stored = "{\"confidence\" : 0.85}".getBytes(StandardCharsets.UTF_8);
+        when(idempotencyStore.executeAsync(eq("retry-1"), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(new IdempotencyStore.Response(stored, true)));
+
+        performAsync(multipart("/api/v1/analyze")
+                .file(imageFile())
+                .header("Idempotency-Key", "retry-1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(content().bytes(stored));
+
+        verify(analysisService, never()).analyzeImageAsync(any());
+    }
+
+    @Test
+    void testAnalyzeImageIdempotencyKeyReused() throws Exception {
+        when(idempotencyStore.executeAsync(eq("retry-1"), any(), any()))
+                .thenThrow(new IdempotencyKeyReusedException("Idempotency-Key was already used for a different request"));
+
+        performAsync(multipart("/api/v1/analyze")
+                .file(imageFile())
+                .header("Idempotency-Key", "retry-1"))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void testAnalyzeRawImage() throws Exception {
+        val body = "raw png bytes".getBytes(StandardCharsets.UTF_8);
+        val response = AnalysisResponse.builder()
+                .confidence(0.85)
+                .reasoning("Your thoughtful expression matches the wise owl")
+                .build();
+        when(imageService.readImage(any(), eq((long) body.length), eq("image/png"))).thenReturn(body);
+        when(analysisService.analyzeRawImageAsync(body)).thenReturn(CompletableFuture.completedFuture(response));
+
+        performAsync(post("/api/v1/analyze/raw")
+                .contentType(MediaType.IMAGE_PNG)
+                .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.confidence").value(0.85));
+    }
+
+    @Test
+    void testAnalyzeRawImageInvalidBody() throws Exception {
+        when(imageService.readImage(any(), eq(4L), eq("image/jpeg")))
+                .thenThrow(new IllegalArgumentException("Invalid image format. Only JPEG and PNG are allowed."));
+
+        performAsync(post("/api/v1/analyze/raw")
+                .contentType(MediaType.IMAGE_JPEG)
+                .content(new byte[]{'G', 'I', 'F', '8'}))
+                .andExpect(status().isBadRequest());
+
+        verify(analysisService, never()).analyzeRawImageAsync(any());
+    }
+
+    @Test
+    void testAnalyzeRawImageUnsupportedMediaType() throws Exception {
+        mockMvc.perform(post("/api/v1/analyze/raw")
+                .contentType(MediaType.IMAGE_GIF)
+                .content(new byte[]{'G', 'I', 'F', '8'}))
+                .andExpect(status().isUnsupportedMediaType());
+    }
+
+    @Test
+    void testAnalyzeImageStream() throws Exception {
+        val response = AnalysisResponse.builder()
+                .confidence(0.85)
+                .reasoning("Your thoughtful expression matches the wise owl")
+                .build();
+        when(analysisService.analyzeImageStreaming(any(), any())).thenAnswer(invocation -> {
+            val listener = invocation.<AnalysisListener>getArgument(1);
+            listener.onAccepted();
+            listener.onField("suggestedCharacter", "Wise Owl");
+            return CompletableFuture.completedFuture(response);
+        });
+
+        performAsync(multipart("/api/v1/analyze/stream")
+                .file(imageFile()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(containsString("event:accepted")))
+                .andExpect(content().string(containsString("event:field\ndata:{\"name\":\"suggestedCharacter\",\"value\":\"Wise Owl\"}")))
+                .andExpect(content().string(containsString("event:result\ndata:{")));
+    }
+
+    @Test
+    void testAnalyzeImageStreamReportsFailure() throws Exception {
+        when(analysisService.analyzeImageStreaming(any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new ServiceBusyException("Upstream queue is full", 2)));
+
+        performAsync(multipart("/api/v1/analyze/stream")
+                .file(imageFile()))
+                .andExpect(content().string(containsString("event:error\ndata:{\"status\":503}")));
+    }
+
+    @Test
+    void testAnalyzeImageStreamRejectedBeforeStreaming() throws Exception {
+        when(analysisService.analyzeImageStreaming(any(), any()))
+                .thenThrow(new IllegalArgumentException("File is empty"));
+
+        mockMvc.perform(multipart("/api/v1/analyze/stream")
+                .file(imageFile()))
+                .andExpect(status().isBadRequest());
+    }
+
+    // Analyses answer asynchronously; dispatch again to get the final response
+    private ResultActions performAsync(RequestBuilder builder) throws Exception {
+        val result = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
+    private static MockMultipartFile imageFile() {
+        return new MockMultipartFile(
+                "image",
+                "test.jpg",
+                MediaType.IMAGE_JPEG_VALUE,
+                "test image content".getBytes()
+        );
+    }
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package com.animalanalyzer.controller;
+
+import com.animalanalyzer.config.ReactiveConfig;
+import com.animalanalyzer.model.AnalysisResponse;
+import com.animalanalyzer.model.Character;
+import com.animalanalyzer.service.AnalysisService;
+import com.animalanalyzer.service.CharacterService;
+import com.animalanalyzer.service.IdempotencyStore;
+import com.animalanalyzer.service.ImageService;
+import com.animalanalyzer.service.ServiceBusyException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveAnalysisHandlerTest {
+
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G'};
+
+    @Mock
+    private AnalysisService analysisService;
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private CharacterService characterService;
+
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        val handler = new ReactiveAnalysisHandler(analysisService, imageService, characterService,
+                idempotencyStore, new ObjectMapper());
+        client = WebTestClient.bindToRouterFunction(new ReactiveConfig().analysisRoutes(handler)).build();
+
+        // Joins the streamed part, as the real reader does
+        lenient().when(imageService.readImage(any(), eq("image/png"))).thenAnswer(invocation ->
+                DataBufferUtils.join(invocation.<Flux<DataBuffer>>getArgument(0)).map(buffer -> {
+                    val data = new byte[buffer.readableByteCount()];
+                    buffer.read(data);
+                    DataBufferUtils.release(buffer);
+                    return data;
+                }));
+    }
+
+    @Test
+    void testAnalyze() {
+        when(analysisService.analyzeRawImageAsync(IMAGE)).thenReturn(CompletableFuture.completedFuture(response()));
+
+        client.post().uri("/api/v1/analyze")
+                .body(BodyInserters.fromMultipartData(form("image/png")))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.character.name").isEqualTo("Wise Owl")
+                .jsonPath("$.confidence").isEqualTo(0.85);
+    }
+
+    @Test
+    void testAnalyzeIgnoresOtherParts() {
+        when(analysisService.analyzeRawImageAsync(IMAGE)).thenReturn(CompletableFuture.completedFuture(response()));
+        val form = new MultipartBodyBuilder();
+        form.part("note", "before the image");
+        form.part("image", resource()).contentType(MediaType.IMAGE_PNG);
+
+        client.post().uri("/api/v1/analyze")
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void testAnalyzeWithoutImagePart() {
+        val form = new MultipartBodyBuilder();
+        form.part("note", "no image here");
+
+        client.post().uri("/api/v1/analyze")
+                .body(BodyInserters.fromMultipartData(form.build()))
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(analysisService, never()).analyzeRawImageAsync(any());
+    }
+
+    @Test
+    void testAnalyzeInvalidImage() {
+        when(imageService.readImage(any(), eq("image/gif")))
+                .thenReturn(Mono.error(new IllegalArgumentException("Invalid image format. Only JPEG and PNG are allowed.")));
+
+        client.post().uri("/api/v1/analyze")
+                .body(BodyInserters.fromMultipartData(form("image/gif")))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void testAnalyzeBusy() {
+        when(analysisService.analyzeRawImageAsync(IMAGE)).thenThrow(new ServiceBusyException("Image preprocessing queue is full", 2));
+
+        client.post().uri("/api/v1/analyze")
+                .body(BodyInserters.fromMultipartData(form("image/png")))
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals("Retry-After", "2");
+    }
+
+    @Test
+    void testAnalyzeUpstreamFailure() {
+        when(analysisService.analyzeRawImageAsync(IMAGE))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("AI service error")));
+
+        client.post().uri("/api/v1/analyze")
+                .body(BodyInserters.fromMultipartData(form("image/png")))
+                .exchange()
+                .expectStatus().is5xxServerError();
+    }
+
+    @Test
+    void testAnalyzeIdempotently() {
+        val threads = new CopyOnWriteArrayList<String>();
+        when(idempotencyStore.executeAsync(eq("key-1"), aryEq(IdempotencyStore.fingerprint(IMAGE)), any()))
+                .thenAnswer(invocation -> {
+                    threads.add(Thread.currentThread().getName());
+                    return invocation.<Supplier<CompletableFuture<IdempotencyStore.Outcome>>>getArgument(2).get()
+                            .thenApply(outcome -> new IdempotencyStore.Response(outcome.body(), true));
+                });
+        when(analysisService.analyzeRawImageAsync(IMAGE)).thenReturn(CompletableFuture.completedFuture(response()));
+
+        client.post().uri("/api/v1/analyze")
+                .header(AnalysisController.IDEMPOTENCY_KEY, "key-1")
+                .body(BodyInserters.fromMultipartData(form("image/png")))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(AnalysisController.IDEMPOTENT_REPLAYED, "true")
+                .expectBody()
+                .jsonPath("$.character.name").isEqualTo("Wise Owl");
+
+        // The fingerprint is hashed off the request thread, which continues from there
+        assertEquals(1, threads.size());
+        assertTrue(threads.get(0).startsWith("boundedElastic"), threads.get(0));
+    }
+
+    @Test
+    void testCharacters() {
+        when(characterService.getAllCharacters()).thenReturn(List.of(character()));
+        when(characterService.findById("wise-owl")).thenReturn(Optional.of(character()));
+        when(characterService.findById("missing")).thenReturn(Optional.empty());
+
+        client.get().uri("/api/v1/characters")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("Wise Owl");
+        client.get().uri("/api/v1/characters/wise-owl")
+                .exchange()
+                .expectStatus().isOk();
+        client.get().uri("/api/v1/characters/missing")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void testHealth() {
+        client.get().uri("/api/v1/health")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("UP");
+    }
+
+    private static MultiValueMap<String, HttpEntity<?>> form(String contentType) {
+        val form = new MultipartBodyBuilder();
+        form.part("image", resource()).contentType(MediaType.parseMediaType(contentType));
+        return form.build();
+    }
+
+    private static ByteArrayResource resource() {
+        return new ByteArrayResource(IMAGE) {
+            @Override
+            public String getFilename() {
+                return "test.png";
+            }
+        };
+    }
+
+    private static Character character() {
+        val character = new Character();
+        character.setId("wise-owl");
+        character.setName("Wise Owl");
+        return character;
+    }
+
+    private static AnalysisResponse response() {
+        return AnalysisResponse.builder()
+                .character(character())
+                .confidence(0.85)
+                .build();
+    }
+}
@@ -0,0 +1,182 @@
+package com.animalanalyzer.controller;
+
+import com.animalanalyzer.model.AnalysisResponse;
+import com.animalanalyzer.model.Character;
+import com.animalanalyzer.model.ProcessedImage;
+import com.animalanalyzer.model.UploadStatus;
+import com.animalanalyzer.service.AnalysisService;
+import com.animalanalyzer.service.UploadOffsetMismatchException;
+import com.animalanalyzer.service.UploadSessionStore;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(UploadController.class)
+class UploadControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private UploadSessionStore uploadSessionStore;
+
+    @MockBean
+    private AnalysisService analysisService;
+
+    @Test
+    void testCreateUpload() throws Exception {
+        when(uploadSessionStore.create("image/png", 2048)).thenReturn(status(0));
+
+        mockMvc.perform(post("/api/v1/uploads")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"contentType\": \"image/png\", \"size\": 2048}"))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Location", "/api/v1/uploads/upload-1"))
+                .andExpect(jsonPath("$.id").value("upload-1"))
+                .andExpect(jsonPath("$.received").value(0));
+    }
+
+    @Test
+    void testUploadChunk() throws Exception {
+        when(uploadSessionStore.append(eq("upload-1"), eq(0L), eq(1023L), eq(2048L), any())).thenReturn(status(1024));
+
+        mockMvc.perform(put("/api/v1/uploads/upload-1")
+                .header("Content-Range", "bytes 0-1023/2048")
+                .content(new byte[1024]))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(1024))
+                .andExpect(jsonPath("$.complete").value(false));
+    }
+
+    @Test
+    void testUploadChunkOffsetMismatch() throws Exception {
+        when(uploadSessionStore.append(eq("upload-1"), anyLong(), anyLong(), anyLong(), any()))
+                .thenThrow(new UploadOffsetMismatchException("gap", 512));
+
+        mockMvc.perform(put("/api/v1/uploads/upload-1")
+                .header("Content-Range", "bytes 1024-2047/2048")
+                .content(new byte[1024]))
+                .andExpect(status().isConflict())
+                .andExpect(header().string(UploadController.UPLOAD_OFFSET, "512"));
+    }
+
+    @Test
+    void testUploadChunkRejectsBadRange() throws Exception {
+        mockMvc.perform(put("/api/v1/uploads/upload-1")
+                .header("Content-Range", "bytes 0-1023/2048")
+                .content(new byte[10]))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(put("/api/v1/uploads/upload-1")
+                .header("Content-Range", "items 0-9")
+                .content(new byte[10]))
+                .andExpect(status().isBadRequest());
+
+        verify(uploadSessionStore, never()).append(any(), anyLong(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void testCompleteUpload() throws Exception {
+        val preprocessing = CompletableFuture.completedFuture(ProcessedImage.builder().build());
+        val character = new Character();
+        character.setName("Wise Owl");
+        when(uploadSessionStore.complete("upload-1")).thenReturn(preprocessing);
+        when(analysisService.analyzeUploadAsync(preprocessing)).thenReturn(CompletableFuture.completedFuture(
+                AnalysisResponse.builder()
+                        .character(character)
+                        .confidence(0.85)
+                        .build()));
+
+        performAsync(post("/api/v1/uploads/upload-1/complete"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.character.name").value("Wise Owl"));
+
+        verify(uploadSessionStore).invalidate("upload-1");
+    }
+
+    @Test
+    void testCompleteUploadThatExpiredDuringAnalysis() throws Exception {
+        val preprocessing = CompletableFuture.completedFuture(ProcessedImage.builder().build());
+        when(uploadSessionStore.complete("upload-1")).thenReturn(preprocessing);
+        when(analysisService.analyzeUploadAsync(preprocessing)).thenReturn(CompletableFuture.completedFuture(
+                AnalysisResponse.builder().confidence(0.85).build()));
+        doThrow(new NoSuchElementException("expired")).when(uploadSessionStore).remove("upload-1");
+
+        performAsync(post("/api/v1/uploads/upload-1/complete"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testCompleteIncompleteUpload() throws Exception {
+        when(uploadSessionStore.complete("upload-1")).thenThrow(new IllegalStateException("missing bytes"));
+
+        performAsync(post("/api/v1/uploads/upload-1/complete"))
+                .andExpect(status().isConflict());
+
+        verify(uploadSessionStore, never()).invalidate(any());
+    }
+
+    @Test
+    void testUnknownUpload() throws Exception {
+        when(uploadSessionStore.status("missing")).thenThrow(new NoSuchElementException("missing"));
+
+        mockMvc.perform(get("/api/v1/uploads/missing"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testDeleteUpload() throws Exception {
+        mockMvc.perform(delete("/api/v1/uploads/upload-1"))
+                .andExpect(status().isNoContent());
+
+        verify(uploadSessionStore).remove("upload-1");
+    }
+
+    @Test
+    void testCompleteUploadAnalysisFailureKeepsSession() throws Exception {
+        val preprocessing = CompletableFuture.completedFuture(ProcessedImage.builder().build());
+        when(uploadSessionStore.complete("upload-1")).thenReturn(preprocessing);
+        when(analysisService.analyzeUploadAsync(preprocessing))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("AI service error")));
+
+        performAsync(post("/api/v1/uploads/upload-1/complete"))
+                .andExpect(status().isInternalServerError());
+
+        verify(uploadSessionStore, never()).invalidate(any());
+    }
+
+    private ResultActions performAsync(RequestBuilder builder) throws Exception {
+        val result = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
+    private static UploadStatus status(long received) {
+        return UploadStatus.builder()
+                .id("upload-1")
+                .size(2048)
+                .received(received)
+                .complete(received == 2048)
+                .build();
+    }
+}
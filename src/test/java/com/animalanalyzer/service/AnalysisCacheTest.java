@@ -0,0 +1,193 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final NearDuplicateIndex nearDuplicates = new NearDuplicateIndex(meterRegistry, true, 6, 1000);
+    private final PromptRegistry promptRegistry = new PromptRegistry("", false);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testKeyDependsOnImageBytesAndModel() {
+        val cache = cache("", "model-a");
+        val other = cache("", "model-b");
+
+        assertEquals(cache.key(image(1, 2, 3)), cache.key(image(1, 2, 3)));
+        assertNotEquals(cache.key(image(1, 2, 3)), cache.key(image(1, 2, 4)));
+        assertNotEquals(cache.key(image(1, 2, 3)), other.key(image(1, 2, 3)));
+        assertEquals(64, cache.key(image(1, 2, 3)).length());
+    }
+
+    @Test
+    void testKeyIgnoresBytesPastLength() {
+        val cache = cache("", "model-a");
+        val padded = ProcessedImage.builder().data(new byte[]{1, 2, 3, 9, 9}).length(3).build();
+
+        assertEquals(cache.key(image(1, 2, 3)), cache.key(padded));
+    }
+
+    @Test
+    void testMemoryHitAndMiss() {
+        val cache = cache("", "model-a");
+        val key = cache.key(image(1));
+
+        assertTrue(cache.get(key).isEmpty());
+        cache.put(key, image(1), result("Wise Owl"));
+
+        assertEquals("Wise Owl", cache.get(key).orElseThrow().getSuggestedCharacter());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "analysis.results").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void testFallbackResultsAreNotCached() {
+        val cache = cache("", "model-a");
+        val key = cache.key(image(1));
+
+        cache.put(key, image(1), AIAnalysisResult.builder().suggestedCharacter("Wise Owl").fallback(true).build());
+
+        assertTrue(cache.get(key).isEmpty());
+    }
+
+    @Test
+    void testResultsOfAnotherPromptVersionAreNotCached() {
+        val cache = cache("", "model-a");
+        val key = cache.key(image(1));
+        val stale = result("Wise Owl");
+        stale.setPromptVersion("0123456789ab");
+
+        cache.put(key, image(1), stale);
+        assertTrue(cache.get(key).isEmpty());
+
+        val current = result("Noble Lion");
+        current.setPromptVersion(cache.getPromptVersion());
+        cache.put(key, image(1), current);
+        assertEquals("Noble Lion", cache.get(key).orElseThrow().getSuggestedCharacter());
+    }
+
+    @Test
+    void testDiskTierSurvivesRestart() throws IOException {
+        val path = tempDir.resolve("analysis-results.bin").toString();
+        val first = cache(path, "model-a");
+        val key = first.key(image(4, 5, 6));
+        first.put(key, image(4, 5, 6), result("Noble Lion"));
+        first.close();
+
+        val restarted = cache(path, "model-a");
+        val hit = restarted.get(key);
+        restarted.close();
+
+        assertTrue(hit.isPresent());
+        assertEquals("Noble Lion", hit.get().getSuggestedCharacter());
+        assertEquals(List.of("brave", "loyal"), hit.get().getTraits());
+        assertEquals(1.0, meterRegistry.get("analysis.cache.disk.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void testDisabledCacheNeverHits() {
+        val cache = new AnalysisCache(objectMapper, nearDuplicates, promptRegistry, meterRegistry, false, 100, "", 4096, "model-a");
+        val key = cache.key(image(1));
+
+        cache.put(key, hashedImage(0L, 1), result("Wise Owl"));
+
+        assertTrue(cache.get(key).isEmpty());
+        assertTrue(cache.getSimilar(hashedImage(0L, 2)).isEmpty());
+    }
+
+    @Test
+    void testSimilarImageReusesResult() {
+        val cache = cache("", "model-a");
+        val original = hashedImage(0x0F0F_0F0F_0F0F_0F0FL, 1, 2, 3);
+        cache.put(cache.key(original), original, result("Wise Owl"));
+
+        // Different bytes, so the exact key misses, but only three hash bits apart
+        val reencoded = hashedImage(0x0F0F_0F0F_0F0F_0F08L, 1, 2, 4);
+
+        assertTrue(cache.get(cache.key(reencoded)).isEmpty());
+        assertEquals("Wise Owl", cache.getSimilar(reencoded).orElseThrow().getSuggestedCharacter());
+    }
+
+    @Test
+    void testSimilarLookupMissesDistantOrUnhashedImages() {
+        val cache = cache("", "model-a");
+        val original = hashedImage(0L, 1, 2, 3);
+        cache.put(cache.key(original), original, result("Wise Owl"));
+
+        assertTrue(cache.getSimilar(hashedImage(0xFFFFL, 7)).isEmpty());
+        assertTrue(cache.getSimilar(image(7)).isEmpty());
+    }
+
+    @Test
+    void testFallbackResultsAreNotIndexed() {
+        val cache = cache("", "model-a");
+        val original = hashedImage(0L, 1);
+        cache.put(cache.key(original), original, AIAnalysisResult.builder().suggestedCharacter("Wise Owl").fallback(true).build());
+
+        assertEquals(0, nearDuplicates.size());
+        assertTrue(cache.getSimilar(hashedImage(0L, 2)).isEmpty());
+    }
+
+    @Test
+    void testSimilarLookupIgnoresResultsOfAnOlderPrompt() throws IOException {
+        Files.writeString(tempDir.resolve(PromptRegistry.TEMPLATE), "Prompt A");
+        val registry = new PromptRegistry(tempDir.toString(), false);
+        val cache = new AnalysisCache(objectMapper, nearDuplicates, registry, meterRegistry, true, 100, "", 4096, "model-a");
+        val original = hashedImage(0L, 1, 2, 3);
+        val before = result("Wise Owl");
+        before.setPromptVersion(cache.getPromptVersion());
+        cache.put(cache.key(original), original, before);
+        assertTrue(cache.getSimilar(hashedImage(1L, 1, 2, 4)).isPresent());
+
+        Files.writeString(tempDir.resolve(PromptRegistry.TEMPLATE), "Prompt B");
+        assertTrue(registry.reload());
+
+        assertTrue(cache.getSimilar(hashedImage(1L, 1, 2, 4)).isEmpty());
+        registry.close();
+    }
+
+    private AnalysisCache cache(String diskPath, String model) {
+        return new AnalysisCache(objectMapper, nearDuplicates, promptRegistry, meterRegistry, true, 100, diskPath, 64 * 1024, model);
+    }
+
+    private static ProcessedImage image(int... values) {
+        val data = new byte[values.length];
+        for (var i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return ProcessedImage.builder().data(data).length(data.length).mediaType("image/jpeg").build();
+    }
+
+    private static ProcessedImage hashedImage(long perceptualHash, int... values) {
+        val image = image(values);
+        image.setPerceptualHash(perceptualHash);
+        return image;
+    }
+
+    private AIAnalysisResult result(String character) {
+        return AIAnalysisResult.builder()
+                .suggestedCharacter(character)
+                .promptVersion(promptRegistry.current().version())
+                .confidence(0.9)
+                .traits(List.of("brave", "loyal"))
+                .reasoning("reasoning")
+                .personalizedStory("story")
+                .build();
+    }
+}
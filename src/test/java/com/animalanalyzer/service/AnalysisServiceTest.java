@@ -3,6 +3,7 @@ package com.animalanalyzer.service;
 import com.animalanalyzer.model.AIAnalysisResult;
 import com.animalanalyzer.model.AnalysisResponse;
 import com.animalanalyzer.model.Character;
+import com.animalanalyzer.model.ProcessedImage;
 import lombok.val;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,13 +12,20 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,6 +40,15 @@ class AnalysisServiceTest {
     @Mock
     private ImageService imageService;
 
+    @Mock
+    private PreprocessingExecutor preprocessingExecutor;
+
+    @Mock
+    private AnalysisCache analysisCache;
+
+    @Mock
+    private SingleFlight singleFlight;
+
     @InjectMocks
     private AnalysisService analysisService;
 
@@ -63,14 +80,26 @@ class AnalysisServiceTest {
                 "image/jpeg",
                 "test image content".getBytes()
         );
+
+        // Run preprocessing inline on the test thread
+        lenient().when(preprocessingExecutor.submit(any())).thenAnswer(invocation -> {
+            try {
+                return CompletableFuture.completedFuture(invocation.<Callable<?>>getArgument(0).call());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+        // Every call leads its own flight
+        lenient().when(singleFlight.execute(any(), any())).thenAnswer(invocation -> invocation.<Callable<?>>getArgument(1).call());
+        lenient().when(singleFlight.executeAsync(any(), any())).thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
     }
 
     @Test
     void testAnalyzeImageSuccess() throws Exception {
-        val processedImageBase64 = "processedBase64String";
+        val processedImage = processedImage();
         
-        when(imageService.processImage(any())).thenReturn(processedImageBase64);
-        when(aiService.analyzeImage(processedImageBase64)).thenReturn(mockAIResult);
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(aiService.analyzeImage(processedImage)).thenReturn(mockAIResult);
         when(characterService.findByName("Playful Otter")).thenReturn(Optional.of(mockCharacter));
 
         val response = analysisService.analyzeImage(mockFile);
@@ -82,16 +111,16 @@ class AnalysisServiceTest {
         assertEquals("Like the otter, you bring joy to those around you", response.getStory());
 
         verify(imageService).processImage(mockFile);
-        verify(aiService).analyzeImage(processedImageBase64);
+        verify(aiService).analyzeImage(processedImage);
         verify(characterService).findByName("Playful Otter");
     }
 
     @Test
     void testAnalyzeImageCharacterNotFound() throws Exception {
-        val processedImageBase64 = "processedBase64String";
+        val processedImage = processedImage();
         
-        when(imageService.processImage(any())).thenReturn(processedImageBase64);
-        when(aiService.analyzeImage(processedImageBase64)).thenReturn(mockAIResult);
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(aiService.analyzeImage(processedImage)).thenReturn(mockAIResult);
         when(characterService.findByName("Playful Otter")).thenReturn(Optional.empty());
 
         assertThrows(RuntimeException.class, () -> {
@@ -103,16 +132,16 @@ class AnalysisServiceTest {
 
     @Test
     void testAnalyzeImageAIServiceException() throws Exception {
-        val processedImageBase64 = "processedBase64String";
+        val processedImage = processedImage();
         
-        when(imageService.processImage(any())).thenReturn(processedImageBase64);
-        when(aiService.analyzeImage(processedImageBase64)).thenThrow(new RuntimeException("AI service error"));
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(aiService.analyzeImage(processedImage)).thenThrow(new RuntimeException("AI service error"));
 
         assertThrows(RuntimeException.class, () -> {
             analysisService.analyzeImage(mockFile);
         });
 
-        verify(aiService).analyzeImage(processedImageBase64);
+        verify(aiService).analyzeImage(processedImage);
     }
 
     @Test
@@ -124,6 +153,226 @@ class AnalysisServiceTest {
         });
 
         verify(imageService).processImage(mockFile);
-        verify(aiService, never()).analyzeImage(anyString());
+        verify(aiService, never()).analyzeImage(any());
+    }
+
+    @Test
+    void testAnalyzeImageCacheHitSkipsAIService() throws Exception {
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(analysisCache.get("digest")).thenReturn(Optional.of(mockAIResult));
+
+        val response = analysisService.analyzeImage(mockFile);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        verify(aiService, never()).analyzeImage(any());
+        verify(analysisCache, never()).put(any(), any(), any());
+    }
+
+    @Test
+    void testAnalyzeImageCacheMissStoresResult() throws Exception {
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(analysisCache.get("digest")).thenReturn(Optional.empty());
+        when(analysisCache.getSimilar(processedImage)).thenReturn(Optional.empty());
+        when(aiService.analyzeImage(processedImage)).thenReturn(mockAIResult);
+
+        analysisService.analyzeImage(mockFile);
+
+        verify(aiService).analyzeImage(processedImage);
+        verify(analysisCache).put("digest", processedImage, mockAIResult);
+    }
+
+    @Test
+    void testAnalyzeImageNearDuplicateSkipsAIService() throws Exception {
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(analysisCache.get("digest")).thenReturn(Optional.empty());
+        when(analysisCache.getSimilar(processedImage)).thenReturn(Optional.of(mockAIResult));
+
+        val response = analysisService.analyzeImage(mockFile);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        verify(aiService, never()).analyzeImage(any());
+        verify(analysisCache, never()).put(any(), any(), any());
+    }
+
+    @Test
+    void testAnalyzeRawImage() throws Exception {
+        val data = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+        val processedImage = processedImage();
+
+        when(imageService.processRawImage(data)).thenReturn(processedImage);
+        when(aiService.analyzeImage(processedImage)).thenReturn(mockAIResult);
+
+        val response = analysisService.analyzeRawImage(data);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        verify(imageService, never()).processImage(any());
+    }
+
+    @Test
+    void testAnalyzeImageAsync() throws Exception {
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(aiService.analyzeImageAsync(processedImage)).thenReturn(CompletableFuture.completedFuture(mockAIResult));
+
+        val response = analysisService.analyzeImageAsync(mockFile).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        assertEquals(0.92, response.getConfidence());
+        verify(analysisCache).put("digest", processedImage, mockAIResult);
+        verify(aiService, never()).analyzeImage(any());
+    }
+
+    @Test
+    void testAnalyzeImageAsyncCacheHit() throws Exception {
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(analysisCache.get("digest")).thenReturn(Optional.of(mockAIResult));
+
+        val response = analysisService.analyzeImageAsync(mockFile).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        verify(aiService, never()).analyzeImageAsync(any());
+        verify(singleFlight, never()).executeAsync(any(), any());
+    }
+
+    @Test
+    void testAnalyzeImageAsyncFailure() throws Exception {
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(aiService.analyzeImageAsync(processedImage))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("AI service error")));
+
+        val error = assertThrows(ExecutionException.class,
+                () -> analysisService.analyzeImageAsync(mockFile).get(5, TimeUnit.SECONDS));
+
+        assertEquals("AI service error", PreprocessingExecutor.unwrap(error).getMessage());
+        verify(analysisCache, never()).put(any(), any(), any());
+    }
+
+    @Test
+    void testAnalyzeUploadAsync() throws Exception {
+        val processedImage = processedImage();
+
+        when(aiService.analyzeImageAsync(processedImage)).thenReturn(CompletableFuture.completedFuture(mockAIResult));
+
+        val response = analysisService.analyzeUploadAsync(CompletableFuture.completedFuture(processedImage))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        verify(preprocessingExecutor, never()).submit(any());
+    }
+
+    @Test
+    void testAnalyzeImageStreamingPassesListenerUpstream() throws Exception {
+        val processedImage = processedImage();
+        val listener = mock(AnalysisListener.class);
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(aiService.analyzeImageStreaming(processedImage, listener))
+                .thenReturn(CompletableFuture.completedFuture(mockAIResult));
+
+        val response = analysisService.analyzeImageStreaming(mockFile, listener).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Playful Otter", response.getCharacter().getName());
+        verify(listener).onPreprocessed(processedImage);
+        // The upstream call reports the fields itself
+        verify(listener, never()).onField(any(), any());
+        verify(analysisCache).put("digest", processedImage, mockAIResult);
+    }
+
+    @Test
+    void testAnalyzeImageStreamingCacheHitReplaysFields() throws Exception {
+        val processedImage = processedImage();
+        val fields = new ArrayList<String>();
+        val listener = new AnalysisListener() {
+            @Override
+            public void onField(String name, Object value) {
+                fields.add(name);
+            }
+        };
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        when(analysisCache.get("digest")).thenReturn(Optional.of(mockAIResult));
+
+        analysisService.analyzeImageStreaming(mockFile, listener).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("suggestedCharacter", "confidence", "traits", "reasoning", "personalizedStory"), fields);
+        verify(aiService, never()).analyzeImageStreaming(any(), any());
+    }
+
+    @Test
+    void testAnalyzeImageStreamingFollowerGetsReplayedFields() throws Exception {
+        val processedImage = processedImage();
+        val fields = new ArrayList<String>();
+        val listener = new AnalysisListener() {
+            @Override
+            public void onField(String name, Object value) {
+                fields.add(name);
+            }
+        };
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(analysisCache.key(processedImage)).thenReturn("digest");
+        // Another request leads the flight for this image
+        when(singleFlight.executeAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(mockAIResult));
+
+        analysisService.analyzeImageStreaming(mockFile, listener).get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, fields.size());
+        verify(aiService, never()).analyzeImageStreaming(any(), any());
+    }
+
+    @Test
+    void testAnalyzeImageAsyncBlocksOnVirtualThreads() throws Exception {
+        ReflectionTestUtils.setField(analysisService, "virtualThreads", true);
+        val processedImage = processedImage();
+
+        when(imageService.processImage(any())).thenReturn(processedImage);
+        when(aiService.analyzeImage(processedImage)).thenReturn(mockAIResult);
+
+        // The analysis finishes on the calling virtual thread
+        val future = new AtomicReference<CompletableFuture<AnalysisResponse>>();
+        Thread.ofVirtual().start(() -> future.set(analysisService.analyzeImageAsync(mockFile))).join();
+
+        assertTrue(future.get().isDone());
+        assertEquals("Playful Otter", future.get().get().getCharacter().getName());
+        verify(singleFlight).execute(any(), any());
+        verify(aiService, never()).analyzeImageAsync(any());
+    }
+
+    @Test
+    void testAnalyzeImagePreprocessingBusy() throws Exception {
+        when(preprocessingExecutor.submit(any())).thenThrow(new ServiceBusyException("Image preprocessing queue is full", 2));
+
+        assertThrows(ServiceBusyException.class, () -> {
+            analysisService.analyzeImage(mockFile);
+        });
+
+        verify(imageService, never()).processImage(any());
+        verify(aiService, never()).analyzeImage(any());
+    }
+
+    private ProcessedImage processedImage() {
+        return ProcessedImage.builder()
+                .data(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF})
+                .length(3)
+                .mediaType("image/jpeg")
+                .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnswerJsonReaderTest {
+
+    private static final List<String> PREAMBLES = List.of("", "Here is the analysis:\n", "```json\n",
+            "Sure! Based on the photo:\n\n```json\n", "  \n");
+    private static final List<String> SUFFIXES = List.of("", "\n```", "\nThat's the result.",
+            "\n```\nLet me know if you want {more} details }", "\n\n");
+    private static final String TEXT_CHARS = "abc XYZ 019 {}[]:,\"\\\n\t/ü—🦉";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testReadsObjectEmbeddedInProse() throws IOException {
+        val result = read("""
+                Here is the analysis:
+                {
+                    "suggestedCharacter": "Noble Lion",
+                    "confidence": 0.95,
+                    "traits": ["brave", "leader"]
+                }
+                That's the result, with a stray } brace.
+                """);
+
+        assertEquals("Noble Lion", result.getSuggestedCharacter());
+        assertEquals(0.95, result.getConfidence());
+        assertEquals(List.of("brave", "leader"), result.getTraits());
+    }
+
+    @Test
+    void testReadsLiteralNewlinesBetweenTokensAsSpaces() throws IOException {
+        val answer = "{\\n  \"suggestedCharacter\": \"Playful Otter\",\\n  \"confidence\":\\n 0.88,\\n"
+                + "  \"traits\": [\"social\",\\n \"energetic\"],\\r\\n  \"reasoning\": \"Line one\\nline two\"\\n}";
+
+        assertEquals("{   \"suggestedCharacter\": \"Playful Otter\",   \"confidence\":  0.88,   \"traits\": "
+                + "[\"social\",  \"energetic\"],    \"reasoning\": \"Line one\\nline two\" }", drain(answer, 4096));
+        val result = read(answer);
+        assertEquals("Playful Otter", result.getSuggestedCharacter());
+        assertEquals(List.of("social", "energetic"), result.getTraits());
+        assertEquals("Line one\nline two", result.getReasoning());
+    }
+
+    @Test
+    void testKeepsBracesAndQuotesInsideStrings() throws IOException {
+        val result = read("{\"reasoning\": \"A \\\"}\\\" smile {wide}\", \"personalizedStory\": \"\\\\\"} trailing }");
+
+        assertEquals("A \"}\" smile {wide}", result.getReasoning());
+        assertEquals("\\", result.getPersonalizedStory());
+    }
+
+    @Test
+    void testEmptyWithoutObject() throws IOException {
+        val reader = new AnswerJsonReader("This response contains no JSON whatsoever");
+
+        assertFalse(reader.hasObject());
+        assertEquals(-1, reader.read(new char[16], 0, 16));
+    }
+
+    @Test
+    void testStopsAtEndOfTruncatedAnswer() {
+        val answer = "{\"suggestedCharacter\": \"Wise";
+
+        assertEquals(answer, drain(answer, 3));
+        assertThrows(IOException.class, () -> read(answer));
+    }
+
+    @Test
+    void testRandomAnswersRoundTrip() throws IOException {
+        val random = new Random(42);
+        for (var i = 0; i < 2000; i++) {
+            val expected = AIAnalysisResult.builder()
+                    .suggestedCharacter(randomText(random))
+                    .confidence(random.nextInt(1001) / 1000.0)
+                    .traits(randomTraits(random))
+                    .reasoning(randomText(random))
+                    .personalizedStory(randomText(random))
+                    .build();
+            val json = random.nextBoolean()
+                    ? objectMapper.writeValueAsString(expected)
+                    : objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(expected);
+            val answer = PREAMBLES.get(random.nextInt(PREAMBLES.size()))
+                    + withStrayNewlines(json, random)
+                    + SUFFIXES.get(random.nextInt(SUFFIXES.size()));
+
+            val reader = new AnswerJsonReader(answer);
+            assertTrue(reader.hasObject());
+            val actual = objectMapper.readValue(reader, AIAnalysisResult.class);
+            assertEquals(objectMapper.valueToTree(expected), objectMapper.valueToTree(actual), answer);
+        }
+    }
+
+    @Test
+    void testSameTextForEveryBufferSize() {
+        val answer = "Result:\n```json\n{\"traits\": [\"a\",\\n\"b\"], \"reasoning\": \"x\\\\n\\\"}\\\"\"}\n```";
+        val whole = drain(answer, answer.length());
+
+        for (var size = 1; size < answer.length(); size++) {
+            assertEquals(whole, drain(answer, size), "buffer of " + size);
+        }
+    }
+
+    private AIAnalysisResult read(String answer) throws IOException {
+        return objectMapper.readValue(new AnswerJsonReader(answer), AIAnalysisResult.class);
+    }
+
+    private static String drain(String answer, int bufferSize) {
+        val reader = new AnswerJsonReader(answer);
+        val out = new StringBuilder();
+        val buffer = new char[bufferSize];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+            out.append(buffer, 0, count);
+        }
+        return out.toString();
+    }
+
+    // Adds the literal \n Claude sometimes writes after separators, outside of string values
+    private static String withStrayNewlines(String json, Random random) {
+        val out = new StringBuilder();
+        var inString = false;
+        var escape = false;
+        for (var i = 0; i < json.length(); i++) {
+            val c = json.charAt(i);
+            out.append(c);
+            if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if ((c == '{' || c == ',' || c == ':' || c == '[') && random.nextInt(3) == 0) {
+                out.append("\\n");
+            }
+        }
+        return out.toString();
+    }
+
+    private static String randomText(Random random) {
+        val out = new StringBuilder();
+        val length = random.nextInt(40);
+        for (var i = 0; i < length; i++) {
+            val c = TEXT_CHARS.codePointAt(TEXT_CHARS.offsetByCodePoints(0, random.nextInt(TEXT_CHARS.codePointCount(0, TEXT_CHARS.length()))));
+            out.appendCodePoint(c);
+        }
+        return out.toString();
+    }
+
+    private static List<String> randomTraits(Random random) {
+        val traits = new ArrayList<String>();
+        val count = random.nextInt(5);
+        for (var i = 0; i < count; i++) {
+            traits.add(randomText(random));
+        }
+        return traits;
+    }
+}
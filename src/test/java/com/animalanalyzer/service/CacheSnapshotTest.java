@@ -0,0 +1,169 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSnapshotTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final String promptVersion = new PromptRegistry("", false).current().version();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRestoresResultsAndHashes() throws IOException {
+        val path = tempDir.resolve("snapshot.bin");
+        val before = new Node("model-a");
+        val image = image(0x0F0F_0F0FL, 1, 2, 3);
+        val key = before.cache.key(image);
+        before.cache.put(key, image, result("Wise Owl"));
+        before.snapshot(path).save();
+
+        val after = new Node("model-a");
+        val restored = after.snapshot(path).restore();
+
+        assertEquals(1, restored);
+        assertEquals("Wise Owl", after.cache.get(key).orElseThrow().getSuggestedCharacter());
+        assertEquals(List.of("brave", "loyal"), after.cache.get(key).orElseThrow().getTraits());
+        assertEquals(1, after.index.size());
+        assertEquals("Wise Owl", after.cache.getSimilar(image(0x0F0F_0F0EL, 9)).orElseThrow().getSuggestedCharacter());
+    }
+
+    @Test
+    void testIgnoresSnapshotForOtherModel() throws IOException {
+        val path = tempDir.resolve("snapshot.bin");
+        val before = new Node("model-a");
+        val image = image(0L, 1);
+        before.cache.put(before.cache.key(image), image, result("Wise Owl"));
+        before.snapshot(path).save();
+
+        val after = new Node("model-b");
+
+        assertEquals(-1, after.snapshot(path).restore());
+        assertEquals(0, after.index.size());
+    }
+
+    @Test
+    void testIgnoresCorruptSnapshot() throws IOException {
+        val path = tempDir.resolve("snapshot.bin");
+        val before = new Node("model-a");
+        val image = image(0L, 1);
+        before.cache.put(before.cache.key(image), image, result("Wise Owl"));
+        before.snapshot(path).save();
+
+        val bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 0x40;
+        Files.write(path, bytes);
+
+        val after = new Node("model-a");
+        assertEquals(-1, after.snapshot(path).restore());
+        assertTrue(after.cache.get(after.cache.key(image)).isEmpty());
+    }
+
+    @Test
+    void testReplacesPreviousSnapshot() throws IOException {
+        val path = tempDir.resolve("nested/snapshot.bin");
+        val node = new Node("model-a");
+        node.snapshot(path).save();
+        val image = image(0L, 1);
+        node.cache.put(node.cache.key(image), image, result("Wise Owl"));
+        node.snapshot(path).save();
+
+        assertEquals(1, new Node("model-a").snapshot(path).restore());
+        try (var files = Files.list(path.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testLeavesOutResultsOfAnOlderPrompt() throws IOException {
+        val path = tempDir.resolve("snapshot.bin");
+        val prompts = tempDir.resolve("prompts");
+        Files.createDirectories(prompts);
+        Files.writeString(prompts.resolve(PromptRegistry.TEMPLATE), "Prompt A");
+        val registry = new PromptRegistry(prompts.toString(), false);
+        val index = new NearDuplicateIndex(meterRegistry, true, 6, 1000);
+        val cache = new AnalysisCache(objectMapper, index, registry, meterRegistry, true, 100, "", 4096, "model-a");
+        val old = image(0L, 1);
+        val oldResult = result("Wise Owl");
+        oldResult.setPromptVersion(cache.getPromptVersion());
+        cache.put(cache.key(old), old, oldResult);
+
+        Files.writeString(prompts.resolve(PromptRegistry.TEMPLATE), "Prompt B");
+        assertTrue(registry.reload());
+        val fresh = image(0xFFFF_0000L, 2);
+        val freshResult = result("Noble Lion");
+        freshResult.setPromptVersion(cache.getPromptVersion());
+        cache.put(cache.key(fresh), fresh, freshResult);
+        new CacheSnapshot(cache, index, objectMapper, path.toString()).save();
+
+        val afterIndex = new NearDuplicateIndex(meterRegistry, true, 6, 1000);
+        val after = new AnalysisCache(objectMapper, afterIndex, registry, meterRegistry, true, 100, "", 4096, "model-a");
+
+        assertEquals(1, new CacheSnapshot(after, afterIndex, objectMapper, path.toString()).restore());
+        assertEquals(1, afterIndex.size());
+        assertEquals("Noble Lion", after.get(after.key(fresh)).orElseThrow().getSuggestedCharacter());
+        registry.close();
+    }
+
+    @Test
+    void testDisabledWithoutPath() {
+        val node = new Node("model-a");
+        val snapshot = new CacheSnapshot(node.cache, node.index, objectMapper, "");
+
+        assertDoesNotThrow(snapshot::saveOnShutdown);
+        assertDoesNotThrow(snapshot::restoreInBackground);
+    }
+
+    private class Node {
+
+        final NearDuplicateIndex index = new NearDuplicateIndex(meterRegistry, true, 6, 1000);
+        final AnalysisCache cache;
+
+        Node(String model) {
+            cache = new AnalysisCache(objectMapper, index, new PromptRegistry("", false), meterRegistry, true, 100, "", 4096, model);
+        }
+
+        CacheSnapshot snapshot(Path path) {
+            return new CacheSnapshot(cache, index, objectMapper, path.toString());
+        }
+    }
+
+    private static ProcessedImage image(long perceptualHash, int... values) {
+        val data = new byte[values.length];
+        for (var i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return ProcessedImage.builder()
+                .data(data)
+                .length(data.length)
+                .mediaType("image/jpeg")
+                .perceptualHash(perceptualHash)
+                .build();
+    }
+
+    private AIAnalysisResult result(String character) {
+        return AIAnalysisResult.builder()
+                .suggestedCharacter(character)
+                .promptVersion(promptVersion)
+                .confidence(0.9)
+                .traits(List.of("brave", "loyal"))
+                .reasoning("reasoning")
+                .personalizedStory("story")
+                .build();
+    }
+}
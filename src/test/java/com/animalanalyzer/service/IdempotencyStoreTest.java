@@ -0,0 +1,162 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyStoreTest {
+
+    private static final byte[] REQUEST = IdempotencyStore.fingerprint("image bytes".getBytes(StandardCharsets.UTF_8));
+    private static final byte[] OTHER_REQUEST = IdempotencyStore.fingerprint("other image".getBytes(StandardCharsets.UTF_8));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final IdempotencyStore store = new IdempotencyStore(meterRegistry, 100, 3600);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void testReplayReturnsOriginalBytes() throws Exception {
+        val first = store.execute("key-1", REQUEST, this::respond);
+        val replay = store.execute("key-1", REQUEST, this::respond);
+
+        assertFalse(first.replayed());
+        assertTrue(replay.replayed());
+        assertSame(first.body(), replay.body());
+        assertEquals(1, calls.get());
+        assertEquals(1.0, meterRegistry.get("analysis.idempotency.requests").tag("result", "replayed").counter().count());
+    }
+
+    @Test
+    void testDifferentKeysRunSeparately() throws Exception {
+        store.execute("key-1", REQUEST, this::respond);
+        store.execute("key-2", REQUEST, this::respond);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void testKeyReusedForDifferentRequest() throws Exception {
+        store.execute("key-1", REQUEST, this::respond);
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> store.execute("key-1", OTHER_REQUEST, this::respond));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testFailedWorkCanBeRetried() throws Exception {
+        assertThrows(IOException.class, () -> store.execute("key-1", REQUEST, () -> {
+            throw new IOException("upstream failed");
+        }));
+
+        val retry = store.execute("key-1", REQUEST, this::respond);
+
+        assertFalse(retry.replayed());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testConcurrentDuplicateWaitsForOriginal() throws Exception {
+        val started = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val original = callers.submit(() -> store.execute("key-1", REQUEST, () -> {
+            started.countDown();
+            release.await();
+            return respond();
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        val duplicate = callers.submit(() -> store.execute("key-1", REQUEST, this::respond));
+        Thread.sleep(50);
+        assertFalse(duplicate.isDone());
+        release.countDown();
+
+        assertFalse(original.get(5, TimeUnit.SECONDS).replayed());
+        assertTrue(duplicate.get(5, TimeUnit.SECONDS).replayed());
+        assertSame(original.get().body(), duplicate.get().body());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testRejectsInvalidKeys() {
+        assertThrows(IllegalArgumentException.class, () -> store.execute(" ", REQUEST, this::respond));
+        assertThrows(IllegalArgumentException.class, () -> store.execute("k".repeat(256), REQUEST, this::respond));
+    }
+
+    @Test
+    void testAsyncReplayWaitsForOriginal() throws Exception {
+        val work = new CompletableFuture<IdempotencyStore.Outcome>();
+        val original = store.executeAsync("key-1", REQUEST, () -> work);
+        val duplicate = store.executeAsync("key-1", REQUEST, () -> CompletableFuture.completedFuture(respond()));
+
+        assertFalse(duplicate.isDone());
+        work.complete(respond());
+
+        assertFalse(original.get(5, TimeUnit.SECONDS).replayed());
+        assertTrue(duplicate.get(5, TimeUnit.SECONDS).replayed());
+        assertSame(original.get().body(), duplicate.get().body());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testAsyncFailedWorkCanBeRetried() throws Exception {
+        val failed = store.executeAsync("key-1", REQUEST,
+                () -> CompletableFuture.failedFuture(new IOException("upstream failed")));
+        val error = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, PreprocessingExecutor.unwrap(error));
+
+        val retry = store.executeAsync("key-1", REQUEST, () -> CompletableFuture.completedFuture(respond()));
+
+        assertFalse(retry.get(5, TimeUnit.SECONDS).replayed());
+        assertThrows(IdempotencyKeyReusedException.class, () -> store.executeAsync("key-1",
+                OTHER_REQUEST, () -> CompletableFuture.completedFuture(respond())));
+    }
+
+    @Test
+    void testFallbackIsAnsweredButNotReplayed() throws Exception {
+        val fallback = store.executeAsync("key-1", REQUEST,
+                () -> CompletableFuture.completedFuture(new IdempotencyStore.Outcome(respond().body(), false)));
+        assertFalse(fallback.get(5, TimeUnit.SECONDS).replayed());
+
+        val retry = store.executeAsync("key-1", REQUEST, () -> CompletableFuture.completedFuture(respond()));
+
+        assertFalse(retry.get(5, TimeUnit.SECONDS).replayed());
+        assertEquals(2, calls.get());
+        assertTrue(store.executeAsync("key-1", REQUEST, () -> CompletableFuture.completedFuture(respond()))
+                .get(5, TimeUnit.SECONDS).replayed());
+    }
+
+    @Test
+    void testFingerprintOfStreamMatchesBytes() throws IOException {
+        val body = new byte[100_000];
+        new Random(42).nextBytes(body);
+
+        assertArrayEquals(IdempotencyStore.fingerprint(body),
+                IdempotencyStore.fingerprint(new ByteArrayInputStream(body)));
+    }
+
+    private IdempotencyStore.Outcome respond() {
+        return new IdempotencyStore.Outcome(
+                ("{\"call\" : " + calls.incrementAndGet() + "}").getBytes(StandardCharsets.UTF_8), true);
+    }
+}
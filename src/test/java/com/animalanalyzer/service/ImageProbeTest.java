@@ -0,0 +1,125 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.ImageFormat;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageProbeTest {
+
+    private final ImageProbe imageProbe = new ImageProbe(50_000_000, 1, 32);
+
+    @Test
+    void testProbeJpeg() throws IOException {
+        val info = imageProbe.probe(encode(new BufferedImage(1200, 900, BufferedImage.TYPE_INT_RGB), "jpg"));
+
+        assertEquals(ImageFormat.JPEG, info.getFormat());
+        assertEquals(1200, info.getWidth());
+        assertEquals(900, info.getHeight());
+        assertEquals(1, info.getFrames());
+        assertEquals(24, info.getBitsPerPixel());
+    }
+
+    @Test
+    void testProbePngWithAlpha() throws IOException {
+        val info = imageProbe.probe(encode(new BufferedImage(640, 480, BufferedImage.TYPE_INT_ARGB), "png"));
+
+        assertEquals(ImageFormat.PNG, info.getFormat());
+        assertEquals(640, info.getWidth());
+        assertEquals(480, info.getHeight());
+        assertEquals(32, info.getBitsPerPixel());
+    }
+
+    @Test
+    void testRejectsTooManyPixels() {
+        val exception = assertThrows(IllegalArgumentException.class,
+                () -> imageProbe.probe(pngHeader(30000, 30000, 8, 6)));
+
+        assertTrue(exception.getMessage().contains("30000x30000"));
+    }
+
+    @Test
+    void testRejectsDeepColor() {
+        val exception = assertThrows(IllegalArgumentException.class,
+                () -> imageProbe.probe(pngHeader(100, 100, 16, 6)));
+
+        assertTrue(exception.getMessage().contains("64 bits per pixel"));
+    }
+
+    @Test
+    void testRejectsAnimatedPng() {
+        val actl = chunk("acTL", ByteBuffer.allocate(8).putInt(24).putInt(0).array());
+
+        val exception = assertThrows(IllegalArgumentException.class,
+                () -> imageProbe.probe(pngHeader(100, 100, 8, 6, actl)));
+
+        assertTrue(exception.getMessage().contains("24 frames"));
+    }
+
+    @Test
+    void testTryProbeNeedsMoreBytes() throws IOException {
+        val jpeg = encode(new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB), "jpg");
+
+        assertTrue(imageProbe.tryProbe(jpeg, 4).isEmpty());
+        assertTrue(imageProbe.tryProbe(jpeg, jpeg.length).isPresent());
+    }
+
+    @Test
+    void testRejectsUnknownFormat() {
+        assertThrows(IllegalArgumentException.class, () -> imageProbe.probe("GIF89a-not-supported".getBytes()));
+    }
+
+    @Test
+    void testRejectsTruncatedHeader() {
+        assertThrows(IllegalArgumentException.class, () -> imageProbe.probe(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}));
+    }
+
+    /**
+     * PNG signature, IHDR, any extra chunks and the start of IDAT. CRCs are left
+     * as zero since the probe never checks them.
+     */
+    static byte[] pngHeader(int width, int height, int bitDepth, int colorType, byte[]... extraChunks) {
+        val ihdr = ByteBuffer.allocate(13)
+                .putInt(width)
+                .putInt(height)
+                .put((byte) bitDepth)
+                .put((byte) colorType)
+                .put(new byte[3])
+                .array();
+        val signature = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        return concat(signature, chunk("IHDR", ihdr), concat(extraChunks), chunk("IDAT", new byte[16]));
+    }
+
+    private static byte[] chunk(String type, byte[] data) {
+        return ByteBuffer.allocate(12 + data.length)
+                .putInt(data.length)
+                .put(type.getBytes(StandardCharsets.US_ASCII))
+                .put(data)
+                .putInt(0)
+                .array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        val length = Arrays.stream(parts).mapToInt(p -> p.length).sum();
+        val buffer = ByteBuffer.allocate(length);
+        for (val part : parts) {
+            buffer.put(part);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        val baos = new ByteArrayOutputStream();
+        ImageIO.write(image, format, baos);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,77 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageResamplerTest {
+
+    @ParameterizedTest
+    @EnumSource(ResampleQuality.class)
+    void testResizeProducesRequestedDimensions(ResampleQuality quality) {
+        val resampler = new ImageResampler(quality, 64);
+
+        try (var resized = resampler.resize(gradient(1500, 1000), 1024, 682)) {
+            assertEquals(1024, resized.image().getWidth());
+            assertEquals(682, resized.image().getHeight());
+            assertEquals(BufferedImage.TYPE_INT_RGB, resized.image().getType());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ResampleQuality.class)
+    void testResizePreservesSolidColor(ResampleQuality quality) {
+        val resampler = new ImageResampler(quality, 64);
+        val source = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+        for (var y = 0; y < 200; y++) {
+            for (var x = 0; x < 300; x++) {
+                source.setRGB(x, y, 0x3366CC);
+            }
+        }
+
+        try (var resized = resampler.resize(source, 137, 91)) {
+            assertEquals(0x3366CC, resized.image().getRGB(0, 0) & 0xFFFFFF);
+            assertEquals(0x3366CC, resized.image().getRGB(68, 45) & 0xFFFFFF);
+            assertEquals(0x3366CC, resized.image().getRGB(136, 90) & 0xFFFFFF);
+        }
+    }
+
+    @Test
+    void testTilingDoesNotChangeResult() {
+        val source = gradient(800, 600);
+
+        try (var singleTile = new ImageResampler(ResampleQuality.LANCZOS, 10_000).resize(source, 333, 250);
+             var manyTiles = new ImageResampler(ResampleQuality.LANCZOS, 1).resize(source, 333, 250)) {
+            for (var y = 0; y < 250; y++) {
+                for (var x = 0; x < 333; x++) {
+                    assertEquals(singleTile.image().getRGB(x, y), manyTiles.image().getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testSameSizeReturnsSource() {
+        val resampler = new ImageResampler(ResampleQuality.AREA_AVERAGE, 64);
+        val source = gradient(640, 480);
+
+        try (var resized = resampler.resize(source, 640, 480)) {
+            assertSame(source, resized.image());
+        }
+    }
+
+    private BufferedImage gradient(int width, int height) {
+        val image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                image.setRGB(x, y, (x % 256) << 16 | (y % 256) << 8 | ((x + y) % 256));
+            }
+        }
+        return image;
+    }
+}
@@ -1,12 +1,21 @@
 package com.animalanalyzer.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.val;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.mock.web.MockMultipartFile;
+import reactor.core.publisher.Flux;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -16,7 +25,7 @@ class ImageServiceTest {
 
     @BeforeEach
     void setUp() {
-        imageService = new ImageService();
+        imageService = createImageService(true, 1400);
     }
 
     @Test
@@ -123,4 +132,321 @@ class ImageServiceTest {
             imageService.processImage(file);
         });
     }
+
+    @Test
+    void testProcessImageLargeJpegIsDownscaled() throws IOException {
+        MockMultipartFile file = new MockMultipartFile(
+                "image",
+                "large.jpg",
+                "image/jpeg",
+                createImage(3000, 2000, "jpg")
+        );
+
+        val result = ImageIO.read(imageService.processImage(file).openStream());
+
+        assertEquals(1024, result.getWidth());
+        assertEquals(682, result.getHeight());
+    }
+
+    @Test
+    void testProcessImageUnreadableContent() {
+        MockMultipartFile file = new MockMultipartFile(
+                "image",
+                "test.jpg",
+                "image/jpeg",
+                new byte[1024]
+        );
+
+        assertThrows(IllegalArgumentException.class, () -> imageService.processImage(file));
+    }
+
+    @Test
+    void testProcessImageSmallJpegPassesThrough() throws IOException {
+        val original = createImage(800, 600, "jpg");
+        MockMultipartFile file = new MockMultipartFile("image", "small.jpg", "image/jpeg", original);
+
+        val result = imageService.processImage(file);
+
+        assertEquals("image/jpeg", result.getMediaType());
+        assertArrayEquals(original, result.openStream().readAllBytes());
+    }
+
+    @Test
+    void testProcessImageSmallPngKeepsMediaType() throws IOException {
+        val original = createImage(640, 480, "png");
+        // Clients sometimes mislabel the upload; the magic bytes win
+        MockMultipartFile file = new MockMultipartFile("image", "small.jpg", "image/jpeg", original);
+
+        val result = imageService.processImage(file);
+
+        assertEquals("image/png", result.getMediaType());
+        assertArrayEquals(original, result.openStream().readAllBytes());
+    }
+
+    @Test
+    void testProcessImageTransparentPngIsFlattenedToJpeg() throws IOException {
+        val image = new BufferedImage(2048, 1024, BufferedImage.TYPE_INT_ARGB);
+        val baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", baos);
+        MockMultipartFile file = new MockMultipartFile("image", "alpha.png", "image/png", baos.toByteArray());
+
+        val result = imageService.processImage(file);
+        val decoded = ImageIO.read(result.openStream());
+
+        assertEquals("image/jpeg", result.getMediaType());
+        assertEquals(1024, decoded.getWidth());
+        assertEquals(512, decoded.getHeight());
+        // Fully transparent pixels end up white rather than black
+        assertTrue((decoded.getRGB(512, 256) & 0xFF) > 240);
+    }
+
+    @Test
+    void testProcessImagePassthroughDisabledReencodes() throws IOException {
+        val service = createImageService(false, 1400);
+        val image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        val baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", baos);
+        MockMultipartFile file = new MockMultipartFile("image", "alpha.png", "image/png", baos.toByteArray());
+
+        val result = service.processImage(file);
+        val decoded = ImageIO.read(result.openStream());
+
+        assertEquals("image/jpeg", result.getMediaType());
+        assertEquals(400, decoded.getWidth());
+        assertEquals(300, decoded.getHeight());
+    }
+
+    @Test
+    void testProcessImageRejectsDecompressionBomb() {
+        // Valid PNG header declaring 30000x30000 pixels; the pixel data is never reached
+        MockMultipartFile file = new MockMultipartFile(
+                "image",
+                "bomb.png",
+                "image/png",
+                ImageProbeTest.pngHeader(30000, 30000, 8, 2)
+        );
+
+        val exception = assertThrows(IllegalArgumentException.class, () -> imageService.processImage(file));
+
+        assertTrue(exception.getMessage().contains("pixel limit"));
+    }
+
+    @Test
+    void testProcessImageHonorsTokenBudget() throws IOException {
+        // 400 tokens allow roughly 300000 pixels
+        val service = createImageService(true, 400);
+        MockMultipartFile file = new MockMultipartFile("image", "medium.jpg", "image/jpeg", createImage(1000, 1000, "jpg"));
+
+        val result = service.processImage(file);
+
+        assertEquals(547, result.getWidth());
+        assertEquals(547, result.getHeight());
+        assertTrue(ImageTokenBudget.estimateTokens(result.getWidth(), result.getHeight()) <= 400);
+    }
+
+    @Test
+    void testReadImageWithContentLength() throws IOException {
+        val png = createImage(40, 30, "png");
+
+        val data = imageService.readImage(new ByteArrayInputStream(png), png.length, "image/png");
+
+        assertArrayEquals(png, data);
+    }
+
+    @Test
+    void testReadImageWithoutContentLength() throws IOException {
+        val jpeg = createImage(1200, 900, "jpg");
+
+        val data = imageService.readImage(new ByteArrayInputStream(jpeg), -1, "image/jpeg");
+
+        assertArrayEquals(jpeg, data);
+    }
+
+    @Test
+    void testReadImageRejectsDeclaredOversizeBody() {
+        val exception = assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(new ByteArrayInputStream(new byte[0]), 11 * 1024 * 1024, "image/jpeg"));
+
+        assertEquals("Image size exceeds 10MB limit", exception.getMessage());
+    }
+
+    @Test
+    void testReadImageRejectsOversizeStream() throws IOException {
+        // Valid header, then padding past the limit; only the limit plus one byte is read
+        val body = new CountingInputStream(createImage(40, 30, "png"), 11 * 1024 * 1024);
+
+        val exception = assertThrows(IllegalArgumentException.class, () -> imageService.readImage(body, -1, "image/png"));
+
+        assertEquals("Image size exceeds 10MB limit", exception.getMessage());
+        assertEquals(10 * 1024 * 1024 + 1, body.consumed);
+    }
+
+    @Test
+    void testReadImageRejectsNonImageEarly() {
+        val body = new CountingInputStream("GIF89a and then a lot more".getBytes(), 5 * 1024 * 1024);
+
+        assertThrows(IllegalArgumentException.class, () -> imageService.readImage(body, -1, "image/png"));
+        assertTrue(body.consumed < 1024 * 1024);
+    }
+
+    @Test
+    void testReadImageRejectsDecompressionBombBeforeBody() {
+        val header = ImageProbeTest.pngHeader(30000, 30000, 8, 2);
+        val body = new CountingInputStream(header, 8 * 1024 * 1024);
+
+        val exception = assertThrows(IllegalArgumentException.class, () -> imageService.readImage(body, body.total, "image/png"));
+
+        assertTrue(exception.getMessage().contains("pixel limit"));
+        assertTrue(body.consumed < 1024 * 1024);
+    }
+
+    @Test
+    void testReadImageRejectsTruncatedAndOverlongBodies() throws IOException {
+        val png = createImage(40, 30, "png");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(new ByteArrayInputStream(png), png.length + 10, "image/png"));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(new ByteArrayInputStream(png), png.length - 10, "image/png"));
+    }
+
+    @Test
+    void testReadImageRejectsEmptyBodyAndWrongType() {
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(new ByteArrayInputStream(new byte[0]), 0, "image/png"));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(new ByteArrayInputStream(new byte[8]), 8, "image/gif"));
+    }
+
+    @Test
+    void testReadImageFromBuffers() throws IOException {
+        val jpeg = createImage(1200, 900, "jpg");
+
+        val data = imageService.readImage(buffers(jpeg, jpeg.length, 8192), "image/jpeg").block();
+
+        assertArrayEquals(jpeg, data);
+    }
+
+    @Test
+    void testReadImageFromBuffersRejectsOversizeBody() throws IOException {
+        val emitted = new AtomicLong();
+        val body = buffers(createImage(40, 30, "png"), 11 * 1024 * 1024, 64 * 1024).doOnNext(buffer -> emitted.incrementAndGet());
+
+        val exception = assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(body, "image/png").block());
+
+        assertEquals("Image size exceeds 10MB limit", exception.getMessage());
+        // The body is cancelled at the buffer that crosses the limit
+        assertEquals(10 * 16 + 1, emitted.get());
+    }
+
+    @Test
+    void testReadImageFromBuffersRejectsNonImageEarly() {
+        val emitted = new AtomicLong();
+        val body = buffers("GIF89a and then a lot more".getBytes(), 5 * 1024 * 1024, 8192).doOnNext(buffer -> emitted.incrementAndGet());
+
+        assertThrows(IllegalArgumentException.class, () -> imageService.readImage(body, "image/png").block());
+        assertTrue(emitted.get() < 128);
+    }
+
+    @Test
+    void testReadImageFromBuffersRejectsEmptyBodyAndWrongType() {
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(Flux.empty(), "image/png").block());
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.readImage(buffers(new byte[8], 8, 8), "image/gif").block());
+    }
+
+    @Test
+    void testProcessRawImagePassesThroughSameArray() throws IOException {
+        val png = createImage(400, 300, "png");
+        val data = imageService.readImage(new ByteArrayInputStream(png), png.length, "image/png");
+
+        val result = imageService.processRawImage(data);
+
+        assertSame(data, result.getData());
+        assertEquals("image/png", result.getMediaType());
+    }
+
+    @Test
+    void testSubsamplingFactor() {
+        assertEquals(1, ImageService.subsamplingFactor(800, 600, 800, 600));
+        assertEquals(1, ImageService.subsamplingFactor(2000, 1500, 1024, 768));
+        assertEquals(5, ImageService.subsamplingFactor(6000, 4000, 1024, 682));
+        assertEquals(5, ImageService.subsamplingFactor(4000, 6000, 682, 1024));
+    }
+
+    // Body of {@code total} bytes starting with {@code prefix} and zero-padded, in {@code size} byte buffers
+    private static Flux<DataBuffer> buffers(byte[] prefix, long total, int size) {
+        val factory = DefaultDataBufferFactory.sharedInstance;
+        return Flux.generate(() -> 0L, (offset, sink) -> {
+            if (offset >= total) {
+                sink.complete();
+                return offset;
+            }
+            val chunk = new byte[(int) Math.min(size, total - offset)];
+            if (offset < prefix.length) {
+                System.arraycopy(prefix, (int) offset, chunk, 0, (int) Math.min(chunk.length, prefix.length - offset));
+            }
+            sink.next(factory.wrap(chunk));
+            return offset + chunk.length;
+        });
+    }
+
+    private ImageService createImageService(boolean passthrough, int maxTokens) {
+        val tokenBudget = new ImageTokenBudget(new SimpleMeterRegistry(), 1024, maxTokens, 400, 200, false, 20000, 20);
+        return new ImageService(
+                new ImageProbe(50_000_000, 1, 32),
+                new ImageResampler(ResampleQuality.AREA_AVERAGE, 64),
+                new JpegEncoder(0, 0, 0.4f, 0.92f, 5),
+                tokenBudget,
+                passthrough,
+                1024 * 1024,
+                true
+        );
+    }
+
+    // Serves a prefix followed by zero padding up to a total length, counting what was read
+    private static final class CountingInputStream extends InputStream {
+
+        private final byte[] prefix;
+        private final long total;
+        private long consumed;
+
+        CountingInputStream(byte[] prefix, long total) {
+            this.prefix = prefix;
+            this.total = total;
+        }
+
+        @Override
+        public int read() {
+            if (consumed == total) {
+                return -1;
+            }
+            val value = consumed < prefix.length ? prefix[(int) consumed] & 0xFF : 0;
+            consumed++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (consumed == total) {
+                return -1;
+            }
+            // Hand out at most 8KB at a time, like a socket
+            val count = (int) Math.min(Math.min(length, 8192), total - consumed);
+            for (var i = 0; i < count; i++) {
+                buffer[offset + i] = consumed < prefix.length ? prefix[(int) consumed] : 0;
+                consumed++;
+            }
+            return count;
+        }
+    }
+
+    private byte[] createImage(int width, int height, String format) throws IOException {
+        val image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        val baos = new ByteArrayOutputStream();
+        ImageIO.write(image, format, baos);
+        return baos.toByteArray();
+    }
 }
\ No newline at end of file
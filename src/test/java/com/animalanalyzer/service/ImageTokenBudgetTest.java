@@ -0,0 +1,101 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageTokenBudgetTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ImageTokenBudget budget(int maxTokens, boolean adaptive) {
+        return new ImageTokenBudget(meterRegistry, 1024, maxTokens, 400, 200, adaptive, 1000, 4);
+    }
+
+    @Test
+    void testDefaultBudgetMatchesMaxDimension() {
+        val target = budget(1400, false).chooseTarget(3000, 2000);
+
+        assertEquals(1024, target.width());
+        assertEquals(682, target.height());
+        assertTrue(target.estimatedTokens() <= 1400);
+    }
+
+    @Test
+    void testSmallImageIsNotUpscaled() {
+        val target = budget(1400, false).chooseTarget(640, 480);
+
+        assertTrue(target.isOriginalSize(640, 480));
+        assertEquals(ImageTokenBudget.estimateTokens(640, 480), target.estimatedTokens());
+    }
+
+    @Test
+    void testTokenBudgetLimitsArea() {
+        val target = budget(600, false).chooseTarget(2000, 1000);
+
+        assertTrue(target.estimatedTokens() <= 600);
+        assertEquals(2.0, (double) target.width() / target.height(), 0.01);
+        assertTrue(target.width() < 1024);
+    }
+
+    @Test
+    void testRecordsMetrics() {
+        budget(1400, false).chooseTarget(3000, 2000);
+
+        assertEquals(1400, meterRegistry.get("image.token.budget").gauge().value());
+        assertEquals(1, meterRegistry.get("image.tokens.estimated").summary().count());
+        assertEquals(1024, meterRegistry.get("image.target.long.edge").summary().max());
+    }
+
+    @Test
+    void testAdaptiveStepsDownOnSlowWindow() {
+        val budget = budget(1400, true);
+
+        for (var i = 0; i < 4; i++) {
+            budget.recordUpstreamLatency(5000);
+        }
+
+        assertEquals(1200, budget.getCurrentBudget());
+    }
+
+    @Test
+    void testAdaptiveStepsDownOnRateLimitAndRecovers() {
+        val budget = budget(1400, true);
+
+        budget.recordRateLimited();
+        budget.recordRateLimited();
+        assertEquals(1000, budget.getCurrentBudget());
+
+        for (var i = 0; i < 4; i++) {
+            budget.recordUpstreamLatency(100);
+        }
+        assertEquals(1200, budget.getCurrentBudget());
+    }
+
+    @Test
+    void testAdaptiveBudgetIsClamped() {
+        val budget = budget(1400, true);
+
+        for (var i = 0; i < 10; i++) {
+            budget.recordRateLimited();
+        }
+        assertEquals(400, budget.getCurrentBudget());
+
+        for (var i = 0; i < 40; i++) {
+            budget.recordUpstreamLatency(100);
+        }
+        assertEquals(1400, budget.getCurrentBudget());
+    }
+
+    @Test
+    void testStaticBudgetIgnoresFeedback() {
+        val budget = budget(1400, false);
+
+        budget.recordRateLimited();
+        budget.recordUpstreamLatency(60000);
+
+        assertEquals(1400, budget.getCurrentBudget());
+    }
+}
@@ -0,0 +1,82 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegEncoderTest {
+
+    @Test
+    void testDefaultQualityWithoutTarget() throws IOException {
+        val encoder = new JpegEncoder(0, 0, 0.4f, 0.92f, 5);
+
+        val bytes = encode(encoder, photo(640, 480));
+
+        assertEquals(640, ImageIO.read(new ByteArrayInputStream(bytes)).getWidth());
+        assertNull(encoder.cachedQuality(640, 480));
+    }
+
+    @Test
+    void testEncodesUnderTargetSize() throws IOException {
+        val image = photo(1024, 682);
+        val defaultSize = encode(new JpegEncoder(0, 0, 0.4f, 0.92f, 5), image).length;
+        val target = defaultSize / 2;
+        val encoder = new JpegEncoder(0, target, 0.4f, 0.92f, 6);
+
+        val first = encode(encoder, image);
+        val quality = encoder.cachedQuality(1024, 682);
+        val second = encode(encoder, image);
+
+        assertTrue(first.length <= target, "first encode " + first.length + " > " + target);
+        assertTrue(second.length <= target, "second encode " + second.length + " > " + target);
+        assertNotNull(quality);
+        assertEquals(quality, encoder.cachedQuality(1024, 682));
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(second)));
+    }
+
+    @Test
+    void testUnreachableTargetFallsBackToSmallestOutput() throws IOException {
+        val encoder = new JpegEncoder(0, 100, 0.4f, 0.92f, 3);
+
+        val bytes = encode(encoder, photo(320, 240));
+
+        assertTrue(bytes.length > 100);
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(bytes)));
+        assertEquals(0.4f, encoder.cachedQuality(320, 240));
+    }
+
+    @Test
+    void testRejectsInvalidQualityRange() {
+        assertThrows(IllegalArgumentException.class, () -> new JpegEncoder(0, 1000, 0.9f, 0.5f, 5));
+        assertThrows(IllegalArgumentException.class, () -> new JpegEncoder(0, 1000, 0f, 0.9f, 5));
+    }
+
+    private static byte[] encode(JpegEncoder encoder, BufferedImage image) throws IOException {
+        val out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage photo(int width, int height) {
+        // Smooth gradients with mild noise compress roughly like a photograph
+        val random = new Random(42);
+        val image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                val r = (x * 255 / width + random.nextInt(24)) & 0xFF;
+                val g = (y * 255 / height + random.nextInt(24)) & 0xFF;
+                val b = ((x + y) / 4 + random.nextInt(24)) & 0xFF;
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+}
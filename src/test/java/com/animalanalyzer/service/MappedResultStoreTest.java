@@ -0,0 +1,116 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedResultStoreTest {
+
+    private static final String KEY_A = "ab".repeat(32);
+    private static final String KEY_B = "cd".repeat(32);
+    private static final String KEY_C = "ef".repeat(32);
+    private static final int GENERATION = 7;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRecordsSurviveReopen() throws IOException {
+        val path = tempDir.resolve("results/store.bin");
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            assertTrue(store.put(KEY_A, GENERATION, bytes("first")));
+            assertTrue(store.put(KEY_B, GENERATION, bytes("second")));
+            assertFalse(store.put(KEY_A, GENERATION, bytes("ignored")));
+        }
+
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            assertEquals(2, store.size());
+            assertEquals("first", new String(store.get(KEY_A), StandardCharsets.UTF_8));
+            assertEquals("second", new String(store.get(KEY_B), StandardCharsets.UTF_8));
+            assertNull(store.get(KEY_C));
+        }
+    }
+
+    @Test
+    void testCorruptTailIsDiscarded() throws IOException {
+        val path = tempDir.resolve("store.bin");
+        int firstRecordEnd;
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            store.put(KEY_A, GENERATION, bytes("first"));
+            firstRecordEnd = store.usedBytes();
+            store.put(KEY_B, GENERATION, bytes("second"));
+        }
+
+        // Flip a payload byte of the second record
+        val content = Files.readAllBytes(path);
+        content[firstRecordEnd + MappedResultStore.HEADER_BYTES + MappedResultStore.DIGEST_BYTES] ^= 1;
+        Files.write(path, content);
+
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            assertEquals(1, store.size());
+            assertEquals(firstRecordEnd, store.usedBytes());
+            assertNull(store.get(KEY_B));
+            assertTrue(store.put(KEY_B, GENERATION, bytes("rewritten")));
+        }
+    }
+
+    @Test
+    void testReopeningCompactsAwayOtherGenerations() throws IOException {
+        val path = tempDir.resolve("store.bin");
+        int usedBefore;
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            store.put(KEY_A, GENERATION - 1, bytes("stale"));
+            store.put(KEY_B, GENERATION, bytes("live"));
+            store.put(KEY_C, GENERATION - 1, bytes("stale too"));
+            usedBefore = store.usedBytes();
+        }
+
+        int usedAfter;
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            assertEquals(1, store.size());
+            assertNull(store.get(KEY_A));
+            assertEquals("live", new String(store.get(KEY_B), StandardCharsets.UTF_8));
+            assertTrue(store.usedBytes() < usedBefore);
+            usedAfter = store.usedBytes();
+        }
+
+        // The space given back is reused and nothing dropped comes back
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            assertEquals(usedAfter, store.usedBytes());
+            assertTrue(store.put(KEY_A, GENERATION, bytes("fresh")));
+        }
+        try (var store = new MappedResultStore(path, 4096, GENERATION)) {
+            assertEquals(2, store.size());
+            assertEquals("fresh", new String(store.get(KEY_A), StandardCharsets.UTF_8));
+            assertNull(store.get(KEY_C));
+        }
+    }
+
+    @Test
+    void testFullStoreDropsNewRecords() throws IOException {
+        try (var store = new MappedResultStore(tempDir.resolve("small.bin"), 128, GENERATION)) {
+            assertTrue(store.put(KEY_A, GENERATION, new byte[64]));
+            assertFalse(store.put(KEY_B, GENERATION, new byte[64]));
+            assertNotNull(store.get(KEY_A));
+            assertNull(store.get(KEY_B));
+        }
+    }
+
+    @Test
+    void testRejectsMalformedKey() throws IOException {
+        try (var store = new MappedResultStore(tempDir.resolve("keys.bin"), 128, GENERATION)) {
+            assertThrows(IllegalArgumentException.class, () -> store.put("abcd", GENERATION, bytes("x")));
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,115 @@
+package com.animalanalyzer.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.val;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local stand-in for the Messages API at {@code /v1/messages}. It records
+ * every request body and answers each with the same canned response, a plain
+ * JSON message unless told otherwise.
+ */
+class MessagesApiStub implements AutoCloseable {
+
+    static final String RESPONSE = """
+            {
+              "id": "msg_stub",
+              "type": "message",
+              "role": "assistant",
+              "content": [{"type": "text", "text": "{\\"suggestedCharacter\\": \\"Wise Owl\\", \\"confidence\\": 0.9, \\"traits\\": [\\"analytical\\"], \\"reasoning\\": \\"stub\\", \\"personalizedStory\\": \\"stub\\"}"}],
+              "stop_reason": "end_turn",
+              "usage": {"input_tokens": 1600, "output_tokens": 120, "cache_read_input_tokens": 1500, "cache_creation_input_tokens": 0}
+            }
+            """;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final List<byte[]> requests = new CopyOnWriteArrayList<>();
+    private volatile String response = RESPONSE;
+    private volatile String contentType = "application/json";
+
+    MessagesApiStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v1/messages", this::respond);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void respondWith(String body) {
+        respondWith(body, "application/json");
+    }
+
+    void respondWith(String body, String contentType) {
+        this.response = body;
+        this.contentType = contentType;
+    }
+
+    /**
+     * A streamed answer that writes {@code text} in deltas of
+     * {@code chunkSize} characters, framed as the Messages API frames it.
+     */
+    static String eventStream(String text, int chunkSize) {
+        val events = new StringBuilder();
+        event(events, "message_start", "{\"type\": \"message_start\", \"message\": {\"id\": \"msg_stub\", "
+                + "\"usage\": {\"input_tokens\": 1600, \"output_tokens\": 1, \"cache_read_input_tokens\": 1500}}}");
+        event(events, "content_block_start", "{\"type\": \"content_block_start\", \"index\": 0, "
+                + "\"content_block\": {\"type\": \"text\", \"text\": \"\"}}");
+        event(events, "ping", "{\"type\": \"ping\"}");
+        for (var i = 0; i < text.length(); i += chunkSize) {
+            val delta = OBJECT_MAPPER.createObjectNode()
+                    .put("type", "content_block_delta")
+                    .put("index", 0);
+            delta.putObject("delta")
+                    .put("type", "text_delta")
+                    .put("text", text.substring(i, Math.min(text.length(), i + chunkSize)));
+            event(events, "content_block_delta", delta.toString());
+        }
+        event(events, "content_block_stop", "{\"type\": \"content_block_stop\", \"index\": 0}");
+        event(events, "message_delta", "{\"type\": \"message_delta\", \"delta\": {\"stop_reason\": \"end_turn\"}, "
+                + "\"usage\": {\"output_tokens\": 120}}");
+        event(events, "message_stop", "{\"type\": \"message_stop\"}");
+        return events.toString();
+    }
+
+    private static void event(StringBuilder events, String name, String data) {
+        events.append("event: ").append(name).append('\n').append("data: ").append(data).append("\n\n");
+    }
+
+    List<byte[]> requests() {
+        return requests;
+    }
+
+    JsonNode request(int index) throws IOException {
+        return OBJECT_MAPPER.readTree(requests.get(index));
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try {
+            requests.add(exchange.getRequestBody().readAllBytes());
+            val body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
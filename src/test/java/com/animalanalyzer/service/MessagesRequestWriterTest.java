@@ -0,0 +1,165 @@
+package com.animalanalyzer.service;
+
+import com.animalanalyzer.model.ProcessedImage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagesRequestWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testWritesMessagesRequest() throws IOException {
+        val bytes = new byte[10_000];
+        new Random(7).nextBytes(bytes);
+        val image = ProcessedImage.builder()
+                .data(bytes)
+                .length(bytes.length)
+                .mediaType("image/png")
+                .build();
+
+        val json = objectMapper.readTree(write("claude-test", 1500, "Describe \"this\"", image));
+
+        assertEquals("claude-test", json.get("model").asText());
+        assertEquals(1500, json.get("max_tokens").asInt());
+        val content = json.get("messages").get(0).get("content");
+        assertEquals("user", json.get("messages").get(0).get("role").asText());
+        assertEquals(1, content.size());
+        assertEquals("image", content.get(0).get("type").asText());
+        assertEquals("base64", content.get(0).get("source").get("type").asText());
+        assertEquals("image/png", content.get(0).get("source").get("media_type").asText());
+        assertArrayEquals(bytes, Base64.getDecoder().decode(content.get(0).get("source").get("data").asText()));
+    }
+
+    @Test
+    void testPromptIsSystemBlockBeforeMessages() throws IOException {
+        val image = ProcessedImage.builder()
+                .data(new byte[]{1, 2, 3})
+                .length(3)
+                .mediaType("image/jpeg")
+                .build();
+
+        val json = objectMapper.readTree(write("claude-test", 1500, "Describe \"this\"", image));
+        val fields = new ArrayList<String>();
+        json.fieldNames().forEachRemaining(fields::add);
+        val system = json.get("system");
+
+        assertEquals(List.of("model", "max_tokens", "system", "messages"), fields);
+        assertEquals(1, system.size());
+        assertEquals("text", system.get(0).get("type").asText());
+        assertEquals("Describe \"this\"", system.get(0).get("text").asText());
+        assertFalse(system.get(0).has("cache_control"));
+    }
+
+    @Test
+    void testOnlyPromptsLongEnoughToCacheAreMarked() throws IOException {
+        val image = ProcessedImage.builder()
+                .data(new byte[]{1, 2, 3})
+                .length(3)
+                .mediaType("image/jpeg")
+                .build();
+        val longPrompt = "Describe the animal in this photo. ".repeat(100);
+
+        val json = objectMapper.readTree(write("claude-test", 1500, longPrompt, image));
+
+        assertEquals("ephemeral", json.get("system").get(0).get("cache_control").get("type").asText());
+        assertFalse(MessagesRequestWriter.isCacheable(new PromptRegistry("", false).current().text()));
+    }
+
+    @Test
+    void testAsksForStreamOnlyWhenStreaming() throws IOException {
+        val image = ProcessedImage.builder()
+                .data(new byte[]{1, 2, 3})
+                .length(3)
+                .mediaType("image/jpeg")
+                .build();
+
+        val plain = objectMapper.readTree(write("claude-test", 10, "prompt", image));
+        val out = new ByteArrayOutputStream();
+        MessagesRequestWriter.template("claude-test", 10, prompt("prompt"), true).write(out, image);
+        val streamed = objectMapper.readTree(out.toByteArray());
+
+        assertFalse(plain.has("stream"));
+        assertTrue(streamed.get("stream").asBoolean());
+    }
+
+    @Test
+    void testOnlyWritesValidLength() throws IOException {
+        // A reused encoder buffer is larger than the image it holds
+        val buffer = new byte[64];
+        Arrays.fill(buffer, (byte) 0x7F);
+        val image = ProcessedImage.builder()
+                .data(buffer)
+                .length(5)
+                .mediaType("image/jpeg")
+                .build();
+
+        val json = objectMapper.readTree(write("claude-test", 10, "prompt", image));
+        val data = json.get("messages").get(0).get("content").get(0).get("source").get("data").asText();
+
+        assertEquals(5, Base64.getDecoder().decode(data).length);
+    }
+
+    @Test
+    void testContentLengthIsExact() throws IOException {
+        val template = MessagesRequestWriter.template("claude-3-opus-20240229", 1500, prompt("Ünïcode \"prompt\"\n"), false);
+        for (val length : new int[]{0, 1, 2, 3, 4, 5, 30_001}) {
+            for (val mediaType : new String[]{"image/jpeg", "image/png"}) {
+                val image = ProcessedImage.builder()
+                        .data(new byte[length + 7])
+                        .length(length)
+                        .mediaType(mediaType)
+                        .build();
+                val out = new ByteArrayOutputStream();
+                template.write(out, image);
+
+                assertEquals(out.size(), template.contentLength(image), mediaType + " of " + length + " bytes");
+                assertEquals(mediaType, objectMapper.readTree(out.toByteArray())
+                        .get("messages").get(0).get("content").get(0).get("source").get("media_type").asText());
+            }
+        }
+    }
+
+    @Test
+    void testTemplateIsReusedPerPromptVersion() {
+        val first = MessagesRequestWriter.template("claude-test", 10, new PromptRegistry.Prompt("v1", "one", "test"), false);
+
+        assertSame(first, MessagesRequestWriter.template("claude-test", 10, new PromptRegistry.Prompt("v1", "one", "test"), false));
+        assertNotSame(first, MessagesRequestWriter.template("claude-test", 10, new PromptRegistry.Prompt("v2", "two", "test"), false));
+        assertNotSame(first, MessagesRequestWriter.template("claude-test", 20, new PromptRegistry.Prompt("v1", "one", "test"), false));
+        assertNotSame(first, MessagesRequestWriter.template("claude-test", 10, new PromptRegistry.Prompt("v1", "one", "test"), true));
+    }
+
+    @Test
+    void testRejectsMediaTypeThatWouldBreakTheJson() {
+        val image = ProcessedImage.builder()
+                .data(new byte[]{1})
+                .length(1)
+                .mediaType("image/jpeg\",\"x")
+                .build();
+
+        assertThrows(IllegalArgumentException.class, () -> write("claude-test", 10, "prompt", image));
+    }
+
+    private static byte[] write(String model, int maxTokens, String prompt, ProcessedImage image) throws IOException {
+        val out = new ByteArrayOutputStream();
+        MessagesRequestWriter.template(model, maxTokens, prompt(prompt), false).write(out, image);
+        return out.toByteArray();
+    }
+
+    // Templates are cached by prompt version, so each text gets its own
+    private static PromptRegistry.Prompt prompt(String text) {
+        return new PromptRegistry.Prompt(Integer.toHexString(text.hashCode()), text, "test");
+    }
+}
@@ -0,0 +1,78 @@
+package com.animalanalyzer.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagesResponseTest {
+
+    @Test
+    void testReadsTextStopReasonAndUsage() throws IOException {
+        val response = MessagesResponse.parse(bytes(MessagesApiStub.RESPONSE));
+
+        assertTrue(response.text().startsWith("{\"suggestedCharacter\": \"Wise Owl\""));
+        assertEquals("end_turn", response.stopReason());
+        assertEquals(new MessagesResponse.Usage(1600, 120, 1500, 0), response.usage());
+    }
+
+    @Test
+    void testSkipsEverythingElse() throws IOException {
+        val body = """
+                {
+                  "id": "msg_1",
+                  "model": "claude",
+                  "content": [
+                    {"citations": [{"text": "not this", "type": "text"}], "text": "first, ", "type": "text"},
+                    {"type": "thinking", "thinking": "not this either", "text": "nor this"},
+                    {"type": "text", "text": "second"}
+                  ],
+                  "stop_sequence": null,
+                  "stop_reason": "max_tokens",
+                  "usage": {"input_tokens": 10, "server_tool_use": {"web_search_requests": 1}, "output_tokens": 20},
+                  "container": {"id": "c", "expires_at": [1, 2]}
+                }
+                """;
+
+        val response = MessagesResponse.parse(bytes(body));
+
+        assertEquals("first, second", response.text());
+        assertEquals("max_tokens", response.stopReason());
+        assertEquals(new MessagesResponse.Usage(10, 20, 0, 0), response.usage());
+    }
+
+    @Test
+    void testToolUseInsteadOfText() {
+        val body = """
+                {"content": [{"type": "tool_use", "id": "toolu_1", "name": "lookup", "input": {"text": "owl"}}],
+                 "stop_reason": "tool_use"}
+                """;
+
+        val error = assertThrows(UpstreamResponseException.class, () -> MessagesResponse.parse(bytes(body)));
+
+        assertTrue(error.getMessage().contains("tool_use block"));
+        assertEquals("tool_use", error.getStopReason());
+    }
+
+    @Test
+    void testEmptyOrMissingContent() {
+        for (val body : new String[]{"{\"content\": [], \"stop_reason\": \"end_turn\"}", "{\"content\": null}", "{}"}) {
+            val error = assertThrows(UpstreamResponseException.class, () -> MessagesResponse.parse(bytes(body)));
+            assertTrue(error.getMessage().contains("no text content"), body);
+        }
+    }
+
+    @Test
+    void testRejectsBodyThatIsNotAnObject() {
+        assertThrows(JsonParseException.class, () -> MessagesResponse.parse(bytes("[]")));
+        assertThrows(JsonParseException.class, () -> MessagesResponse.parse(new byte[0]));
+    }
+
+    private static byte[] bytes(String body) {
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+}
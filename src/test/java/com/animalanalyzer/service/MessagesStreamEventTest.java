@@ -0,0 +1,80 @@
+package com.animalanalyzer.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagesStreamEventTest {
+
+    @Test
+    void testMessageStartCarriesUsageInTheMessage() throws IOException {
+        val event = MessagesStreamEvent.parse("""
+                {"type": "message_start", "message": {"id": "msg_1", "content": [], "stop_reason": null,
+                 "usage": {"input_tokens": 1600, "output_tokens": 1, "cache_read_input_tokens": 1500}}}
+                """);
+
+        assertEquals("message_start", event.type());
+        assertEquals(new MessagesResponse.Usage(1600, 1, 1500, 0), event.usage());
+        assertNull(event.text());
+    }
+
+    @Test
+    void testTextDeltaInAnyFieldOrder() throws IOException {
+        val event = MessagesStreamEvent.parse(
+                "{\"delta\": {\"text\": \"{\\\"suggested\", \"type\": \"text_delta\"}, \"index\": 0, \"type\": \"content_block_delta\"}");
+
+        assertEquals("content_block_delta", event.type());
+        assertEquals("{\"suggested", event.text());
+    }
+
+    @Test
+    void testOtherDeltasHaveNoText() throws IOException {
+        val thinking = MessagesStreamEvent.parse(
+                "{\"type\": \"content_block_delta\", \"delta\": {\"type\": \"thinking_delta\", \"text\": \"hmm\"}}");
+        val messageDelta = MessagesStreamEvent.parse(
+                "{\"type\": \"message_delta\", \"delta\": {\"stop_reason\": \"end_turn\"}, \"usage\": {\"output_tokens\": 120}}");
+
+        assertNull(thinking.text());
+        assertNull(messageDelta.text());
+        assertEquals(new MessagesResponse.Usage(0, 120, 0, 0), messageDelta.usage());
+    }
+
+    @Test
+    void testMissingOrMistypedPartsAreNull() throws IOException {
+        for (val data : new String[]{"{\"type\": \"ping\"}", "{\"type\": \"message_start\", \"message\": null}",
+                "{\"type\": \"content_block_delta\", \"delta\": [1, 2]}", "{\"usage\": \"none\", \"message\": []}"}) {
+            val event = MessagesStreamEvent.parse(data);
+            assertNull(event.text(), data);
+            assertNull(event.usage(), data);
+            assertNull(event.error(), data);
+        }
+    }
+
+    @Test
+    void testError() throws IOException {
+        val event = MessagesStreamEvent.parse(
+                "{\"type\": \"error\", \"error\": {\"type\": \"overloaded_error\", \"message\": \"Overloaded\"}}");
+
+        assertEquals("error", event.type());
+        assertEquals("overloaded_error: Overloaded", event.error());
+    }
+
+    @Test
+    void testMergedUsageKeepsRunningTotals() {
+        val start = new MessagesResponse.Usage(1600, 1, 1500, 0);
+        val delta = new MessagesResponse.Usage(0, 120, 0, 0);
+
+        assertEquals(new MessagesResponse.Usage(1600, 120, 1500, 0), start.merge(delta));
+        assertEquals(start, MessagesResponse.Usage.NONE.merge(start));
+    }
+
+    @Test
+    void testRejectsDataThatIsNotAnObject() {
+        assertThrows(JsonParseException.class, () -> MessagesStreamEvent.parse("[]"));
+        assertThrows(JsonParseException.class, () -> MessagesStreamEvent.parse(""));
+    }
+}
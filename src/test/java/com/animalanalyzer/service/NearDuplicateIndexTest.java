@@ -0,0 +1,99 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearDuplicateIndexTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testExactAndNearMatch() {
+        val index = index(6, 1000);
+        index.add(0x1234_5678_9ABC_DEF0L, key(1));
+
+        assertEquals(Optional.of(key(1)), index.findNearest(0x1234_5678_9ABC_DEF0L));
+        assertEquals(Optional.of(key(1)), index.findNearest(0x1234_5678_9ABC_DEF0L ^ 0b10_1010_0001L));
+        assertEquals(2.0, meterRegistry.get("analysis.cache.similar.requests").tag("result", "hit").counter().count(), 0.0);
+    }
+
+    @Test
+    void testBeyondThresholdMisses() {
+        val index = index(6, 1000);
+        index.add(0L, key(1));
+
+        assertTrue(index.findNearest(0x7FL).isEmpty());
+        assertEquals(1.0, meterRegistry.get("analysis.cache.similar.requests").tag("result", "miss").counter().count(), 0.0);
+    }
+
+    @Test
+    void testReturnsClosestMatch() {
+        val index = index(6, 1000);
+        index.add(0b1111L, key(1));
+        index.add(0b0001L, key(2));
+
+        assertEquals(Optional.of(key(2)), index.findNearest(0L));
+    }
+
+    @Test
+    void testFindsMatchesOnceMergedIntoTables() {
+        val index = index(8, 100_000);
+        val random = new Random(42);
+        val hashes = new long[10_000];
+        for (var i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            index.add(hashes[i], key(i));
+        }
+
+        // Entries early on have been merged into the tables, the last ones are still pending
+        for (val entry : new int[]{0, 17, 5_000, 9_999}) {
+            var query = hashes[entry];
+            for (var bit = 0; bit < 8; bit++) {
+                query ^= 1L << (bit * 7);
+            }
+            assertEquals(Optional.of(key(entry)), index.findNearest(query));
+        }
+    }
+
+    @Test
+    void testDropsOldestHalfWhenFull() {
+        val index = index(0, 4);
+        for (var i = 0; i < 5; i++) {
+            index.add(i, key(i));
+        }
+
+        assertEquals(3, index.size());
+        assertTrue(index.findNearest(0).isEmpty());
+        assertTrue(index.findNearest(1).isEmpty());
+        assertEquals(Optional.of(key(4)), index.findNearest(4));
+    }
+
+    @Test
+    void testDisabledIndexIgnoresEntries() {
+        val index = new NearDuplicateIndex(meterRegistry, false, 6, 1000);
+        index.add(0L, key(1));
+
+        assertEquals(0, index.size());
+        assertTrue(index.findNearest(0L).isEmpty());
+    }
+
+    @Test
+    void testRejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> index(12, 1000));
+        assertThrows(IllegalArgumentException.class, () -> index(6, 1000).add(0L, "abc"));
+    }
+
+    private NearDuplicateIndex index(int maxDistance, int maxEntries) {
+        return new NearDuplicateIndex(meterRegistry, true, maxDistance, maxEntries);
+    }
+
+    private static String key(int value) {
+        return String.format("%064x", value);
+    }
+}
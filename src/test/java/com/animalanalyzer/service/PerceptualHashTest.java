@@ -0,0 +1,72 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerceptualHashTest {
+
+    @Test
+    void testReencodedImageHashesClose() throws IOException {
+        val original = scene(640, 480, false);
+        val reencoded = ImageIO.read(new ByteArrayInputStream(jpeg(original)));
+
+        assertTrue(distance(original, reencoded) <= 2);
+    }
+
+    @Test
+    void testResizedImageHashesClose() {
+        val original = scene(640, 480, false);
+        val resized = new ImageResampler(ResampleQuality.AREA_AVERAGE, 64).resize(original, 320, 240).image();
+
+        assertTrue(distance(original, resized) <= 4);
+    }
+
+    @Test
+    void testDifferentImageHashesFar() {
+        val first = scene(640, 480, false);
+        val second = scene(640, 480, true);
+
+        assertTrue(distance(first, second) > 20);
+    }
+
+    @Test
+    void testTinyImage() {
+        val image = scene(3, 2, false);
+
+        assertDoesNotThrow(() -> PerceptualHash.dHash(image));
+    }
+
+    private static int distance(BufferedImage first, BufferedImage second) {
+        return Long.bitCount(PerceptualHash.dHash(first) ^ PerceptualHash.dHash(second));
+    }
+
+    // Diagonal gradient with a bright disc; mirrored gives a clearly different layout
+    private static BufferedImage scene(int width, int height, boolean mirrored) {
+        val image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        val graphics = image.createGraphics();
+        val from = mirrored ? width : 0;
+        graphics.setPaint(new GradientPaint(from, 0, Color.DARK_GRAY, width - from, height, Color.ORANGE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.WHITE);
+        val x = mirrored ? width / 5 : width / 2;
+        graphics.fillOval(x, height / 3, width / 4, height / 3);
+        graphics.dispose();
+        return image;
+    }
+
+    private static byte[] jpeg(BufferedImage image) throws IOException {
+        val out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreprocessingExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private PreprocessingExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void testRunsTaskOnPoolThread() throws Exception {
+        executor = new PreprocessingExecutor(meterRegistry, 1, 1, PreprocessingExecutor.RejectionPolicy.REJECT, 2);
+
+        val threadName = PreprocessingExecutor.await(executor.submit(() -> Thread.currentThread().getName()));
+
+        assertTrue(threadName.startsWith("image-preprocess-"));
+        assertEquals(1, meterRegistry.get("image.preprocess.wait").timer().count());
+        assertEquals(1, meterRegistry.get("image.preprocess.duration").timer().count());
+    }
+
+    @Test
+    void testAwaitRethrowsTaskException() {
+        executor = new PreprocessingExecutor(meterRegistry, 1, 1, PreprocessingExecutor.RejectionPolicy.REJECT, 2);
+
+        val future = executor.submit(() -> {
+            throw new IOException("corrupt image");
+        });
+
+        val exception = assertThrows(IOException.class, () -> PreprocessingExecutor.await(future));
+        assertEquals("corrupt image", exception.getMessage());
+    }
+
+    @Test
+    void testRejectsWhenQueueIsFull() throws Exception {
+        executor = new PreprocessingExecutor(meterRegistry, 1, 1, PreprocessingExecutor.RejectionPolicy.REJECT, 5);
+        occupyWorkerAndQueue();
+
+        val exception = assertThrows(ServiceBusyException.class, () -> executor.submit(() -> "rejected"));
+
+        assertEquals(5, exception.getRetryAfterSeconds());
+        assertEquals(1.0, meterRegistry.get("image.preprocess.rejected").counter().count());
+        assertEquals(1.0, meterRegistry.get("image.preprocess.queue.depth").gauge().value());
+    }
+
+    @Test
+    void testCallerRunsWhenQueueIsFull() throws Exception {
+        executor = new PreprocessingExecutor(meterRegistry, 1, 1, PreprocessingExecutor.RejectionPolicy.CALLER_RUNS, 2);
+        occupyWorkerAndQueue();
+
+        val threadName = PreprocessingExecutor.await(executor.submit(() -> Thread.currentThread().getName()));
+
+        assertEquals(Thread.currentThread().getName(), threadName);
+        assertEquals(1.0, meterRegistry.get("image.preprocess.rejected").counter().count());
+    }
+
+    private void occupyWorkerAndQueue() throws InterruptedException {
+        val started = new CountDownLatch(1);
+        executor.submit(() -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.submit(() -> "queued");
+    }
+}
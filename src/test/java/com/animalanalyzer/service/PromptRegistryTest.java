@@ -0,0 +1,109 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testLoadsBundledTemplate() throws IOException {
+        val registry = new PromptRegistry("", false);
+        val prompt = registry.current();
+
+        assertEquals("classpath:" + PromptRegistry.TEMPLATE, prompt.source());
+        assertTrue(prompt.text().contains("Owl"));
+        assertEquals(12, prompt.version().length());
+        assertSame(prompt, registry.current());
+        registry.close();
+    }
+
+    @Test
+    void testVersionFollowsText() throws IOException {
+        write("Prompt A");
+        val first = new PromptRegistry(tempDir.toString(), false);
+        val same = new PromptRegistry(tempDir.toString(), false);
+        write("Prompt B");
+        val changed = new PromptRegistry(tempDir.toString(), false);
+
+        assertEquals(tempDir.resolve(PromptRegistry.TEMPLATE).toString(), first.current().source());
+        assertEquals(first.current().version(), same.current().version());
+        assertNotEquals(first.current().version(), changed.current().version());
+    }
+
+    @Test
+    void testReloadSwapsOnlyOnChange() throws IOException {
+        write("Prompt A");
+        val registry = new PromptRegistry(tempDir.toString(), false);
+        val before = registry.current();
+
+        assertFalse(registry.reload());
+        assertSame(before, registry.current());
+
+        write("Prompt B");
+        assertTrue(registry.reload());
+        assertEquals("Prompt B", registry.current().text());
+        assertNotEquals(before.version(), registry.current().version());
+        // The old object is untouched for requests still holding it
+        assertEquals("Prompt A", before.text());
+    }
+
+    @Test
+    void testReloadKeepsPromptWhenFileIsEmpty() throws IOException {
+        write("Prompt A");
+        val registry = new PromptRegistry(tempDir.toString(), false);
+
+        write("  \n");
+
+        assertFalse(registry.reload());
+        assertEquals("Prompt A", registry.current().text());
+    }
+
+    @Test
+    void testRemovingOverrideFallsBackToBundledTemplate() throws IOException {
+        write("Prompt A");
+        val registry = new PromptRegistry(tempDir.toString(), false);
+
+        Files.delete(tempDir.resolve(PromptRegistry.TEMPLATE));
+
+        assertTrue(registry.reload());
+        assertEquals("classpath:" + PromptRegistry.TEMPLATE, registry.current().source());
+    }
+
+    @Test
+    void testWatcherReloadsChangedTemplate() throws Exception {
+        write("Prompt A");
+        val registry = new PromptRegistry(tempDir.toString(), true);
+        try {
+            // Replaced by rename, as editors and config map updates do
+            val staged = tempDir.resolve("staged.txt");
+            Files.writeString(staged, "Prompt B");
+            Files.move(staged, tempDir.resolve(PromptRegistry.TEMPLATE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Polling watch services, as on macOS, can take several seconds
+            val deadline = System.currentTimeMillis() + 15_000;
+            while (!registry.current().text().equals("Prompt B") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+
+            assertEquals("Prompt B", registry.current().text());
+        } finally {
+            registry.close();
+        }
+    }
+
+    private void write(String text) throws IOException {
+        Files.writeString(tempDir.resolve(PromptRegistry.TEMPLATE), text);
+    }
+}
@@ -0,0 +1,188 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight singleFlight = new SingleFlight(meterRegistry);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void testConcurrentCallersShareOneCall() throws Exception {
+        val leader = callers.submit(() -> singleFlight.execute("digest", this::blockingCall));
+        started.await(5, TimeUnit.SECONDS);
+        val followers = new Future<?>[3];
+        for (var i = 0; i < followers.length; i++) {
+            followers[i] = callers.submit(() -> singleFlight.execute("digest", this::blockingCall));
+        }
+        awaitFollowers(3);
+
+        release.countDown();
+
+        assertEquals("result-1", leader.get(5, TimeUnit.SECONDS));
+        for (val follower : followers) {
+            assertEquals("result-1", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    void testFollowersReceiveTheCallException() throws Exception {
+        val leader = callers.submit(() -> singleFlight.execute("digest", () -> {
+            started.countDown();
+            release.await();
+            throw new IOException("upstream failed");
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        val follower = callers.submit(() -> singleFlight.execute("digest", this::blockingCall));
+        awaitFollowers(1);
+
+        release.countDown();
+
+        val leaderError = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+        val followerError = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, leaderError.getCause());
+        assertInstanceOf(IOException.class, followerError.getCause());
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void testInterruptedLeaderHandsOverToFollower() throws Exception {
+        val leader = callers.submit(() -> singleFlight.execute("digest", () -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+            return "never";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        val follower = callers.submit(() -> singleFlight.execute("digest", () -> "result-" + calls.incrementAndGet()));
+        awaitFollowers(1);
+
+        leader.cancel(true);
+
+        assertEquals("result-1", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(2.0, meterRegistry.get("analysis.inflight.requests").tag("role", "leader").counter().count());
+    }
+
+    @Test
+    void testAbandonedFollowerDoesNotCancelTheCall() throws Exception {
+        val leader = callers.submit(() -> singleFlight.execute("digest", this::blockingCall));
+        started.await(5, TimeUnit.SECONDS);
+        val follower = callers.submit(() -> singleFlight.execute("digest", this::blockingCall));
+        awaitFollowers(1);
+
+        follower.cancel(true);
+        release.countDown();
+
+        assertEquals("result-1", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSequentialCallsAreNotCoalesced() throws Exception {
+        release.countDown();
+
+        assertEquals("result-1", singleFlight.execute("digest", this::blockingCall));
+        assertEquals("result-2", singleFlight.execute("digest", this::blockingCall));
+        assertEquals("result-3", singleFlight.execute("other", this::blockingCall));
+    }
+
+    @Test
+    void testAsyncCallersShareOneCall() throws Exception {
+        val call = new CompletableFuture<String>();
+        val first = singleFlight.executeAsync("digest", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        val second = singleFlight.executeAsync("digest", () -> CompletableFuture.completedFuture("other"));
+
+        assertEquals(1, singleFlight.inFlightCount());
+        second.cancel(true);
+        call.complete("result");
+
+        assertEquals("result", first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    void testAsyncFollowerJoinsBlockingCall() throws Exception {
+        val leader = callers.submit(() -> singleFlight.execute("digest", this::blockingCall));
+        started.await(5, TimeUnit.SECONDS);
+
+        val follower = singleFlight.executeAsync("digest", () -> CompletableFuture.completedFuture("other"));
+        release.countDown();
+
+        assertEquals("result-1", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("result-1", follower.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testAsyncFollowerRetriesAfterInterruptedLeader() throws Exception {
+        val leader = callers.submit(() -> singleFlight.execute("digest", () -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+            return "never";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        val follower = singleFlight.executeAsync("digest", () -> CompletableFuture.completedFuture("retried"));
+
+        leader.cancel(true);
+
+        assertEquals("retried", follower.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testAsyncFailureReachesFollowers() {
+        val call = new CompletableFuture<String>();
+        val first = singleFlight.executeAsync("digest", () -> call);
+        val second = singleFlight.executeAsync("digest", () -> CompletableFuture.completedFuture("other"));
+
+        call.completeExceptionally(new IOException("upstream failed"));
+
+        val error = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, PreprocessingExecutor.unwrap(error));
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    private String blockingCall() throws InterruptedException {
+        started.countDown();
+        release.await();
+        return "result-" + calls.incrementAndGet();
+    }
+
+    private void awaitFollowers(int count) throws InterruptedException {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("analysis.inflight.requests").tag("role", "follower").counter().count() < count
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Followers count themselves just before they start waiting
+        Thread.sleep(20);
+    }
+}
@@ -1,7 +1,9 @@
 package com.animalanalyzer.service;
 
 import com.animalanalyzer.model.AIAnalysisResult;
+import com.animalanalyzer.model.ProcessedImage;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.val;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,9 +13,17 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ai.anthropic.AnthropicChatModel;
 import org.springframework.ai.anthropic.api.AnthropicApi;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,14 +39,22 @@ class SpringAIHybridServiceTest {
     @Mock
     private ObjectMapper objectMapper;
 
+    @Mock
+    private ImageTokenBudget tokenBudget;
+
+    private final PromptRegistry promptRegistry = new PromptRegistry("", false);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     private SpringAIHybridService springAIHybridService;
 
-    private String testImageBase64;
+    private ProcessedImage testImage;
 
     @BeforeEach
     void setUp() {
-        springAIHybridService = new SpringAIHybridService(chatModel, anthropicApi, objectMapper);
-        testImageBase64 = "data:image/jpeg;base64,/9j/4AAQSkZJRgABAQAAAQABAAD/2wBDAAEBAQEB";
+        springAIHybridService = new SpringAIHybridService(chatModel, anthropicApi, objectMapper, tokenBudget, promptRegistry,
+                new UpstreamUsageMetrics(meterRegistry));
+        testImage = image("data:image/jpeg;base64,/9j/4AAQSkZJRgABAQAAAQABAAD/2wBDAAEBAQEB", "image/jpeg");
     }
 
     @Test
@@ -45,7 +63,7 @@ class SpringAIHybridServiceTest {
         ReflectionTestUtils.setField(springAIHybridService, "useRealApi", false);
 
         // Execute
-        val result = springAIHybridService.analyzeImage(testImageBase64);
+        val result = springAIHybridService.analyzeImage(testImage);
 
         // Assert demo response
         assertNotNull(result);
@@ -57,6 +75,187 @@ class SpringAIHybridServiceTest {
         assertTrue(result.getPersonalizedStory().startsWith("Demo:"));
     }
 
+    @Test
+    void testAnalyzeImageAsyncWithApiDisabled() throws Exception {
+        ReflectionTestUtils.setField(springAIHybridService, "useRealApi", false);
+
+        val result = springAIHybridService.analyzeImageAsync(testImage).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Wise Owl", result.getSuggestedCharacter());
+        assertTrue(result.isFallback());
+    }
+
+    @Test
+    void testAnalyzeImageAsyncFallsBackOnUpstreamError() throws Exception {
+        ReflectionTestUtils.setField(springAIHybridService, "useRealApi", true);
+        ReflectionTestUtils.setField(springAIHybridService, "apiKey", "test-api-key");
+        ReflectionTestUtils.setField(springAIHybridService, "model", "test-model");
+        ReflectionTestUtils.setField(springAIHybridService, "maxTokens", 1000);
+        // Fail the exchange locally instead of connecting anywhere
+        ReflectionTestUtils.setField(springAIHybridService, "webClient", WebClient.builder()
+                .exchangeFunction(request -> Mono.error(new IOException("Connection refused")))
+                .build());
+
+        val result = springAIHybridService.analyzeImageAsync(testImage).get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isFallback());
+        assertTrue(result.getReasoning().startsWith("Demo:"));
+    }
+
+    @Test
+    void testSendsPromptAsSystemBlock() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            val service = stubbedService(upstream);
+
+            val blocking = service.analyzeImage(testImage);
+            val async = service.analyzeImageAsync(testImage).get(5, TimeUnit.SECONDS);
+
+            assertFalse(blocking.isFallback());
+            assertFalse(async.isFallback());
+            assertEquals("Wise Owl", async.getSuggestedCharacter());
+            assertEquals(2, upstream.requests().size());
+            for (var i = 0; i < 2; i++) {
+                val request = upstream.request(i);
+                val system = request.get("system").get(0);
+                assertEquals(promptRegistry.current().text(), system.get("text").asText());
+                // The bundled prompt is under the minimum cacheable length, so it is not marked
+                assertFalse(system.has("cache_control"));
+                assertEquals("image", request.get("messages").get(0).get("content").get(0).get("type").asText());
+            }
+            assertEquals(3000.0, meterRegistry.get("analysis.upstream.tokens").tag("type", "cache_read").counter().count());
+            assertEquals(3200.0, meterRegistry.get("analysis.upstream.tokens").tag("type", "input").counter().count());
+        }
+    }
+
+    @Test
+    void testToolUseAnswerFallsBack() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            upstream.respondWith("""
+                    {"content": [{"type": "tool_use", "id": "toolu_1", "name": "lookup", "input": {}}],
+                     "stop_reason": "tool_use", "usage": {"input_tokens": 1600, "output_tokens": 30}}
+                    """);
+            val service = stubbedService(upstream);
+
+            assertTrue(service.analyzeImage(testImage).isFallback());
+            assertTrue(service.analyzeImageAsync(testImage).get(5, TimeUnit.SECONDS).isFallback());
+        }
+    }
+
+    @Test
+    void testAnswerWithoutJsonIsMarkedFallback() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            upstream.respondWith("""
+                    {"content": [{"type": "text", "text": "I cannot see a face in this photo."}],
+                     "stop_reason": "end_turn", "usage": {"input_tokens": 1600, "output_tokens": 12}}
+                    """);
+
+            val result = stubbedService(upstream).analyzeImage(testImage);
+
+            assertEquals("Wise Owl", result.getSuggestedCharacter());
+            assertTrue(result.isFallback());
+        }
+    }
+
+    @Test
+    void testStreamsFieldsAsTheyArrive() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            val answer = "{\"suggestedCharacter\": \"Noble Lion\", \"confidence\": 0.88, \"traits\": [\"bold\", \"warm\"], "
+                    + "\"reasoning\": \"A steady gaze\", \"personalizedStory\": \"You lead the pride\"}";
+            upstream.respondWith(MessagesApiStub.eventStream(answer, 7), "text/event-stream");
+            val service = stubbedService(upstream);
+            val events = new CopyOnWriteArrayList<String>();
+
+            val result = service.analyzeImageStreaming(testImage, new AnalysisListener() {
+                @Override
+                public void onAccepted() {
+                    events.add("accepted");
+                }
+
+                @Override
+                public void onField(String name, Object value) {
+                    events.add(name);
+                }
+            }).get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of("accepted", "suggestedCharacter", "confidence", "traits", "reasoning", "personalizedStory"),
+                    events);
+            assertFalse(result.isFallback());
+            assertEquals("Noble Lion", result.getSuggestedCharacter());
+            assertEquals(List.of("bold", "warm"), result.getTraits());
+            assertEquals(promptRegistry.current().version(), result.getPromptVersion());
+            assertTrue(upstream.request(0).get("stream").asBoolean());
+            assertEquals(1600.0, meterRegistry.get("analysis.upstream.tokens").tag("type", "input").counter().count());
+            assertEquals(120.0, meterRegistry.get("analysis.upstream.tokens").tag("type", "output").counter().count());
+        }
+    }
+
+    @Test
+    void testStreamsAnswerWrappedInProse() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            val answer = "Sure! Here it is:\n```json\n{\\n\"suggestedCharacter\": \"Curious Fox\",\\n\"confidence\": 1.4,"
+                    + "\\n\"traits\": [\"clever\"]}\n```";
+            upstream.respondWith(MessagesApiStub.eventStream(answer, 5), "text/event-stream");
+
+            val result = stubbedService(upstream).analyzeImageStreaming(testImage, new AnalysisListener() {
+            }).get(5, TimeUnit.SECONDS);
+
+            assertFalse(result.isFallback());
+            assertEquals("Curious Fox", result.getSuggestedCharacter());
+            assertEquals(1.0, result.getConfidence());
+            assertEquals(List.of("clever"), result.getTraits());
+        }
+    }
+
+    @Test
+    void testStreamingTruncatedAnswerFailsAfterFieldsWereSent() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            upstream.respondWith(MessagesApiStub.eventStream("{\"suggestedCharacter\": \"Curious Fox\", \"confid", 5),
+                    "text/event-stream");
+            val fields = new CopyOnWriteArrayList<String>();
+
+            val result = stubbedService(upstream).analyzeImageStreaming(testImage, new AnalysisListener() {
+                @Override
+                public void onField(String name, Object value) {
+                    fields.add(name);
+                }
+            });
+
+            // The client already has the real character, so no demo fields may follow it
+            val error = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+            assertEquals(List.of("suggestedCharacter"), fields);
+            assertEquals(1600.0, meterRegistry.get("analysis.upstream.tokens").tag("type", "input").counter().count());
+        }
+    }
+
+    @Test
+    void testStreamingTruncatedBeforeAnyFieldFallsBack() throws Exception {
+        try (var upstream = new MessagesApiStub()) {
+            upstream.respondWith(MessagesApiStub.eventStream("{\"suggestedChar", 5), "text/event-stream");
+
+            val result = stubbedService(upstream).analyzeImageStreaming(testImage, new AnalysisListener() {
+            }).get(5, TimeUnit.SECONDS);
+
+            assertTrue(result.isFallback());
+        }
+    }
+
+    @Test
+    void testStreamingWithApiDisabledReportsDemoFields() throws Exception {
+        ReflectionTestUtils.setField(springAIHybridService, "useRealApi", false);
+        val fields = new CopyOnWriteArrayList<String>();
+
+        val result = springAIHybridService.analyzeImageStreaming(testImage, new AnalysisListener() {
+            @Override
+            public void onField(String name, Object value) {
+                fields.add(name);
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isFallback());
+        assertEquals(5, fields.size());
+    }
+
     @Test
     void testAnalyzeImageWithEmptyApiKey() throws Exception {
         // Enable API but provide empty key
@@ -64,7 +263,7 @@ class SpringAIHybridServiceTest {
         ReflectionTestUtils.setField(springAIHybridService, "apiKey", "");
 
         // Execute
-        val result = springAIHybridService.analyzeImage(testImageBase64);
+        val result = springAIHybridService.analyzeImage(testImage);
 
         // Assert demo response
         assertNotNull(result);
@@ -79,7 +278,7 @@ class SpringAIHybridServiceTest {
         ReflectionTestUtils.setField(springAIHybridService, "apiKey", null);
 
         // Execute
-        val result = springAIHybridService.analyzeImage(testImageBase64);
+        val result = springAIHybridService.analyzeImage(testImage);
 
         // Assert demo response
         assertNotNull(result);
@@ -113,32 +312,6 @@ class SpringAIHybridServiceTest {
         assertEquals(0.85, resultValid);
     }
 
-    @Test
-    void testExtractJsonFromResponseMethod() throws Exception {
-        // Test the extractJsonFromResponse method via reflection
-        val extractMethod = SpringAIHybridService.class.getDeclaredMethod("extractJsonFromResponse", String.class);
-        extractMethod.setAccessible(true);
-        
-        // Test with valid JSON embedded in text
-        val responseWithJson = """
-            Here is the analysis:
-            {
-                "suggestedCharacter": "Noble Lion",
-                "confidence": 0.95
-            }
-            That's the result.
-            """;
-        val extracted = (String) extractMethod.invoke(springAIHybridService, responseWithJson);
-        assertTrue(extracted.contains("\"suggestedCharacter\": \"Noble Lion\""));
-        assertTrue(extracted.contains("\"confidence\": 0.95"));
-        
-        // Test with no JSON
-        val responseNoJson = "This response contains no JSON whatsoever";
-        val defaultJson = (String) extractMethod.invoke(springAIHybridService, responseNoJson);
-        assertTrue(defaultJson.contains("\"suggestedCharacter\": \"Wise Owl\""));
-        assertTrue(defaultJson.contains("\"confidence\": 0.75"));
-    }
-
     @Test
     void testCreateDefaultJsonResponseMethod() throws Exception {
         // Test the createDefaultJsonResponse method via reflection
@@ -179,24 +352,6 @@ class SpringAIHybridServiceTest {
         assertTrue(result.getPersonalizedStory().startsWith("Demo:"));
     }
 
-    @Test 
-    void testGetDefaultPromptMethod() throws Exception {
-        // Test the getDefaultPrompt method via reflection
-        val getDefaultPromptMethod = SpringAIHybridService.class.getDeclaredMethod("getDefaultPrompt");
-        getDefaultPromptMethod.setAccessible(true);
-        
-        // Execute
-        val prompt = (String) getDefaultPromptMethod.invoke(springAIHybridService);
-        
-        // Assert
-        assertNotNull(prompt);
-        assertTrue(prompt.contains("Wise Owl"));
-        assertTrue(prompt.contains("Playful Otter"));
-        assertTrue(prompt.contains("Noble Lion"));
-        assertTrue(prompt.contains("Curious Fox"));
-        assertTrue(prompt.contains("Return JSON only"));
-    }
-
     @Test
     void testAnalyzeImageWithExceptionFallback() throws Exception {
         // Enable API usage
@@ -208,7 +363,7 @@ class SpringAIHybridServiceTest {
         ReflectionTestUtils.setField(springAIHybridService, "maxTokens", 1000);
         
         // Execute - this will fail due to RestClient not being properly mocked and fall back to demo
-        val result = springAIHybridService.analyzeImage(testImageBase64);
+        val result = springAIHybridService.analyzeImage(testImage);
         
         // Assert fallback to demo response
         assertNotNull(result);
@@ -226,9 +381,9 @@ class SpringAIHybridServiceTest {
         // All should return demo response when API is disabled
         ReflectionTestUtils.setField(springAIHybridService, "useRealApi", false);
         
-        val result1 = springAIHybridService.analyzeImage(pngPrefix);
-        val result2 = springAIHybridService.analyzeImage(jpegPrefix);
-        val result3 = springAIHybridService.analyzeImage(gifPrefix);
+        val result1 = springAIHybridService.analyzeImage(image(pngPrefix, "image/png"));
+        val result2 = springAIHybridService.analyzeImage(image(jpegPrefix, "image/jpeg"));
+        val result3 = springAIHybridService.analyzeImage(image(gifPrefix, "image/gif"));
         
         // All should return the same demo response
         assertEquals("Wise Owl", result1.getSuggestedCharacter());
@@ -236,31 +391,17 @@ class SpringAIHybridServiceTest {
         assertEquals("Wise Owl", result3.getSuggestedCharacter());
     }
 
-    @Test
-    void testLoadPromptTemplateFallback() throws Exception {
-        // Test the loadPromptTemplate method via reflection
-        val loadPromptMethod = SpringAIHybridService.class.getDeclaredMethod("loadPromptTemplate");
-        loadPromptMethod.setAccessible(true);
-        
-        // Execute - may use default if file not found
-        val prompt = (String) loadPromptMethod.invoke(springAIHybridService);
-        
-        // Assert
-        assertNotNull(prompt);
-        // Should contain animal names whether it's from file or default
-        assertTrue(prompt.contains("Owl") || prompt.contains("animal"));
-    }
-
     @Test
     void testServiceInitialization() {
         // Test that service initializes correctly
-        val service = new SpringAIHybridService(chatModel, anthropicApi, objectMapper);
+        val service = new SpringAIHybridService(chatModel, anthropicApi, objectMapper, tokenBudget, promptRegistry,
+                new UpstreamUsageMetrics(meterRegistry));
         assertNotNull(service);
         
         // Test that it can handle image analysis without configuration
         AIAnalysisResult result = null;
         try {
-            result = service.analyzeImage(testImageBase64);
+            result = service.analyzeImage(testImage);
         } catch (Exception e) {
             fail("Service should handle exceptions gracefully");
         }
@@ -275,12 +416,12 @@ class SpringAIHybridServiceTest {
         ReflectionTestUtils.setField(springAIHybridService, "useRealApi", false);
         
         // Test with empty string
-        val result1 = springAIHybridService.analyzeImage("");
+        val result1 = springAIHybridService.analyzeImage(image("", "image/jpeg"));
         assertNotNull(result1);
         assertEquals("Wise Owl", result1.getSuggestedCharacter());
         
         // Test with whitespace
-        val result2 = springAIHybridService.analyzeImage("   ");
+        val result2 = springAIHybridService.analyzeImage(image("   ", "image/jpeg"));
         assertNotNull(result2);
         assertEquals("Wise Owl", result2.getSuggestedCharacter());
     }
@@ -302,4 +443,31 @@ class SpringAIHybridServiceTest {
         assertEquals("Test reasoning", result.getReasoning());
         assertEquals("Test story", result.getPersonalizedStory());
     }
+
+    private SpringAIHybridService stubbedService(MessagesApiStub upstream) {
+        val service = new SpringAIHybridService(chatModel, anthropicApi, new ObjectMapper(), tokenBudget,
+                promptRegistry, new UpstreamUsageMetrics(meterRegistry));
+        ReflectionTestUtils.setField(service, "restClient", RestClient.builder()
+                .baseUrl(upstream.baseUrl())
+                .defaultHeader("content-type", "application/json")
+                .build());
+        ReflectionTestUtils.setField(service, "webClient", WebClient.builder()
+                .baseUrl(upstream.baseUrl())
+                .defaultHeader("content-type", "application/json")
+                .build());
+        ReflectionTestUtils.setField(service, "useRealApi", true);
+        ReflectionTestUtils.setField(service, "apiKey", "test-api-key");
+        ReflectionTestUtils.setField(service, "model", "test-model");
+        ReflectionTestUtils.setField(service, "maxTokens", 1000);
+        return service;
+    }
+
+    private ProcessedImage image(String content, String mediaType) {
+        val data = content.getBytes(StandardCharsets.ISO_8859_1);
+        return ProcessedImage.builder()
+                .data(data)
+                .length(data.length)
+                .mediaType(mediaType)
+                .build();
+    }
 }
\ No newline at end of file
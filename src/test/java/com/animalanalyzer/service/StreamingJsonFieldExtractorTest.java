@@ -0,0 +1,127 @@
+package com.animalanalyzer.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingJsonFieldExtractorTest {
+
+    private static final String ANSWER = "Here is my analysis:\n{\"suggestedCharacter\": \"Wise Owl\", \"confidence\": 0.92, "
+            + "\"traits\": [\"analytical\", \"calm\"], \"reasoning\": \"A \\\"thoughtful\\\" look\", "
+            + "\"personalizedStory\": \"Like the owl \\u00fc\\n\\u2014 ü\"}\nHope this helps!";
+
+    @Test
+    void testReportsFieldsInOrder() {
+        val fields = new LinkedHashMap<String, Object>();
+        val extractor = new StreamingJsonFieldExtractor(fields::put);
+
+        extractor.accept(ANSWER);
+
+        assertEquals(List.of("suggestedCharacter", "confidence", "traits", "reasoning", "personalizedStory"),
+                new ArrayList<>(fields.keySet()));
+        assertEquals("Wise Owl", fields.get("suggestedCharacter"));
+        assertEquals(0.92, ((Number) fields.get("confidence")).doubleValue());
+        assertEquals(List.of("analytical", "calm"), fields.get("traits"));
+        assertEquals("A \"thoughtful\" look", fields.get("reasoning"));
+        assertEquals("Like the owl ü\n\u2014 ü", fields.get("personalizedStory"));
+    }
+
+    @Test
+    void testSameFieldsForEverySplit() {
+        val whole = new LinkedHashMap<String, Object>();
+        new StreamingJsonFieldExtractor(whole::put).accept(ANSWER);
+
+        for (var split = 1; split < ANSWER.length(); split++) {
+            val fields = new LinkedHashMap<String, Object>();
+            val extractor = new StreamingJsonFieldExtractor(fields::put);
+            extractor.accept(ANSWER.substring(0, split));
+            extractor.accept(ANSWER.substring(split));
+
+            assertEquals(whole, fields, "split at " + split);
+            assertTrue(extractor.isComplete());
+        }
+    }
+
+    @Test
+    void testReportsEachFieldOnceComplete() {
+        val fields = new ArrayList<String>();
+        val extractor = new StreamingJsonFieldExtractor((name, value) -> fields.add(name));
+
+        extractor.accept("{\"suggestedCharacter\": \"Wise");
+        assertEquals(List.of(), fields);
+        extractor.accept(" Owl\", \"confidence\": 0.9");
+        // The number could still go on
+        assertEquals(List.of("suggestedCharacter"), fields);
+        extractor.accept("2, \"traits\": [\"calm\"");
+        assertEquals(List.of("suggestedCharacter", "confidence"), fields);
+        extractor.accept("]");
+        assertEquals(List.of("suggestedCharacter", "confidence", "traits"), fields);
+    }
+
+    @Test
+    void testToleratesFenceAndLiteralNewlines() {
+        val fields = new LinkedHashMap<String, Object>();
+        val extractor = new StreamingJsonFieldExtractor(fields::put);
+
+        extractor.accept("```json\n{\\n  \"suggestedCharacter\": \"Wise Owl\",\\n  \"confidence\":\\n0.9\\n}\n```");
+
+        assertEquals(Map.of("suggestedCharacter", "Wise Owl", "confidence", 0.9), fields);
+        assertTrue(extractor.isComplete());
+    }
+
+    @Test
+    void testSkipsBracesInPreamble() {
+        val fields = new LinkedHashMap<String, Object>();
+        val extractor = new StreamingJsonFieldExtractor(fields::put);
+
+        extractor.accept("Filling in {fields} as asked: {\"confidence\": 1}");
+
+        assertEquals(Map.of("confidence", 1L), fields);
+        assertTrue(extractor.isComplete());
+    }
+
+    @Test
+    void testSkipsNestedValues() {
+        val fields = new LinkedHashMap<String, Object>();
+        val extractor = new StreamingJsonFieldExtractor(fields::put);
+
+        extractor.accept("{\"meta\": {\"note\": \"} ]\", \"n\": [1]}, \"grid\": [[1], 2], \"ok\": true, \"none\": null}");
+
+        val expected = new LinkedHashMap<String, Object>();
+        expected.put("ok", true);
+        expected.put("none", null);
+        assertEquals(expected, fields);
+        assertTrue(extractor.isComplete());
+    }
+
+    @Test
+    void testStopsAtOverlongValue() {
+        val fields = new LinkedHashMap<String, Object>();
+        val extractor = new StreamingJsonFieldExtractor(fields::put);
+
+        extractor.accept("{\"confidence\": 0.9, \"reasoning\": \"");
+        for (var i = 0; i <= StreamingJsonFieldExtractor.MAX_VALUE_CHARS / 8; i++) {
+            extractor.accept("abcdefgh");
+        }
+        extractor.accept("\", \"traits\": [\"calm\"]}");
+
+        assertEquals(Map.of("confidence", 0.9), fields);
+        assertFalse(extractor.isComplete());
+    }
+
+    @Test
+    void testStopsAtMalformedInput() {
+        val fields = new LinkedHashMap<String, Object>();
+        val extractor = new StreamingJsonFieldExtractor(fields::put);
+
+        extractor.accept("{\"suggestedCharacter\": \"Wise Owl\", oops, \"confidence\": 0.9}");
+
+        assertEquals(Map.of("suggestedCharacter", "Wise Owl"), fields);
+    }
+}
@@ -0,0 +1,205 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadSessionStoreTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PreprocessingExecutor executor;
+    private UploadSessionStore store;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        val tokenBudget = new ImageTokenBudget(meterRegistry, 1024, 1400, 400, 200, false, 20000, 20);
+        val imageService = new ImageService(
+                new ImageProbe(50_000_000, 1, 32),
+                new ImageResampler(ResampleQuality.AREA_AVERAGE, 64),
+                new JpegEncoder(0, 0, 0.4f, 0.92f, 5),
+                tokenBudget,
+                true,
+                1024 * 1024,
+                true
+        );
+        executor = new PreprocessingExecutor(meterRegistry, 1, 1, PreprocessingExecutor.RejectionPolicy.REJECT, 2);
+        store = new UploadSessionStore(imageService, new ImageProbe(50_000_000, 1, 32), executor,
+                meterRegistry, tempDir.toString(), 900, 2, 30);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testChunkedUploadIsPreprocessed() throws Exception {
+        val image = png(300, 200);
+        val id = store.create("image/png", image.length).getId();
+
+        val half = image.length / 2;
+        val first = store.append(id, 0, half - 1, image.length, new ByteArrayInputStream(image, 0, half));
+        assertEquals(half, first.getReceived());
+        assertFalse(first.isComplete());
+
+        val last = store.append(id, half, image.length - 1, image.length,
+                new ByteArrayInputStream(image, half, image.length - half));
+        assertTrue(last.isComplete());
+
+        val processed = store.complete(id).get(5, TimeUnit.SECONDS);
+        assertEquals("image/png", processed.getMediaType());
+        assertArrayEquals(image, Arrays.copyOf(processed.getData(), processed.getLength()));
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    void testResumesAfterDroppedConnection() throws Exception {
+        val image = png(300, 200);
+        val id = store.create("image/png", image.length).getId();
+
+        // The connection drops after 100 bytes of a chunk covering the whole image
+        assertThrows(IOException.class, () -> store.append(id, 0, image.length - 1, image.length,
+                new DroppingInputStream(Arrays.copyOf(image, 100))));
+        assertEquals(100, store.status(id).getReceived());
+
+        // Resent chunks may overlap what is stored, but not leave a gap
+        val gap = assertThrows(UploadOffsetMismatchException.class, () -> store.append(id, 200, image.length - 1,
+                image.length, new ByteArrayInputStream(image, 200, image.length - 200)));
+        assertEquals(100, gap.getOffset());
+
+        store.append(id, 50, image.length - 1, image.length, new ByteArrayInputStream(image, 50, image.length - 50));
+        val processed = store.complete(id).get(5, TimeUnit.SECONDS);
+        assertArrayEquals(image, Arrays.copyOf(processed.getData(), processed.getLength()));
+    }
+
+    @Test
+    void testRejectsUnsupportedImageFromFirstChunk() throws Exception {
+        val id = store.create("image/jpeg", 4096).getId();
+
+        assertThrows(IllegalArgumentException.class, () -> store.append(id, 0, 1023, 4096,
+                new ByteArrayInputStream(new byte[1024])));
+        assertThrows(NoSuchElementException.class, () -> store.status(id));
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    void testCompleteRequiresAllBytes() throws Exception {
+        val image = png(50, 50);
+        val id = store.create("image/png", image.length).getId();
+        store.append(id, 0, 9, image.length, new ByteArrayInputStream(image, 0, 10));
+
+        assertThrows(IllegalStateException.class, () -> store.complete(id));
+    }
+
+    @Test
+    void testRejectsInvalidChunks() throws Exception {
+        val id = store.create("image/png", 100).getId();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.append(id, 0, 9, 200, new ByteArrayInputStream(new byte[10])));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.append(id, 0, 100, 100, new ByteArrayInputStream(new byte[101])));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.append(id, 0, 9, 100, new ByteArrayInputStream(new byte[11])));
+    }
+
+    @Test
+    void testRejectsInvalidSessions() {
+        assertThrows(IllegalArgumentException.class, () -> store.create("image/gif", 100));
+        assertThrows(IllegalArgumentException.class, () -> store.create("image/png", 0));
+        assertThrows(IllegalArgumentException.class, () -> store.create("image/png", ImageService.MAX_FILE_SIZE + 1));
+    }
+
+    @Test
+    void testRefusesSessionsPastCapacity() throws Exception {
+        val first = store.create("image/png", 100).getId();
+        store.create("image/png", 100);
+
+        val busy = assertThrows(ServiceBusyException.class, () -> store.create("image/png", 100));
+        assertEquals(30, busy.getRetryAfterSeconds());
+        assertEquals(2, countFiles());
+
+        // Uploads in progress are kept; a slot opens only when one is removed
+        assertEquals(100, store.status(first).getSize());
+        store.remove(first);
+        assertNotNull(store.create("image/png", 100).getId());
+    }
+
+    @Test
+    void testRemoveDeletesFile() throws Exception {
+        val id = store.create("image/png", 100).getId();
+        assertEquals(1, countFiles());
+
+        store.remove(id);
+
+        assertEquals(0, countFiles());
+        assertThrows(NoSuchElementException.class, () -> store.status(id));
+        assertThrows(NoSuchElementException.class, () -> store.remove(id));
+    }
+
+    private long countFiles() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        val image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (var y = 0; y < height; y++) {
+            for (var x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 7) ^ (y * 13));
+            }
+        }
+        val out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    // Serves its bytes, then fails as a reset connection would
+    private static final class DroppingInputStream extends InputStream {
+
+        private final ByteArrayInputStream bytes;
+
+        DroppingInputStream(byte[] data) {
+            this.bytes = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            val read = bytes.read();
+            if (read < 0) {
+                throw new IOException("Connection reset");
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            val read = bytes.read(b, off, len);
+            if (read < 0) {
+                throw new IOException("Connection reset");
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.animalanalyzer.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamUsageMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UpstreamUsageMetrics metrics = new UpstreamUsageMetrics(meterRegistry);
+
+    @Test
+    void testRecordsTokensByType() {
+        metrics.record(new MessagesResponse.Usage(1200, 180, 1500, 0));
+        metrics.record(new MessagesResponse.Usage(1100, 200, 0, 1500));
+
+        assertEquals(2300.0, tokens("input"));
+        assertEquals(380.0, tokens("output"));
+        assertEquals(1500.0, tokens("cache_read"));
+        assertEquals(1500.0, tokens("cache_creation"));
+    }
+
+    private double tokens(String type) {
+        return meterRegistry.get("analysis.upstream.tokens").tag("type", type).counter().count();
+    }
+}